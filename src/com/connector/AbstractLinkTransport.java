@@ -0,0 +1,85 @@
+package com.connector;
+
+import java.io.IOException;
+
+import com.reader.LabConnectUtil;
+
+/**
+ * Shared plumbing for transports that only offer blocking reads: event mode is
+ * provided by a pump thread that reads into one reused buffer and hands the
+ * bytes to the listener.
+ */
+public abstract class AbstractLinkTransport implements LinkTransport {
+
+	protected static final int PUMP_BUFFER_SIZE = 4096;
+	protected static final int PUMP_READ_TIMEOUT_MS = 500;
+
+	private volatile LinkListener listener;
+	private volatile Thread pumpThread;
+	private final ClearToSendGate clearToSendGate = new ClearToSendGate();
+
+	public void setListener(LinkListener listener, boolean pushData) throws IOException {
+		this.listener = listener;
+		if (listener != null && pushData && pumpThread == null) {
+			startPump();
+		}
+	}
+
+	protected LinkListener getListener() {
+		return listener;
+	}
+
+	public boolean isClearToSend() {
+		return true;
+	}
+
+	public boolean awaitClearToSend(long timeoutMs) throws InterruptedException {
+		return clearToSendGate.await(this, timeoutMs);
+	}
+
+	/**
+	 * Wake writers waiting for clear-to-send after CTS changed
+	 */
+	protected void clearToSendChanged() {
+		clearToSendGate.changed();
+	}
+
+	private void startPump() {
+		Thread thread = SessionThreads.newThread("LinkPump-" + getName(), new Runnable() {
+			public void run() {
+				byte[] buffer = new byte[PUMP_BUFFER_SIZE];
+				while (isOpen()) {
+					try {
+						int length = read(buffer, 0, buffer.length, PUMP_READ_TIMEOUT_MS);
+						if (length < 0) {
+							break;
+						}
+						LinkListener current = listener;
+						if (length > 0 && current != null) {
+							current.onDataReceived(buffer, length);
+						}
+					} catch (IOException ex) {
+						if (!isOpen()) {
+							break;
+						}
+						log(getName() + ": read failed: " + ex.getMessage());
+					}
+				}
+				pumpThread = null;
+			}
+		});
+		pumpThread = thread;
+		thread.start();
+	}
+
+	protected void stopPump() {
+		Thread thread = pumpThread;
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	protected static void log(String message) {
+		LabConnectUtil.log(message);
+	}
+}
@@ -0,0 +1,452 @@
+package com.connector;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.reader.DataReader;
+import com.reader.LabConnectUtil;
+import com.reader.CaptureJournal;
+import com.reader.MachineReadData;
+import com.reader.ResultFrameDecoder;
+import com.reader.ResultSink;
+import com.reader.ResultUploadStage;
+
+/**
+ * Gateway mode for sites with many TCP-attached analyzers.
+ *
+ * One selector thread services every analyzer session (accepted from the listen
+ * ports or connected out to terminal servers). Each session has its own
+ * ResultFrameDecoder and receive timer; decoded results go to one shared
+ * ResultUploadStage. Once the upload queue passes its high-water mark the
+ * sessions hold their ACKs (see ResultFrameDecoder), so the analyzers wait and
+ * retry by their own protocol; when the queue is full a session stops reading
+ * until its results fit, so TCP flow control holds the analyzer back.
+ */
+public class AnalyzerGateway implements Runnable {
+
+	private static final long TIMER_TICK_MS = 1000;
+	private static final long RECONNECT_DELAY_MS = 5000;
+	private static final byte[][] CONTROL_BYTES = new byte[32][];
+
+	static {
+		for (int i = 0; i < CONTROL_BYTES.length; i++) {
+			CONTROL_BYTES[i] = new byte[] {(byte) i};
+		}
+	}
+
+	private final String machineID;
+	private final ResultUploadStage uploadStage;
+	private final List<Integer> listenPorts = new ArrayList<Integer>();
+	private final List<Integer> boundPorts = new ArrayList<Integer>();
+	private final List<InetSocketAddress> connectTargets = new ArrayList<InetSocketAddress>();
+	private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+	private final List<Reconnect> pendingReconnects = new ArrayList<Reconnect>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+
+	private Selector selector;
+	private Thread selectorThread;
+	private volatile boolean running = false;
+	private volatile int peakSessions = 0;
+	private volatile CaptureJournal captureJournal;
+	private volatile long ackHoldMs = ResultFrameDecoder.DEFAULT_ACK_HOLD_MS;
+
+	public AnalyzerGateway(String machineID, ResultUploadStage uploadStage) {
+		this.machineID = machineID;
+		this.uploadStage = uploadStage;
+	}
+
+	/**
+	 * Build a gateway from the service properties:
+	 * gatewayListenPorts=4001,4002 and/or gatewayTargets=host:port,host:port
+	 */
+	public static AnalyzerGateway fromConfig(ResourceBundle bundle) {
+		ResultUploadStage stage = new ResultUploadStage(new ResultSink() {
+			public void onResult(MachineReadData machineReadData) throws Exception {
+				DataReader.webServiceCall(machineReadData);
+			}
+		}, LinkTransportFactory.getInt(bundle, "uploadQueueCapacity", ResultUploadStage.DEFAULT_QUEUE_CAPACITY),
+				LinkTransportFactory.getInt(bundle, "uploadWorkers", ResultUploadStage.DEFAULT_WORKERS));
+		stage.setHighWaterPercent(LinkTransportFactory.getInt(bundle, "uploadHighWaterPercent", ResultUploadStage.DEFAULT_HIGH_WATER_PERCENT));
+
+		AnalyzerGateway gateway = new AnalyzerGateway(LinkTransportFactory.getString(bundle, "gatewayMachineId", "VITEK2COMPACT"), stage);
+		gateway.setAckHold(LinkTransportFactory.getInt(bundle, "ackHoldTime", (int) ResultFrameDecoder.DEFAULT_ACK_HOLD_MS));
+		for (String port : LinkTransportFactory.getString(bundle, "gatewayListenPorts", "").split(",")) {
+			if (!port.trim().isEmpty()) {
+				gateway.addListenPort(Integer.parseInt(port.trim()));
+			}
+		}
+		for (String target : LinkTransportFactory.getString(bundle, "gatewayTargets", "").split(",")) {
+			String trimmed = target.trim();
+			int colon = trimmed.lastIndexOf(':');
+			if (colon > 0) {
+				gateway.addConnectTarget(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1)));
+			}
+		}
+		return gateway;
+	}
+
+	/**
+	 * Capture the raw bytes of every session in this journal (null to stop capturing)
+	 */
+	public void setCaptureJournal(CaptureJournal captureJournal) {
+		this.captureJournal = captureJournal;
+	}
+
+	/**
+	 * Longest time an ACK is held while the upload queue is past its
+	 * high-water mark, for sessions opened from now on (0 never holds)
+	 */
+	public void setAckHold(long ackHoldMs) {
+		this.ackHoldMs = ackHoldMs;
+	}
+
+	/**
+	 * Accept analyzer connections on this port (0 picks a free port, see getBoundPorts)
+	 */
+	public void addListenPort(int port) {
+		listenPorts.add(port);
+	}
+
+	/**
+	 * Connect out to a terminal server that exposes an analyzer's serial line
+	 */
+	public void addConnectTarget(String host, int port) {
+		connectTargets.add(new InetSocketAddress(host, port));
+	}
+
+	public void start() throws IOException {
+		if (running) {
+			return;
+		}
+		selector = Selector.open();
+		for (int port : listenPorts) {
+			ServerSocketChannel server = ServerSocketChannel.open();
+			server.configureBlocking(false);
+			server.socket().setReuseAddress(true);
+			server.socket().bind(new InetSocketAddress(port));
+			server.register(selector, SelectionKey.OP_ACCEPT);
+			boundPorts.add(server.socket().getLocalPort());
+			log("AnalyzerGateway: Listening on port " + server.socket().getLocalPort());
+		}
+		for (InetSocketAddress target : connectTargets) {
+			connect(target);
+		}
+		uploadStage.start();
+		running = true;
+		selectorThread = new Thread(this, "AnalyzerGateway-selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+		log("AnalyzerGateway: Started with " + listenPorts.size() + " listen ports and " + connectTargets.size() + " outbound targets");
+	}
+
+	public void stop() {
+		running = false;
+		if (selector != null) {
+			selector.wakeup();
+		}
+		if (selectorThread != null) {
+			try {
+				selectorThread.join(5000);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		uploadStage.stop();
+		log("AnalyzerGateway: Stopped");
+	}
+
+	public void run() {
+		long nextTick = System.currentTimeMillis() + TIMER_TICK_MS;
+		while (running) {
+			try {
+				selector.select(TIMER_TICK_MS);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handleKey(key);
+				}
+				long now = System.currentTimeMillis();
+				if (now >= nextTick) {
+					runTimers(now);
+					nextTick = now + TIMER_TICK_MS;
+				}
+			} catch (IOException ex) {
+				log("AnalyzerGateway: Selector error: " + ex.getMessage());
+			}
+		}
+		for (Session session : sessions) {
+			closeSession(session, "gateway stopped");
+		}
+		try {
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+			selector.close();
+		} catch (IOException ex) {
+			// Shutting down anyway
+		}
+	}
+
+	private void handleKey(SelectionKey key) {
+		if (!key.isValid()) {
+			return;
+		}
+		Session session = (Session) key.attachment();
+		try {
+			if (key.isAcceptable()) {
+				SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+				if (channel != null) {
+					openSession(channel, null);
+				}
+				return;
+			}
+			if (key.isConnectable()) {
+				if (session.channel.finishConnect()) {
+					key.interestOps(SelectionKey.OP_READ);
+					log("AnalyzerGateway: Connected " + session.name);
+				}
+				return;
+			}
+			if (key.isReadable()) {
+				readSession(session);
+			}
+			if (key.isValid() && key.isWritable()) {
+				flush(session);
+			}
+		} catch (IOException ex) {
+			if (session != null) {
+				closeSession(session, ex.getMessage());
+			}
+		} catch (Exception ex) {
+			log("AnalyzerGateway: Error in " + (session != null ? session.name : "listener") + ": " + ex);
+		}
+	}
+
+	private void connect(InetSocketAddress target) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		boolean connected = channel.connect(target);
+		Session session = openSession(channel, target);
+		if (!connected) {
+			session.key.interestOps(SelectionKey.OP_CONNECT);
+		}
+	}
+
+	private Session openSession(SocketChannel channel, InetSocketAddress target) throws IOException {
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Session session = new Session(channel, target);
+		session.key = channel.register(selector, SelectionKey.OP_READ, session);
+		sessions.add(session);
+		peakSessions = Math.max(peakSessions, sessions.size());
+		if (target == null) {
+			log("AnalyzerGateway: Accepted " + session.name + " (" + sessions.size() + " sessions)");
+		}
+		return session;
+	}
+
+	private void readSession(Session session) throws Exception {
+		readBuffer.clear();
+		int count = session.channel.read(readBuffer);
+		if (count < 0) {
+			closeSession(session, "closed by peer");
+			return;
+		}
+		if (count > 0) {
+			session.bytesIn += count;
+			CaptureJournal journal = captureJournal;
+			if (journal != null) {
+				journal.append(machineID + "|" + session.name, readBuffer.array(), 0, count);
+			}
+			session.decoder.decode(readBuffer.array(), 0, count);
+			updateInterest(session);
+		}
+	}
+
+	private void flush(Session session) throws IOException {
+		while (!session.outbound.isEmpty()) {
+			ByteBuffer head = session.outbound.peek();
+			session.channel.write(head);
+			if (head.hasRemaining()) {
+				break;
+			}
+			session.outbound.poll();
+		}
+		updateInterest(session);
+	}
+
+	/**
+	 * Reading stops while results are waiting for room in the upload queue,
+	 * writing is armed only while there are unsent bytes.
+	 */
+	private void updateInterest(Session session) {
+		if (!session.key.isValid() || (session.key.interestOps() & SelectionKey.OP_CONNECT) != 0) {
+			return;
+		}
+		int ops = session.pendingResults.isEmpty() ? SelectionKey.OP_READ : 0;
+		if (!session.outbound.isEmpty()) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		session.key.interestOps(ops);
+	}
+
+	private void runTimers(long now) {
+		for (Session session : sessions) {
+			session.decoder.checkReceiveTimeout(now);
+			while (!session.pendingResults.isEmpty() && uploadStage.offer(session.pendingResults.peek())) {
+				session.pendingResults.poll();
+			}
+			try {
+				session.decoder.releaseHeldAck(now);
+			} catch (IOException ex) {
+				closeSession(session, ex.getMessage());
+				continue;
+			}
+			updateInterest(session);
+		}
+		Iterator<Reconnect> reconnects = pendingReconnects.iterator();
+		while (reconnects.hasNext()) {
+			Reconnect reconnect = reconnects.next();
+			if (now >= reconnect.at) {
+				reconnects.remove();
+				try {
+					connect(reconnect.target);
+				} catch (IOException ex) {
+					log("AnalyzerGateway: Reconnect to " + reconnect.target + " failed: " + ex.getMessage());
+					pendingReconnects.add(new Reconnect(reconnect.target, now + RECONNECT_DELAY_MS));
+					break;
+				}
+			}
+		}
+	}
+
+	private void closeSession(Session session, String reason) {
+		sessions.remove(session);
+		session.key.cancel();
+		try {
+			session.channel.close();
+		} catch (IOException ex) {
+			// Already closed
+		}
+		for (MachineReadData result : session.pendingResults) {
+			if (!uploadStage.offer(result)) {
+				log("AnalyzerGateway: Upload queue full, result from " + session.name + " dropped on close");
+			}
+		}
+		log("AnalyzerGateway: Session " + session.name + " closed (" + reason + ")");
+		if (session.target != null && running) {
+			pendingReconnects.add(new Reconnect(session.target, System.currentTimeMillis() + RECONNECT_DELAY_MS));
+		}
+	}
+
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	public int getPeakSessionCount() {
+		return peakSessions;
+	}
+
+	public List<Integer> getBoundPorts() {
+		return new ArrayList<Integer>(boundPorts);
+	}
+
+	public ResultUploadStage getUploadStage() {
+		return uploadStage;
+	}
+
+	public String getStatus() {
+		StringBuilder status = new StringBuilder();
+		status.append("AnalyzerGateway Status:\n");
+		status.append("- Running: ").append(running).append("\n");
+		status.append("- Sessions: ").append(sessions.size()).append("\n");
+		status.append("- Upload Queue: ").append(uploadStage.getQueueDepth()).append("/").append(uploadStage.getCapacity()).append("\n");
+		status.append("- Uploaded: ").append(uploadStage.getUploadedCount()).append(", Failed: ").append(uploadStage.getFailedCount()).append("\n");
+		long heldAcks = 0;
+		long busyNaks = 0;
+		for (Session session : sessions) {
+			heldAcks += session.decoder.getHeldAckCount();
+			busyNaks += session.decoder.getBusyNakCount();
+		}
+		status.append("- Held ACKs: ").append(heldAcks).append(", Busy NAKs: ").append(busyNaks)
+				.append(" (high-water mark ").append(uploadStage.getHighWaterMark()).append(")\n");
+		return status.toString();
+	}
+
+	/**
+	 * State of one analyzer connection, only touched by the selector thread
+	 */
+	private class Session implements ResultFrameDecoder.Responder, ResultSink, ResultFrameDecoder.Backpressure {
+		final SocketChannel channel;
+		final InetSocketAddress target;
+		final String name;
+		final ResultFrameDecoder decoder;
+		final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>();
+		final ArrayDeque<MachineReadData> pendingResults = new ArrayDeque<MachineReadData>();
+		SelectionKey key;
+		long bytesIn = 0;
+
+		Session(SocketChannel channel, InetSocketAddress target) {
+			this.channel = channel;
+			this.target = target;
+			String remote;
+			try {
+				remote = String.valueOf(target != null ? target : channel.getRemoteAddress());
+			} catch (IOException ex) {
+				remote = "unknown";
+			}
+			this.name = remote;
+			this.decoder = new ResultFrameDecoder(machineID, this, this);
+			this.decoder.setVerbose(false);
+			this.decoder.setBackpressure(this, ackHoldMs);
+		}
+
+		public void reply(int controlByte) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(CONTROL_BYTES[controlByte & 0x1F]);
+			if (outbound.isEmpty()) {
+				channel.write(buffer);
+			}
+			if (buffer.hasRemaining()) {
+				outbound.add(buffer);
+			}
+		}
+
+		public boolean isCongested() {
+			return !pendingResults.isEmpty() || uploadStage.isCongested();
+		}
+
+		public void onResult(MachineReadData machineReadData) {
+			if (!pendingResults.isEmpty() || !uploadStage.offer(machineReadData)) {
+				pendingResults.add(machineReadData);
+			}
+		}
+	}
+
+	private static class Reconnect {
+		final InetSocketAddress target;
+		final long at;
+
+		Reconnect(InetSocketAddress target, long at) {
+			this.target = target;
+			this.at = at;
+		}
+	}
+
+	private static void log(String message) {
+		LabConnectUtil.log(message);
+	}
+}
@@ -0,0 +1,39 @@
+package com.connector;
+
+/**
+ * Lets a writer block until its link reports clear-to-send. Transports call
+ * changed() when they see CTS move; the state is also re-checked every
+ * POLL_INTERVAL_MS in case a line event was missed or never delivered.
+ */
+class ClearToSendGate {
+
+	static final long POLL_INTERVAL_MS = 50;
+
+	private final Object lock = new Object();
+
+	void changed() {
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * @return true once the link is clear to send, false if it was not within the timeout
+	 */
+	boolean await(LinkTransport link, long timeoutMs) throws InterruptedException {
+		if (link.isClearToSend()) {
+			return true;
+		}
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		synchronized (lock) {
+			while (!link.isClearToSend()) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				lock.wait(Math.min(remaining, POLL_INTERVAL_MS));
+			}
+		}
+		return true;
+	}
+}
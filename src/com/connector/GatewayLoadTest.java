@@ -0,0 +1,158 @@
+package com.connector;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.reader.MachineReadData;
+import com.reader.ResultSink;
+import com.reader.ResultUploadStage;
+
+/**
+ * Load test for the gateway mode: N simulated analyzers connect over TCP, wait
+ * until all of them are connected, and then each sends a series of result
+ * messages, waiting for the ACK after every message like the instrument does.
+ * Uploads go to a simulated LIS. The run fails unless the gateway served all
+ * N sessions at once.
+ *
+ * Usage: GatewayLoadTest [analyzers=50] [messagesPerAnalyzer=20] [lisLatencyMs=20]
+ */
+public class GatewayLoadTest {
+
+	public static void main(String[] args) throws Exception {
+		final int analyzers = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		final int messagesPerAnalyzer = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		final long lisLatencyMs = args.length > 2 ? Long.parseLong(args[2]) : 20;
+		final int totalMessages = analyzers * messagesPerAnalyzer;
+
+		System.out.println("=== Analyzer Gateway Load Test ===");
+		System.out.println("Analyzers: " + analyzers + ", messages each: " + messagesPerAnalyzer + ", LIS latency: " + lisLatencyMs + " ms");
+
+		final AtomicLong uploaded = new AtomicLong();
+		final CountDownLatch allUploaded = new CountDownLatch(totalMessages);
+		ResultUploadStage stage = new ResultUploadStage(new ResultSink() {
+			public void onResult(MachineReadData machineReadData) throws Exception {
+				Thread.sleep(lisLatencyMs);
+				uploaded.incrementAndGet();
+				allUploaded.countDown();
+			}
+		}, ResultUploadStage.DEFAULT_QUEUE_CAPACITY, 4);
+
+		AnalyzerGateway gateway = new AnalyzerGateway("VITEK2COMPACT", stage);
+		gateway.addListenPort(0);
+		gateway.start();
+		final int port = gateway.getBoundPorts().get(0);
+		int baselineThreads = Thread.activeCount();
+
+		final long[][] ackLatencies = new long[analyzers][messagesPerAnalyzer];
+		final CountDownLatch analyzersConnected = new CountDownLatch(analyzers);
+		final CountDownLatch startSending = new CountDownLatch(1);
+		final CountDownLatch analyzersDone = new CountDownLatch(analyzers);
+		final AtomicLong failures = new AtomicLong();
+
+		for (int a = 0; a < analyzers; a++) {
+			final int analyzer = a;
+			Thread simulator = new Thread(new Runnable() {
+				public void run() {
+					try {
+						simulateAnalyzer(port, analyzer, messagesPerAnalyzer, ackLatencies[analyzer],
+								analyzersConnected, startSending);
+					} catch (Exception ex) {
+						failures.incrementAndGet();
+						System.out.println("Analyzer " + analyzer + " failed: " + ex);
+					} finally {
+						analyzersDone.countDown();
+					}
+				}
+			}, "SimulatedAnalyzer-" + a);
+			simulator.setDaemon(true);
+			simulator.start();
+		}
+
+		// Release the analyzers only once the gateway has a session for every one of them
+		analyzersConnected.await(1, TimeUnit.MINUTES);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (gateway.getSessionCount() < analyzers && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		long start = System.nanoTime();
+		startSending.countDown();
+
+		analyzersDone.await(5, TimeUnit.MINUTES);
+		long sentNanos = System.nanoTime() - start;
+		allUploaded.await(5, TimeUnit.MINUTES);
+		long totalNanos = System.nanoTime() - start;
+
+		long[] all = new long[totalMessages];
+		for (int a = 0; a < analyzers; a++) {
+			System.arraycopy(ackLatencies[a], 0, all, a * messagesPerAnalyzer, messagesPerAnalyzer);
+		}
+		Arrays.sort(all);
+
+		System.out.println("Messages sent:        " + totalMessages + " in " + (sentNanos / 1000000) + " ms");
+		System.out.println("Messages uploaded:    " + uploaded.get() + " in " + (totalNanos / 1000000) + " ms");
+		System.out.println("Throughput:           " + String.format("%.1f", totalMessages * 1e9 / totalNanos) + " results/s");
+		System.out.println("ACK latency p50/p99:  " + String.format("%.2f / %.2f ms", all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6));
+		System.out.println("Peak sessions:        " + gateway.getPeakSessionCount());
+		System.out.println("Gateway threads:      " + countThreads("AnalyzerGateway") + " selector + " + countThreads("ResultUpload") + " upload"
+				+ " (simulators excluded, JVM had " + baselineThreads + " threads before the analyzers connected)");
+		System.out.println("Simulator failures:   " + failures.get());
+
+		gateway.stop();
+		boolean passed = gateway.getPeakSessionCount() >= analyzers && failures.get() == 0 && uploaded.get() == totalMessages;
+		System.out.println(passed ? "All checks passed" : "FAILED: expected " + analyzers + " concurrent sessions, "
+				+ totalMessages + " uploads and no simulator failures");
+		System.out.println("=== End Analyzer Gateway Load Test ===");
+		if (!passed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Send result messages the way the Vitek does: STX text GS checksum ETX, one ACK per GS
+	 */
+	private static void simulateAnalyzer(int port, int analyzer, int messages, long[] latencies,
+			CountDownLatch connected, CountDownLatch startSending) throws Exception {
+		Socket socket = new Socket("127.0.0.1", port);
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(30000);
+			OutputStream out = socket.getOutputStream();
+			InputStream in = socket.getInputStream();
+			connected.countDown();
+			if (!startSending.await(2, TimeUnit.MINUTES)) {
+				throw new IllegalStateException("Not all analyzers connected");
+			}
+			for (int i = 0; i < messages; i++) {
+				byte[] message = ("\u0002mtrsl|iiiR|rsVITEK|ci" + analyzer + "-" + i + "|s110/19/2026|t11|o2Escherichia coli"
+						+ "|a1AM|a3>=32|a4R|a1GM|a3<=1|a4S|zz|\u001D\u0003").getBytes("US-ASCII");
+				long sentAt = System.nanoTime();
+				out.write(message);
+				out.flush();
+				int ack = in.read();
+				latencies[i] = System.nanoTime() - sentAt;
+				if (ack != 0x06) {
+					throw new IllegalStateException("Expected ACK, got " + ack);
+				}
+			}
+			out.write(0x04);
+			out.flush();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static int countThreads(String prefix) {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith(prefix)) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,168 @@
+package com.connector;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory LinkTransport for tests and simulations. Transports are created in
+ * connected pairs: bytes written to one end are read from the other.
+ */
+public class InMemoryLinkTransport extends AbstractLinkTransport {
+
+	private final String name;
+	private final Pipe inbound;
+	private Pipe outbound;
+	private volatile boolean open = false;
+	private volatile boolean clearToSend = true;
+
+	private InMemoryLinkTransport(String name, Pipe inbound) {
+		this.name = name;
+		this.inbound = inbound;
+	}
+
+	/**
+	 * Create two connected ends, e.g. one for the interface and one for a simulated analyzer
+	 * @return array of the two ends
+	 */
+	public static InMemoryLinkTransport[] createPair(String nameA, String nameB) {
+		Pipe aToB = new Pipe();
+		Pipe bToA = new Pipe();
+		InMemoryLinkTransport a = new InMemoryLinkTransport(nameA, bToA);
+		InMemoryLinkTransport b = new InMemoryLinkTransport(nameB, aToB);
+		a.outbound = aToB;
+		b.outbound = bToA;
+		return new InMemoryLinkTransport[] {a, b};
+	}
+
+	public void open() throws IOException {
+		open = true;
+	}
+
+	public void close() throws IOException {
+		open = false;
+		stopPump();
+		inbound.wakeUp();
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void write(byte[] data) throws IOException {
+		write(data, 0, data.length);
+	}
+
+	public void write(byte[] data, int offset, int length) throws IOException {
+		if (!open) {
+			throw new IOException(name + " is closed");
+		}
+		outbound.write(data, offset, length);
+	}
+
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b});
+	}
+
+	public int read(byte[] buffer, int offset, int length, int timeoutMs) throws IOException {
+		if (!open) {
+			return -1;
+		}
+		try {
+			return inbound.read(buffer, offset, length, timeoutMs);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return open ? 0 : -1;
+		}
+	}
+
+	public boolean isClearToSend() {
+		return clearToSend;
+	}
+
+	/**
+	 * Simulate the peer raising or dropping CTS
+	 */
+	public void setClearToSend(boolean on) {
+		clearToSend = on;
+		clearToSendChanged();
+		LinkListener listener = getListener();
+		if (listener != null) {
+			listener.onLineStatusChanged("CTS", on);
+		}
+	}
+
+	/**
+	 * Growable byte ring buffer shared by the two ends of a pair. Guarded by a
+	 * lock rather than a monitor, so a reader waiting on a virtual thread does
+	 * not pin its carrier.
+	 */
+	private static class Pipe {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition readable = lock.newCondition();
+		private byte[] data = new byte[1024];
+		private int head = 0;
+		private int size = 0;
+
+		void write(byte[] source, int offset, int length) {
+			lock.lock();
+			try {
+				append(source, offset, length);
+				readable.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void append(byte[] source, int offset, int length) {
+			if (size + length > data.length) {
+				byte[] grown = new byte[Math.max(data.length * 2, size + length)];
+				for (int i = 0; i < size; i++) {
+					grown[i] = data[(head + i) % data.length];
+				}
+				data = grown;
+				head = 0;
+			}
+			for (int i = 0; i < length; i++) {
+				data[(head + size + i) % data.length] = source[offset + i];
+			}
+			size += length;
+		}
+
+		int read(byte[] target, int offset, int length, int timeoutMs) throws InterruptedException {
+			lock.lock();
+			try {
+				long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+				while (size == 0) {
+					if (remaining <= 0) {
+						return 0;
+					}
+					remaining = readable.awaitNanos(remaining);
+				}
+				int count = Math.min(length, size);
+				for (int i = 0; i < count; i++) {
+					target[offset + i] = data[(head + i) % data.length];
+				}
+				head = (head + count) % data.length;
+				size -= count;
+				return count;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void wakeUp() {
+			lock.lock();
+			try {
+				readable.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -2,21 +2,38 @@ package com.connector;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
 
 import org.apache.cxf.resource.PropertiesResolver;
 
-import jssc.SerialPort;
-import jssc.SerialPortException;
-
+import com.reader.CaptureJournal;
 import com.reader.DataReader;
+import com.reader.Housekeeper;
+import com.reader.LabConnectUtil;
+import com.reader.MachineReadData;
+import com.reader.ResultFrameDecoder;
+import com.reader.ResultSink;
+import com.reader.ResultStore;
+import com.reader.ResultUploadStage;
 import com.writer.DataWriterService;
 
 public class LabConnectorThread  {
 
-	private static SerialPort serialPort;
+	private static LinkTransport link;
 	private static boolean dataWriterEnabled = false;
+	private static DataReader.BlockingLinkReader blockingReader;
+	private static AnalyzerGateway gateway;
+	private static CaptureJournal captureJournal;
+	private static Housekeeper housekeeper;
+	private static ResultUploadStage uploadStage;
+	// Links of the further tenants (tenants property), by tenant name
+	private static final Map<String, LinkTransport> tenantLinks = new LinkedHashMap<String, LinkTransport>();
+	private static final List<DataReader.BlockingLinkReader> tenantReaders = new ArrayList<DataReader.BlockingLinkReader>();
 
 
 	public void run() throws Exception {
@@ -29,8 +46,7 @@ public class LabConnectorThread  {
 			propertyFileSuffix = System.getProperty("propertyFileSuffix");
 		}
 		ResourceBundle bundle = new PropertyResourceBundle(new FileInputStream(rootDrive+ File.separator+"mednet"+File.separator+"windowsService"+propertyFileSuffix+".properties"));
-		String comPortAddress = bundle.getString("comPort");
-		
+
 		// Check if data writer is enabled in configuration
 		try {
 			String dataWriterEnabledStr = bundle.getString("dataWriterEnabled");
@@ -40,34 +56,167 @@ public class LabConnectorThread  {
 			dataWriterEnabled = false;
 		}
 		
-		serialPort = new SerialPort(comPortAddress);
+		// "platform" (default) or "virtual" threads for session loops (virtual needs Java 21+)
+		SessionThreads.configure(getOptionalString(bundle, "threadMode", SessionThreads.PLATFORM));
+
+		if ("true".equalsIgnoreCase(getOptionalString(bundle, "resultStoreEnabled", "false"))) {
+			// Posted results are kept locally for lookups with ResultStoreQuery; indexing past days must not delay opening the port
+			ResultStore store = ResultStore.defaultStore(
+					getOptionalInt(bundle, "resultStoreRetentionDays", ResultStore.DEFAULT_RETENTION_DAYS));
+			store.loadInBackground();
+			DataReader.setResultStore(store);
+		}
+		if ("true".equalsIgnoreCase(getOptionalString(bundle, "captureEnabled", "false"))) {
+			// Raw received bytes, for ResultRepost to decode again
+			captureJournal = CaptureJournal.defaultJournal();
+			DataReader.setCaptureJournal(captureJournal);
+		}
+		if ("true".equalsIgnoreCase(getOptionalString(bundle, "housekeepingEnabled", "false"))) {
+			// Compresses this instance's closed logs, captures and result files and applies retention
+			housekeeper = new Housekeeper(getOptionalInt(bundle, "housekeepingInterval", (int) Housekeeper.DEFAULT_INTERVAL_MS),
+					getOptionalInt(bundle, "logSegmentMB", 100) * 1024L * 1024,
+					getOptionalInt(bundle, "housekeepingMaxTotalMB", 0) * 1024L * 1024,
+					getOptionalInt(bundle, "housekeepingRateKB", 4096) * 1024L);
+			housekeeper.addArea("log", LabConnectUtil.getLogDirectory(), "_" + propertyFileSuffix + "Log",
+					getOptionalInt(bundle, "logRetentionDays", Housekeeper.DEFAULT_LOG_RETENTION_DAYS));
+			housekeeper.addArea("capture", CaptureJournal.defaultDirectory(), "capture_" + propertyFileSuffix + "_",
+					getOptionalInt(bundle, "captureRetentionDays", 30));
+			housekeeper.addArea("results", ResultStore.defaultDirectory(), "results_" + propertyFileSuffix + "_",
+					getOptionalInt(bundle, "resultStoreRetentionDays", ResultStore.DEFAULT_RETENTION_DAYS));
+			housekeeper.start();
+		}
+
+		if ("gateway".equalsIgnoreCase(getOptionalString(bundle, "linkType", "serial"))) {
+			// Many TCP-attached analyzers serviced by one selector thread, results only
+			gateway = AnalyzerGateway.fromConfig(bundle);
+			gateway.setCaptureJournal(captureJournal);
+			gateway.start();
+			if (dataWriterEnabled) {
+				System.out.println("Data writer is not available in gateway mode");
+				dataWriterEnabled = false;
+			}
+			return;
+		}
+
+		// "event" (default) reads on receive events, "blocking" uses a dedicated reader thread
+		String readMode = getOptionalString(bundle, "readMode", "event");
+
+		// "inline" (default) posts each result on the reading thread, "queued" hands it to upload workers
+		if ("queued".equalsIgnoreCase(getOptionalString(bundle, "resultUpload", "inline"))) {
+			uploadStage = new ResultUploadStage(new ResultSink() {
+				public void onResult(MachineReadData machineReadData) throws Exception {
+					DataReader.webServiceCall(machineReadData);
+				}
+			}, getOptionalInt(bundle, "uploadQueueCapacity", ResultUploadStage.DEFAULT_QUEUE_CAPACITY),
+					getOptionalInt(bundle, "uploadWorkers", ResultUploadStage.DEFAULT_WORKERS));
+			uploadStage.setHighWaterPercent(getOptionalInt(bundle, "uploadHighWaterPercent", ResultUploadStage.DEFAULT_HIGH_WATER_PERCENT));
+			uploadStage.start();
+			DataReader.setUploadStage(uploadStage, getOptionalInt(bundle, "ackHoldTime", (int) ResultFrameDecoder.DEFAULT_ACK_HOLD_MS));
+		}
+
+		link = LinkTransportFactory.create(bundle);
 		try {
-			serialPort.openPort();//Open port
-			System.out.println("is port open :::: "+serialPort.getPortName());
-			serialPort.setParams(9600, 8, 1, 0);//Set params
-			int mask = SerialPort.MASK_RXCHAR + SerialPort.MASK_CTS + SerialPort.MASK_DSR;//Prepare mask
-			serialPort.setEventsMask(mask);//Set mask
-			serialPort.addEventListener(new DataReader.SerialPortReader(serialPort));
+			link.open();
+			System.out.println("is port open :::: "+link.getName());
+			if ("blocking".equalsIgnoreCase(readMode)) {
+				// Line status changes still arrive as events, received bytes are pulled by the reader thread
+				blockingReader = new DataReader.BlockingLinkReader(link,
+						getOptionalInt(bundle, "readBufferSize", DataReader.DEFAULT_READ_BUFFER_SIZE),
+						getOptionalInt(bundle, "serialReadTimeout", DataReader.DEFAULT_READ_TIMEOUT_MS));
+				link.setListener(blockingReader, false);
+				blockingReader.start();
+			} else {
+				link.setListener(new DataReader.LinkEventReader(link), true);
+			}
+			System.out.println("read mode :::: "+readMode);
 			// Initialize data writer service if enabled
 			if (dataWriterEnabled) {
-				initializeDataWriter(serialPort);
+				initializeDataWriter(link);
 			}
 			
 		} catch (Exception ex) {
 			ex.printStackTrace();
 			System.out.println(ex);
 		}
+
+		for (String tenant : TenantBundle.tenantNames(bundle)) {
+			openTenant(tenant, new TenantBundle(bundle, tenant), readMode);
+		}
+	}
+
+	/**
+	 * Open a tenant's analyzer link, read its results under its own machine ID
+	 * and start its order writer. A tenant that fails to open does not stop the others.
+	 */
+	private void openTenant(String tenant, ResourceBundle view, String readMode) {
+		try {
+			LinkTransport tenantLink = LinkTransportFactory.create(view);
+			tenantLink.open();
+			tenantLinks.put(tenant, tenantLink);
+			System.out.println("tenant " + tenant + " port open :::: " + tenantLink.getName());
+			String machineID = getOptionalString(view, "machineID", getOptionalString(view, "machineCode", tenant));
+			if ("blocking".equalsIgnoreCase(readMode)) {
+				DataReader.BlockingLinkReader reader = new DataReader.BlockingLinkReader(tenantLink, machineID,
+						getOptionalInt(view, "readBufferSize", DataReader.DEFAULT_READ_BUFFER_SIZE),
+						getOptionalInt(view, "serialReadTimeout", DataReader.DEFAULT_READ_TIMEOUT_MS));
+				tenantLink.setListener(reader, false);
+				reader.start();
+				tenantReaders.add(reader);
+			} else {
+				tenantLink.setListener(new DataReader.LinkEventReader(tenantLink, machineID), true);
+			}
+			if (dataWriterEnabled && !DataWriterService.startTenant(tenant, tenantLink)) {
+				System.out.println("Data writer not started for tenant " + tenant);
+			}
+		} catch (Exception ex) {
+			System.out.println("Failed to open tenant " + tenant + ": " + ex);
+			ex.printStackTrace();
+		}
 	}
 
 	public void closePort() {
 		try{
+			if (housekeeper != null) {
+				housekeeper.stop();
+			}
+			if (captureJournal != null) {
+				DataReader.setCaptureJournal(null);
+				if (gateway != null) {
+					gateway.setCaptureJournal(null);
+				}
+				captureJournal.close();
+			}
+			if (gateway != null) {
+				gateway.stop();
+				return;
+			}
+
 			// Stop data writer service if it was enabled
 			if (dataWriterEnabled) {
-				DataWriterService.stop(serialPort);
+				DataWriterService.stop(link);
 				System.out.println("Data writer service stopped");
 			}
-			
-			serialPort.closePort();
+
+			for (Map.Entry<String, LinkTransport> tenant : tenantLinks.entrySet()) {
+				if (dataWriterEnabled) {
+					DataWriterService.stopTenant(tenant.getKey(), tenant.getValue());
+				}
+			}
+			for (DataReader.BlockingLinkReader reader : tenantReaders) {
+				reader.stop();
+			}
+			for (LinkTransport tenantLink : tenantLinks.values()) {
+				tenantLink.close();
+			}
+
+			if (blockingReader != null) {
+				blockingReader.stop();
+			}
+			link.close();
+			if (uploadStage != null) {
+				DataReader.setUploadStage(null, 0);
+				uploadStage.stop();
+			}
 		}catch(Exception e){
 			e.printStackTrace();
 		}
@@ -76,15 +225,21 @@ public class LabConnectorThread  {
 	/**
 	 * Initialize the data writer service
 	 */
-	private void initializeDataWriter(SerialPort serialPort) {
+	private void initializeDataWriter(LinkTransport link) {
 		try {
 			System.out.println("Initializing ASTM Data Writer Service...");
 			boolean initialized = DataWriterService.initialize();
 			
 			if (initialized) {
 				// Start the data writer service
-				boolean started = DataWriterService.start(serialPort);
+				boolean started = DataWriterService.start(link);
 				if (started) {
+					// Results for samples we have not sent an order for make the writer fetch orders early
+					DataReader.setResultObserver(new ResultSink() {
+						public void onResult(MachineReadData machineReadData) {
+							DataWriterService.onResultReceived(machineReadData);
+						}
+					});
 					System.out.println("ASTM Data Writer Service started successfully");
 				} else {
 					System.out.println("Failed to start ASTM Data Writer Service");
@@ -98,6 +253,14 @@ public class LabConnectorThread  {
 		}
 	}
 	
+	private static String getOptionalString(ResourceBundle bundle, String key, String defaultValue) {
+		return LinkTransportFactory.getString(bundle, key, defaultValue);
+	}
+
+	private static int getOptionalInt(ResourceBundle bundle, String key, int defaultValue) {
+		return LinkTransportFactory.getInt(bundle, key, defaultValue);
+	}
+
 	/**
 	 * Get the data writer service for external access
 	 * This allows other components to add lab order data for writing
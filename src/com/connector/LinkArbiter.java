@@ -0,0 +1,192 @@
+package com.connector;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.reader.LabConnectUtil;
+
+/**
+ * Owns every write to one link so the reader's ACKs and the writer's order
+ * transmissions can share a single port.
+ *
+ * Single writes are serialized, so an ACK never lands inside a frame. An
+ * outbound transmission first takes the line with beginOutbound(), which
+ * waits while the analyzer is in the middle of sending to us. When both
+ * sides bid with ENQ at the same time the analyzer wins, as ASTM E1381
+ * prescribes: we answer its ENQ, receive its message and only bid again once
+ * it has finished and at least CONTENTION_BACKOFF_MS has passed.
+ */
+public class LinkArbiter {
+
+	/** ASTM E1381: after losing an ENQ contention the computer system waits at least 20 s */
+	public static final long CONTENTION_BACKOFF_MS = 20000;
+	/** An inbound session that goes quiet this long is treated as finished (E1381 receiver timeout) */
+	public static final long INBOUND_IDLE_TIMEOUT_MS = 30000;
+	/** How long a writer waits for the line by default */
+	public static final long LINE_WAIT_TIMEOUT_MS = 120000;
+
+	private static final int STX = 0x02;
+	private static final int EOT = 0x04;
+	private static final int ENQ = 0x05;
+	private static final long WAIT_SLICE_MS = 1000;
+
+	private static final Map<LinkTransport, LinkArbiter> arbiters =
+			Collections.synchronizedMap(new WeakHashMap<LinkTransport, LinkArbiter>());
+
+	private final LinkTransport link;
+	private final Object writeLock = new Object();
+
+	private Thread outboundOwner;
+	private boolean inboundActive = false;
+	private long lastInboundTime = 0;
+	private long backoffUntil = 0;
+	private long contentions = 0;
+
+	private LinkArbiter(LinkTransport link) {
+		this.link = link;
+	}
+
+	/**
+	 * The arbiter shared by the reader and the writer of one link
+	 */
+	public static LinkArbiter forLink(LinkTransport link) {
+		synchronized (arbiters) {
+			LinkArbiter arbiter = arbiters.get(link);
+			if (arbiter == null) {
+				arbiter = new LinkArbiter(link);
+				arbiters.put(link, arbiter);
+			}
+			return arbiter;
+		}
+	}
+
+	public LinkTransport getLink() {
+		return link;
+	}
+
+	/**
+	 * Reader replies (ACK/NAK); never held back behind an outbound transmission
+	 */
+	public void writeControl(int controlByte) throws IOException {
+		synchronized (writeLock) {
+			link.write(controlByte);
+		}
+	}
+
+	/**
+	 * Write part of an outbound transmission as one unit
+	 */
+	public void write(byte[] data, int offset, int length) throws IOException {
+		synchronized (writeLock) {
+			link.write(data, offset, length);
+		}
+	}
+
+	public void write(byte[] data) throws IOException {
+		write(data, 0, data.length);
+	}
+
+	public void write(int b) throws IOException {
+		writeControl(b);
+	}
+
+	/**
+	 * Take the line for an outbound transmission, waiting while the analyzer
+	 * is sending, another writer holds the line or a contention back-off runs
+	 * @return false if the line did not become free within the timeout
+	 */
+	public synchronized boolean beginOutbound(long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (true) {
+			long now = System.currentTimeMillis();
+			expireInbound(now);
+			if (outboundOwner == null && !inboundActive && now >= backoffUntil) {
+				outboundOwner = Thread.currentThread();
+				return true;
+			}
+			long remaining = deadline - now;
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(Math.min(remaining, WAIT_SLICE_MS));
+		}
+	}
+
+	/**
+	 * Release the line after EOT (no effect if the caller does not hold it)
+	 */
+	public synchronized void endOutbound() {
+		if (outboundOwner == Thread.currentThread()) {
+			outboundOwner = null;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Our ENQ crossed with the analyzer's: give up the line and back off
+	 */
+	public synchronized void yieldToInbound() {
+		contentions++;
+		long now = System.currentTimeMillis();
+		inboundActive = true;
+		lastInboundTime = now;
+		backoffUntil = now + CONTENTION_BACKOFF_MS;
+		if (outboundOwner == Thread.currentThread()) {
+			outboundOwner = null;
+		}
+		log("LinkArbiter: ENQ contention on " + link.getName() + ", yielding to the analyzer for at least " + CONTENTION_BACKOFF_MS + " ms");
+		notifyAll();
+	}
+
+	/**
+	 * Track inbound sessions from the received bytes: ENQ (or STX outside our
+	 * own transmission) starts one, EOT ends it
+	 */
+	public synchronized void onInboundData(byte[] data, int offset, int length) {
+		long now = System.currentTimeMillis();
+		boolean changed = false;
+		for (int i = offset; i < offset + length; i++) {
+			int b = data[i];
+			if (b == ENQ || (b == STX && outboundOwner == null)) {
+				changed |= !inboundActive;
+				inboundActive = true;
+			} else if (b == EOT && inboundActive) {
+				inboundActive = false;
+				changed = true;
+			}
+		}
+		lastInboundTime = now;
+		if (changed) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Whether the calling thread currently holds the line
+	 */
+	public synchronized boolean holdsLine() {
+		return outboundOwner == Thread.currentThread();
+	}
+
+	public synchronized boolean isInboundActive() {
+		expireInbound(System.currentTimeMillis());
+		return inboundActive;
+	}
+
+	public synchronized long getContentionCount() {
+		return contentions;
+	}
+
+	private void expireInbound(long now) {
+		if (inboundActive && now - lastInboundTime > INBOUND_IDLE_TIMEOUT_MS) {
+			log("LinkArbiter: Inbound session on " + link.getName() + " idle for " + (now - lastInboundTime) + " ms, releasing the line");
+			inboundActive = false;
+		}
+	}
+
+	private static void log(String message) {
+		LabConnectUtil.log(message);
+	}
+}
@@ -0,0 +1,17 @@
+package com.connector;
+
+/**
+ * Callback for events raised by a LinkTransport
+ */
+public interface LinkListener {
+
+	/**
+	 * Bytes received on the link; the buffer may be reused once this returns
+	 */
+	void onDataReceived(byte[] buffer, int length);
+
+	/**
+	 * A handshake line (CTS or DSR) changed state
+	 */
+	void onLineStatusChanged(String signal, boolean on);
+}
@@ -0,0 +1,158 @@
+package com.connector;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Hands the analyzer's answers to our transmissions (ACK, NAK, EOT, or a
+ * crossing ENQ) from the
+ * reader side to the writer waiting for them, and keeps round-trip statistics.
+ *
+ * The reader sees every byte that comes in on a link, so it forwards the
+ * control bytes here; the writer arms the monitor before it sends ENQ or a
+ * frame and then blocks until the answer arrives or the ASTM E1381 timer runs
+ * out. Answers that arrive while nothing is armed are ignored.
+ */
+public class LinkResponseMonitor {
+
+	public static final int ACK = 0x06;
+	public static final int NAK = 0x15;
+	public static final int EOT = 0x04;
+	/** The analyzer bid for the line while we were waiting: ENQ contention */
+	public static final int ENQ = 0x05;
+	/** Returned by awaitResponse when the timer expires */
+	public static final int TIMEOUT = -1;
+
+	/** ASTM E1381: sender waits this long for the reply to ENQ or a frame */
+	public static final long REPLY_TIMEOUT_MS = 15000;
+	/** ASTM E1381: wait after a NAK to ENQ before bidding again */
+	public static final long ENQ_RETRY_DELAY_MS = 10000;
+	/** ASTM E1381: a frame is abandoned after six unsuccessful transmissions */
+	public static final int MAX_FRAME_TRANSMISSIONS = 6;
+
+	private static final Map<LinkTransport, LinkResponseMonitor> monitors =
+			Collections.synchronizedMap(new WeakHashMap<LinkTransport, LinkResponseMonitor>());
+
+	private boolean armed = false;
+	private int response = TIMEOUT;
+	private long armedAt = 0;
+
+	private long ackCount = 0;
+	private long nakCount = 0;
+	private long eotCount = 0;
+	private long timeoutCount = 0;
+	private long rttCount = 0;
+	private long rttTotalNanos = 0;
+	private long rttMinNanos = Long.MAX_VALUE;
+	private long rttMaxNanos = 0;
+
+	/**
+	 * The monitor shared by the reader and the writer of one link
+	 */
+	public static LinkResponseMonitor forLink(LinkTransport link) {
+		synchronized (monitors) {
+			LinkResponseMonitor monitor = monitors.get(link);
+			if (monitor == null) {
+				monitor = new LinkResponseMonitor();
+				monitors.put(link, monitor);
+			}
+			return monitor;
+		}
+	}
+
+	/**
+	 * Start waiting for a reply; call just before writing ENQ or a frame so
+	 * that a fast answer is not missed and a stale one is not taken
+	 */
+	public synchronized void arm() {
+		armed = true;
+		response = TIMEOUT;
+		armedAt = System.nanoTime();
+	}
+
+	/**
+	 * Called by the reader for every ENQ, ACK, NAK or EOT received on the link
+	 */
+	public synchronized void onControlByte(int controlByte) {
+		if (!armed || response != TIMEOUT) {
+			return;
+		}
+		if (controlByte == ENQ) {
+			response = ENQ;
+			notifyAll();
+			return;
+		}
+		if (controlByte != ACK && controlByte != NAK && controlByte != EOT) {
+			return;
+		}
+		response = controlByte;
+		long rtt = System.nanoTime() - armedAt;
+		rttCount++;
+		rttTotalNanos += rtt;
+		rttMinNanos = Math.min(rttMinNanos, rtt);
+		rttMaxNanos = Math.max(rttMaxNanos, rtt);
+		if (controlByte == ACK) {
+			ackCount++;
+		} else if (controlByte == NAK) {
+			nakCount++;
+		} else {
+			eotCount++;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Wait for the reply to the last armed transmission
+	 * @return ACK, NAK, EOT, ENQ (contention) or TIMEOUT
+	 */
+	public synchronized int awaitResponse(long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		try {
+			while (response == TIMEOUT) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					timeoutCount++;
+					return TIMEOUT;
+				}
+				wait(remaining);
+			}
+			return response;
+		} finally {
+			armed = false;
+		}
+	}
+
+	/**
+	 * Reply round trips as avg/min/max ms, plus the ACK/NAK/EOT and timeout counts
+	 */
+	public synchronized String getStatistics() {
+		StringBuilder stats = new StringBuilder();
+		stats.append("replies=").append(rttCount);
+		if (rttCount > 0) {
+			stats.append(String.format(" rtt avg/min/max=%.2f/%.2f/%.2f ms",
+					rttTotalNanos / 1e6 / rttCount, rttMinNanos / 1e6, rttMaxNanos / 1e6));
+		}
+		stats.append(" ack=").append(ackCount)
+			.append(" nak=").append(nakCount)
+			.append(" eot=").append(eotCount)
+			.append(" timeouts=").append(timeoutCount);
+		return stats.toString();
+	}
+
+	public synchronized long getAckCount() {
+		return ackCount;
+	}
+
+	public synchronized long getNakCount() {
+		return nakCount;
+	}
+
+	public synchronized long getTimeoutCount() {
+		return timeoutCount;
+	}
+
+	public synchronized double getAverageRoundTripMs() {
+		return rttCount > 0 ? rttTotalNanos / 1e6 / rttCount : 0;
+	}
+}
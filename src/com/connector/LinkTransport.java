@@ -0,0 +1,61 @@
+package com.connector;
+
+import java.io.IOException;
+
+/**
+ * Byte link to one analyzer. The reader and writer only talk to this interface,
+ * so the same code runs over a serial port, a TCP connection to a terminal
+ * server or an in-memory pipe in tests.
+ */
+public interface LinkTransport {
+
+	/**
+	 * Open the link (port, socket or pipe)
+	 */
+	void open() throws IOException;
+
+	/**
+	 * Close the link and stop any listener thread
+	 */
+	void close() throws IOException;
+
+	boolean isOpen();
+
+	/**
+	 * Port name or host:port, used in logs
+	 */
+	String getName();
+
+	void write(byte[] data) throws IOException;
+
+	/**
+	 * Write part of a buffer, so callers can reuse one buffer for every frame
+	 */
+	void write(byte[] data, int offset, int length) throws IOException;
+
+	void write(int b) throws IOException;
+
+	/**
+	 * Blocking read into the caller's buffer
+	 * @return number of bytes read, 0 if nothing arrived within the timeout, -1 once the link is closed
+	 */
+	int read(byte[] buffer, int offset, int length, int timeoutMs) throws IOException;
+
+	/**
+	 * Register the listener for line events
+	 * @param pushData true to have received bytes pushed to the listener (event mode),
+	 *                 false when the caller pulls them with read() and only wants line status changes
+	 */
+	void setListener(LinkListener listener, boolean pushData) throws IOException;
+
+	/**
+	 * Current CTS state; links without hardware flow control always report true
+	 */
+	boolean isClearToSend();
+
+	/**
+	 * Block until the peer is ready to receive (CTS raised)
+	 * @return false if CTS stayed low for the whole timeout
+	 */
+	boolean awaitClearToSend(long timeoutMs) throws InterruptedException;
+}
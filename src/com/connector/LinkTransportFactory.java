@@ -0,0 +1,48 @@
+package com.connector;
+
+import java.util.ResourceBundle;
+
+/**
+ * Builds the LinkTransport described by the service properties file.
+ *
+ * linkType=serial (default) uses comPort/baudRate/dataBits/stopBits/parity
+ * and flowControl (none|rtscts),
+ * linkType=tcpClient connects to tcpHost:tcpPort,
+ * linkType=tcpServer listens on tcpPort.
+ */
+public class LinkTransportFactory {
+
+	public static LinkTransport create(ResourceBundle bundle) {
+		String linkType = getString(bundle, "linkType", "serial");
+
+		if ("tcpClient".equalsIgnoreCase(linkType)) {
+			return TcpLinkTransport.client(bundle.getString("tcpHost").trim(), getInt(bundle, "tcpPort", 4001));
+		}
+		if ("tcpServer".equalsIgnoreCase(linkType)) {
+			return TcpLinkTransport.server(getInt(bundle, "tcpPort", 4001));
+		}
+		SerialLinkTransport serial = new SerialLinkTransport(bundle.getString("comPort").trim(),
+				getInt(bundle, "baudRate", 9600),
+				getInt(bundle, "dataBits", 8),
+				getInt(bundle, "stopBits", 1),
+				getInt(bundle, "parity", 0));
+		serial.setHardwareFlowControl("rtscts".equalsIgnoreCase(getString(bundle, "flowControl", "none")));
+		return serial;
+	}
+
+	static String getString(ResourceBundle bundle, String key, String defaultValue) {
+		try {
+			return bundle.getString(key).trim();
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+	static int getInt(ResourceBundle bundle, String key, int defaultValue) {
+		try {
+			return Integer.parseInt(getString(bundle, key, String.valueOf(defaultValue)));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.connector;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
+import jssc.SerialPortException;
+import jssc.SerialPortTimeoutException;
+
+import com.reader.LabConnectUtil;
+
+/**
+ * LinkTransport over a local serial port using jSSC
+ */
+public class SerialLinkTransport implements LinkTransport {
+
+	private final SerialPort serialPort;
+	private final int baudRate;
+	private final int dataBits;
+	private final int stopBits;
+	private final int parity;
+	private volatile boolean listenerInstalled = false;
+	private boolean hardwareFlowControl = false;
+	private final ClearToSendGate clearToSendGate = new ClearToSendGate();
+
+	public SerialLinkTransport(String portName, int baudRate, int dataBits, int stopBits, int parity) {
+		this.serialPort = new SerialPort(portName);
+		this.baudRate = baudRate;
+		this.dataBits = dataBits;
+		this.stopBits = stopBits;
+		this.parity = parity;
+	}
+
+	/**
+	 * RTS/CTS handshake: the driver holds output while CTS is low and writers
+	 * wait for CTS before starting a transmission. Set before open().
+	 */
+	public void setHardwareFlowControl(boolean hardwareFlowControl) {
+		this.hardwareFlowControl = hardwareFlowControl;
+	}
+
+	public boolean isHardwareFlowControl() {
+		return hardwareFlowControl;
+	}
+
+	public void open() throws IOException {
+		try {
+			serialPort.openPort();
+			serialPort.setParams(baudRate, dataBits, stopBits, parity);
+			if (hardwareFlowControl) {
+				serialPort.setFlowControlMode(SerialPort.FLOWCONTROL_RTSCTS_IN | SerialPort.FLOWCONTROL_RTSCTS_OUT);
+			}
+			log("SerialLinkTransport: Opened " + getName() + " at " + baudRate + "," + dataBits + "," + stopBits + "," + parity);
+		} catch (SerialPortException ex) {
+			throw new IOException("Cannot open " + getName() + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			if (serialPort.isOpened()) {
+				if (listenerInstalled) {
+					serialPort.removeEventListener();
+					listenerInstalled = false;
+				}
+				serialPort.closePort();
+			}
+		} catch (SerialPortException ex) {
+			throw new IOException("Cannot close " + getName() + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	public boolean isOpen() {
+		return serialPort.isOpened();
+	}
+
+	public String getName() {
+		return serialPort.getPortName();
+	}
+
+	public int getBaudRate() {
+		return baudRate;
+	}
+
+	public void write(byte[] data) throws IOException {
+		try {
+			serialPort.writeBytes(data);
+		} catch (SerialPortException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		}
+	}
+
+	public void write(byte[] data, int offset, int length) throws IOException {
+		// jSSC only writes whole arrays
+		write(offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length));
+	}
+
+	public void write(int b) throws IOException {
+		try {
+			serialPort.writeInt(b);
+		} catch (SerialPortException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * One jSSC read per wakeup: whatever the driver already holds, or else
+	 * wait for the first byte. jSSC returns a new array from every read (as
+	 * in event mode), so the bytes are copied into the caller's buffer.
+	 */
+	public int read(byte[] buffer, int offset, int length, int timeoutMs) throws IOException {
+		if (!serialPort.isOpened()) {
+			return -1;
+		}
+		try {
+			int pending = Math.min(serialPort.getInputBufferBytesCount(), length);
+			byte[] received = serialPort.readBytes(Math.max(1, pending), timeoutMs);
+			System.arraycopy(received, 0, buffer, offset, received.length);
+			return received.length;
+		} catch (SerialPortTimeoutException ex) {
+			return 0;
+		} catch (SerialPortException ex) {
+			if (!serialPort.isOpened()) {
+				return -1;
+			}
+			throw new IOException(ex.getMessage(), ex);
+		}
+	}
+
+	public void setListener(final LinkListener listener, final boolean pushData) throws IOException {
+		try {
+			if (listenerInstalled) {
+				serialPort.removeEventListener();
+				listenerInstalled = false;
+			}
+			if (listener == null) {
+				return;
+			}
+			int mask = SerialPort.MASK_CTS + SerialPort.MASK_DSR;
+			if (pushData) {
+				mask += SerialPort.MASK_RXCHAR;
+			}
+			serialPort.setEventsMask(mask);
+			serialPort.addEventListener(new SerialPortEventListener() {
+				public void serialEvent(SerialPortEvent event) {
+					if (event.isRXCHAR()) {
+						if (event.getEventValue() > 0) {
+							try {
+								// The event value already carries the byte count, so skip the extra count query
+								byte[] bytes = serialPort.readBytes(event.getEventValue());
+								if (bytes != null) {
+									listener.onDataReceived(bytes, bytes.length);
+								}
+							} catch (SerialPortException ex) {
+								log(ex.toString());
+							}
+						}
+					} else if (event.isCTS()) {
+						clearToSendGate.changed();
+						listener.onLineStatusChanged("CTS", event.getEventValue() == 1);
+					} else if (event.isDSR()) {
+						listener.onLineStatusChanged("DSR", event.getEventValue() == 1);
+					}
+				}
+			});
+			listenerInstalled = true;
+		} catch (SerialPortException ex) {
+			throw new IOException("Cannot listen on " + getName() + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	public boolean isClearToSend() {
+		if (!hardwareFlowControl) {
+			return true;
+		}
+		try {
+			return serialPort.isCTS();
+		} catch (SerialPortException ex) {
+			return false;
+		}
+	}
+
+	public boolean awaitClearToSend(long timeoutMs) throws InterruptedException {
+		return clearToSendGate.await(this, timeoutMs);
+	}
+
+	private static void log(String message) {
+		LabConnectUtil.log(message);
+	}
+}
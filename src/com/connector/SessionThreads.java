@@ -0,0 +1,102 @@
+package com.connector;
+
+import java.lang.reflect.Method;
+
+import com.reader.LabConnectUtil;
+
+/**
+ * Creates the threads that run analyzer session loops (read/parse, upload,
+ * order writing).
+ *
+ * threadMode=platform (default) gives ordinary daemon threads. threadMode=virtual
+ * gives virtual threads when the JVM is Java 21 or newer, so blocking-style
+ * session code can scale to many analyzers. The Thread.Builder API is looked up
+ * reflectively so the same classes still build and run on Java 8; on an older
+ * JVM the virtual mode falls back to platform threads with a log line.
+ */
+public class SessionThreads {
+
+	public static final String PLATFORM = "platform";
+	public static final String VIRTUAL = "virtual";
+
+	private static volatile boolean useVirtual = false;
+
+	private static Method ofVirtual;
+	private static Method builderName;
+	private static Method builderUnstarted;
+	private static boolean virtualAvailable;
+
+	static {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			builderName = builderClass.getMethod("name", String.class);
+			builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+			virtualAvailable = true;
+		} catch (Exception ex) {
+			virtualAvailable = false;
+		}
+	}
+
+	/**
+	 * Select the thread mode from the threadMode property value
+	 */
+	public static void configure(String mode) {
+		if (VIRTUAL.equalsIgnoreCase(mode)) {
+			if (virtualAvailable) {
+				useVirtual = true;
+				log("SessionThreads: Using virtual threads for analyzer sessions");
+			} else {
+				useVirtual = false;
+				log("SessionThreads: Virtual threads need Java 21+ (running " + System.getProperty("java.version") + "), using platform threads");
+			}
+		} else {
+			useVirtual = false;
+		}
+	}
+
+	public static boolean isVirtualAvailable() {
+		return virtualAvailable;
+	}
+
+	public static String getMode() {
+		return useVirtual ? VIRTUAL : PLATFORM;
+	}
+
+	/**
+	 * Create an unstarted session thread in the configured mode
+	 */
+	public static Thread newThread(String name, Runnable task) {
+		return newThread(name, task, useVirtual);
+	}
+
+	/**
+	 * Create an unstarted thread, virtual if requested and supported
+	 */
+	public static Thread newThread(String name, Runnable task, boolean virtual) {
+		if (virtual && virtualAvailable) {
+			try {
+				Object builder = builderName.invoke(ofVirtual.invoke(null), name);
+				return (Thread) builderUnstarted.invoke(builder, task);
+			} catch (Exception ex) {
+				log("SessionThreads: Cannot create virtual thread, using a platform thread: " + ex);
+			}
+		}
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Create and start a session thread in the configured mode
+	 */
+	public static Thread start(String name, Runnable task) {
+		Thread thread = newThread(name, task);
+		thread.start();
+		return thread;
+	}
+
+	private static void log(String message) {
+		LabConnectUtil.log(message);
+	}
+}
@@ -0,0 +1,216 @@
+package com.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * LinkTransport over TCP, for analyzers attached through a serial-to-Ethernet bridge.
+ *
+ * Client mode connects to the raw TCP port the terminal server exposes for the
+ * analyzer's serial line; server mode listens and accepts the bridge's connection.
+ * A dropped connection is re-established on the next read or write.
+ */
+public class TcpLinkTransport extends AbstractLinkTransport {
+
+	private static final int CONNECT_TIMEOUT_MS = 5000;
+	private static final int RECONNECT_DELAY_MS = 1000;
+
+	private final String host;
+	private final int port;
+	private final boolean serverMode;
+
+	private volatile boolean open = false;
+	private ServerSocket serverSocket;
+	private volatile Socket socket;
+	private InputStream in;
+	private OutputStream out;
+	private final Object connectLock = new Object();
+	private final Object writeLock = new Object();
+
+	private TcpLinkTransport(String host, int port, boolean serverMode) {
+		this.host = host;
+		this.port = port;
+		this.serverMode = serverMode;
+	}
+
+	/**
+	 * Connect out to host:port (terminal server in TCP server mode)
+	 */
+	public static TcpLinkTransport client(String host, int port) {
+		return new TcpLinkTransport(host, port, false);
+	}
+
+	/**
+	 * Listen on the local port for the bridge to connect in
+	 */
+	public static TcpLinkTransport server(int port) {
+		return new TcpLinkTransport(null, port, true);
+	}
+
+	public void open() throws IOException {
+		if (serverMode) {
+			serverSocket = new ServerSocket();
+			serverSocket.setReuseAddress(true);
+			serverSocket.bind(new InetSocketAddress(port));
+			log("TcpLinkTransport: Listening on port " + port);
+		}
+		open = true;
+		if (!serverMode) {
+			try {
+				ensureConnected(CONNECT_TIMEOUT_MS);
+			} catch (IOException ex) {
+				log("TcpLinkTransport: " + getName() + " not reachable yet, will retry: " + ex.getMessage());
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		open = false;
+		stopPump();
+		dropConnection();
+		if (serverSocket != null) {
+			serverSocket.close();
+			serverSocket = null;
+		}
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	public String getName() {
+		return serverMode ? "tcp-server:" + port : host + ":" + port;
+	}
+
+	public boolean isConnected() {
+		Socket current = socket;
+		return current != null && current.isConnected() && !current.isClosed();
+	}
+
+	public void write(byte[] data) throws IOException {
+		write(data, 0, data.length);
+	}
+
+	public void write(byte[] data, int offset, int length) throws IOException {
+		OutputStream stream = ensureConnected(CONNECT_TIMEOUT_MS);
+		if (stream == null) {
+			throw new IOException(getName() + " is not connected");
+		}
+		synchronized (writeLock) {
+			try {
+				stream.write(data, offset, length);
+				stream.flush();
+			} catch (IOException ex) {
+				dropConnection();
+				throw ex;
+			}
+		}
+	}
+
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b});
+	}
+
+	public int read(byte[] buffer, int offset, int length, int timeoutMs) throws IOException {
+		if (!open) {
+			return -1;
+		}
+		InputStream stream;
+		Socket current;
+		synchronized (connectLock) {
+			stream = in;
+			current = socket;
+		}
+		if (current == null) {
+			try {
+				ensureConnected(timeoutMs);
+			} catch (IOException ex) {
+				pause(RECONNECT_DELAY_MS);
+				return open ? 0 : -1;
+			}
+			synchronized (connectLock) {
+				stream = in;
+				current = socket;
+			}
+			if (current == null) {
+				return open ? 0 : -1;
+			}
+		}
+		try {
+			current.setSoTimeout(timeoutMs > 0 ? timeoutMs : 1);
+			int count = stream.read(buffer, offset, length);
+			if (count < 0) {
+				log("TcpLinkTransport: " + getName() + " closed by peer");
+				dropConnection();
+				return open ? 0 : -1;
+			}
+			return count;
+		} catch (SocketTimeoutException ex) {
+			return 0;
+		} catch (IOException ex) {
+			dropConnection();
+			if (!open) {
+				return -1;
+			}
+			throw ex;
+		}
+	}
+
+	private OutputStream ensureConnected(int timeoutMs) throws IOException {
+		synchronized (connectLock) {
+			if (!open) {
+				return null;
+			}
+			if (isConnected()) {
+				return out;
+			}
+			Socket connected;
+			if (serverMode) {
+				serverSocket.setSoTimeout(timeoutMs > 0 ? timeoutMs : 1);
+				try {
+					connected = serverSocket.accept();
+				} catch (SocketTimeoutException ex) {
+					return null;
+				}
+			} else {
+				connected = new Socket();
+				connected.connect(new InetSocketAddress(host, port), timeoutMs > 0 ? timeoutMs : CONNECT_TIMEOUT_MS);
+			}
+			connected.setTcpNoDelay(true);
+			connected.setKeepAlive(true);
+			socket = connected;
+			in = connected.getInputStream();
+			out = connected.getOutputStream();
+			log("TcpLinkTransport: Connected " + getName() + " <-> " + connected.getRemoteSocketAddress());
+			return out;
+		}
+	}
+
+	private void dropConnection() {
+		synchronized (connectLock) {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException ex) {
+					// Already gone
+				}
+			}
+			socket = null;
+			in = null;
+			out = null;
+		}
+	}
+
+	private static void pause(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.connector;
+
+import java.util.*;
+
+/**
+ * View of the service properties for one tenant (company/analyzer profile)
+ * served by a shared process.
+ *
+ * tenants=acme,globex lists the extra tenants. A key is looked up as
+ * "acme.key" first and then falls back to the shared value, so tenants only
+ * list what differs (acme.companyId=2, acme.machineCode=B122, acme.comPort=COM4).
+ * Keys that identify the tenant's analyzer, port or state never fall back,
+ * so two tenants cannot end up on the same port or share a state file.
+ */
+public class TenantBundle extends ResourceBundle {
+
+	private static final Set<String> TENANT_ONLY_KEYS = new HashSet<String>(Arrays.asList(
+			"comPort", "tcpHost", "tcpPort", "machineCode", "companyId", "pushPort",
+			"sentOrderIndexFile", "fanOutTargets", "fanOutApiKeys", "tenants"));
+
+	private final ResourceBundle base;
+	private final String tenant;
+
+	public TenantBundle(ResourceBundle base, String tenant) {
+		this.base = base;
+		this.tenant = tenant;
+	}
+
+	/**
+	 * Tenant names from the tenants property, empty if there are none
+	 */
+	public static List<String> tenantNames(ResourceBundle bundle) {
+		List<String> names = new ArrayList<String>();
+		for (String name : LinkTransportFactory.getString(bundle, "tenants", "").split(",")) {
+			if (!name.trim().isEmpty()) {
+				names.add(name.trim());
+			}
+		}
+		return names;
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	@Override
+	protected Object handleGetObject(String key) {
+		String tenantKey = tenant + "." + key;
+		if (base.containsKey(tenantKey)) {
+			return base.getObject(tenantKey);
+		}
+		if (!TENANT_ONLY_KEYS.contains(key) && base.containsKey(key)) {
+			return base.getObject(key);
+		}
+		return null;
+	}
+
+	@Override
+	public Enumeration<String> getKeys() {
+		Set<String> keys = new LinkedHashSet<String>();
+		String prefix = tenant + ".";
+		for (String key : Collections.list(base.getKeys())) {
+			if (key.startsWith(prefix)) {
+				keys.add(key.substring(prefix.length()));
+			} else if (!TENANT_ONLY_KEYS.contains(key)) {
+				keys.add(key);
+			}
+		}
+		return Collections.enumeration(keys);
+	}
+}
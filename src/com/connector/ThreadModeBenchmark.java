@@ -0,0 +1,96 @@
+package com.connector;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.reader.DataReader;
+import com.reader.MachineReadData;
+import com.reader.ResultSink;
+
+/**
+ * Compares platform threads with virtual threads for thread-per-analyzer sessions.
+ *
+ * Every session is the production blocking reader (readMode=blocking) on an
+ * in-memory link: it reads, decodes and then "uploads" with a blocking call of
+ * the given latency, as the inline CXF post does. Virtual threads are
+ * only measured when the JVM is Java 21+ (build with -Pjdk21 or run the Java 8
+ * build on a newer JVM).
+ *
+ * Usage: ThreadModeBenchmark [sessions=1000] [messagesPerSession=10] [uploadLatencyMs=50]
+ */
+public class ThreadModeBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int messages = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		long uploadLatencyMs = args.length > 2 ? Long.parseLong(args[2]) : 50;
+
+		System.out.println("=== Thread Mode Benchmark ===");
+		System.out.println("Sessions: " + sessions + ", messages each: " + messages + ", upload latency: " + uploadLatencyMs + " ms");
+		System.out.println(String.format("%-10s | %10s | %12s | %14s | %12s", "Mode", "Time (ms)", "Results/s", "Peak OS thr.", "Heap (MB)"));
+
+		run(SessionThreads.PLATFORM, sessions, messages, uploadLatencyMs);
+		if (SessionThreads.isVirtualAvailable()) {
+			run(SessionThreads.VIRTUAL, sessions, messages, uploadLatencyMs);
+		} else {
+			System.out.println(String.format("%-10s | needs Java 21+, running %s", SessionThreads.VIRTUAL, System.getProperty("java.version")));
+		}
+		SessionThreads.configure(SessionThreads.PLATFORM);
+		System.out.println("=== End Thread Mode Benchmark ===");
+	}
+
+	private static void run(String mode, int sessions, int messages, final long uploadLatencyMs) throws Exception {
+		SessionThreads.configure(mode);
+		System.gc();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		threads.resetPeakThreadCount();
+
+		final CountDownLatch results = new CountDownLatch(sessions * messages);
+		ResultSink uploader = new ResultSink() {
+			public void onResult(MachineReadData machineReadData) throws Exception {
+				Thread.sleep(uploadLatencyMs);
+				results.countDown();
+			}
+		};
+
+		DataReader.setResultSink(uploader);
+
+		InMemoryLinkTransport[] analyzers = new InMemoryLinkTransport[sessions];
+		DataReader.BlockingLinkReader[] running = new DataReader.BlockingLinkReader[sessions];
+		for (int i = 0; i < sessions; i++) {
+			InMemoryLinkTransport[] pair = InMemoryLinkTransport.createPair("iface-" + i, "analyzer-" + i);
+			pair[0].open();
+			pair[1].open();
+			analyzers[i] = pair[1];
+			// Quiet sessions: per-byte logging would turn the comparison into one of log-file I/O
+			running[i] = new DataReader.BlockingLinkReader(pair[0], "VITEK2COMPACT", 1024, 0, false);
+			running[i].start();
+		}
+
+		long start = System.nanoTime();
+		for (int m = 0; m < messages; m++) {
+			for (int i = 0; i < sessions; i++) {
+				analyzers[i].write(("\u0002mtrsl|ci" + i + "-" + m + "|s110/19/2026|t11|o2Escherichia coli|a1AM|a3>=32|a4R|zz|\u001D\u0003")
+						.getBytes("US-ASCII"));
+			}
+		}
+		boolean completed = results.await(10, TimeUnit.MINUTES);
+		long elapsedNanos = System.nanoTime() - start;
+		long heapBytes = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+
+		for (int i = 0; i < sessions; i++) {
+			running[i].stop();
+			analyzers[i].close();
+		}
+		DataReader.setResultSink(null);
+
+		System.out.println(String.format("%-10s | %10d | %12.1f | %14d | %12.1f%s",
+				mode, elapsedNanos / 1000000,
+				sessions * messages * 1e9 / elapsedNanos,
+				threads.getPeakThreadCount(),
+				heapBytes / (1024.0 * 1024.0),
+				completed ? "" : "  (timed out, " + results.getCount() + " missing)"));
+	}
+}
@@ -0,0 +1,197 @@
+package com.reader;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Raw capture of the bytes received from the analyzers, so results can be
+ * decoded again after they were lost downstream.
+ *
+ * One append-only file per day, capture_[name]_[yyyyMMdd].bin, holding
+ * records of: receive time (long), source (UTF), byte count (int), bytes.
+ * The source is "machineID|link" so a replay can give every link its own
+ * decoder. A record cut short by a crash ends the file's replay. Past days
+ * may be gzip-compressed by Housekeeper and are still read.
+ */
+public class CaptureJournal {
+
+	private static final String FILE_PREFIX = "capture_";
+	private static final String FILE_SUFFIX = ".bin";
+	// Day files compressed by Housekeeper
+	private static final String GZIP_SUFFIX = ".gz";
+
+	/**
+	 * Bytes received by one source at one time
+	 */
+	public static class Chunk {
+		private final long receivedAt;
+		private final String source;
+		private final byte[] bytes;
+
+		Chunk(long receivedAt, String source, byte[] bytes) {
+			this.receivedAt = receivedAt;
+			this.source = source;
+			this.bytes = bytes;
+		}
+
+		public long getReceivedAt() { return receivedAt; }
+		public String getSource() { return source; }
+		public byte[] getBytes() { return bytes; }
+
+		/**
+		 * Machine ID part of the source
+		 */
+		public String getMachineID() {
+			int bar = source.indexOf('|');
+			return bar < 0 ? source : source.substring(0, bar);
+		}
+	}
+
+	public interface ChunkReader {
+		void onChunk(Chunk chunk) throws Exception;
+	}
+
+	private final File directory;
+	private final String name;
+	private String currentDay;
+	private OutputStream out;
+	private long capturedBytes = 0;
+
+	public CaptureJournal(File directory, String name) {
+		this.directory = directory;
+		this.name = name;
+	}
+
+	/**
+	 * Default location: rootDrive/mednet/data/captures, files capture_[propertyFileSuffix]_[yyyyMMdd].bin
+	 */
+	public static CaptureJournal defaultJournal() {
+		return new CaptureJournal(defaultDirectory(), propertyFileSuffix());
+	}
+
+	public static File defaultDirectory() {
+		String rootDrive = "D://";
+		if (System.getProperty("rootDrive") != null) {
+			rootDrive = System.getProperty("rootDrive");
+		}
+		return new File(rootDrive + File.separator + "mednet" + File.separator + "data" + File.separator + "captures");
+	}
+
+	private static String propertyFileSuffix() {
+		String propertyFileSuffix = "VITEK2COMPACT";
+		if (System.getProperty("propertyFileSuffix") != null) {
+			propertyFileSuffix = System.getProperty("propertyFileSuffix");
+		}
+		return propertyFileSuffix;
+	}
+
+	/**
+	 * Append received bytes; an I/O error is logged and never reaches the reader
+	 */
+	public synchronized void append(String source, byte[] bytes, int offset, int length) {
+		long now = System.currentTimeMillis();
+		try {
+			String day = new SimpleDateFormat("yyyyMMdd").format(new Date(now));
+			if (!day.equals(currentDay)) {
+				close();
+				if (!directory.exists()) {
+					directory.mkdirs();
+				}
+				out = new FileOutputStream(new File(directory, FILE_PREFIX + name + "_" + day + FILE_SUFFIX), true);
+				currentDay = day;
+			}
+			// One write per record, so a crash loses at most the record being written
+			ByteArrayOutputStream record = new ByteArrayOutputStream(length + 64);
+			DataOutputStream data = new DataOutputStream(record);
+			data.writeLong(now);
+			data.writeUTF(source);
+			data.writeInt(length);
+			data.write(bytes, offset, length);
+			record.writeTo(out);
+			capturedBytes += length;
+		} catch (IOException ex) {
+			log("CaptureJournal: Error writing capture: " + ex.getMessage());
+			close();
+		}
+	}
+
+	public synchronized void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException ex) {
+				// ignore
+			}
+			out = null;
+			currentDay = null;
+		}
+	}
+
+	public synchronized long getCapturedBytes() {
+		return capturedBytes;
+	}
+
+	/**
+	 * Day files of this journal between two days (yyyyMMdd, inclusive), oldest first
+	 */
+	public List<File> files(String fromDay, String toDay) {
+		List<File> found = new ArrayList<File>();
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return found;
+		}
+		Arrays.sort(files);
+		String prefix = FILE_PREFIX + name + "_";
+		for (File file : files) {
+			String fileName = file.getName();
+			if (fileName.endsWith(GZIP_SUFFIX)) {
+				fileName = fileName.substring(0, fileName.length() - GZIP_SUFFIX.length());
+				if (new File(directory, fileName).exists()) {
+					// Still being compressed; the plain file is read
+					continue;
+				}
+			}
+			if (fileName.startsWith(prefix) && fileName.endsWith(FILE_SUFFIX)
+					&& fileName.length() == prefix.length() + 8 + FILE_SUFFIX.length()) {
+				String day = fileName.substring(prefix.length(), prefix.length() + 8);
+				if (day.compareTo(fromDay) >= 0 && day.compareTo(toDay) <= 0) {
+					found.add(file);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Read the chunks of a capture file in the order they were received
+	 */
+	public static void read(File file, ChunkReader reader) throws Exception {
+		InputStream raw = file.getName().endsWith(GZIP_SUFFIX)
+				? new GZIPInputStream(new FileInputStream(file), 65536) : new FileInputStream(file);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 65536));
+		try {
+			while (true) {
+				long receivedAt;
+				try {
+					receivedAt = in.readLong();
+				} catch (EOFException ex) {
+					return;
+				}
+				String source = in.readUTF();
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				reader.onChunk(new Chunk(receivedAt, source, bytes));
+			}
+		} catch (EOFException ex) {
+			log("CaptureJournal: " + file + " ends in a partial record");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void log(String message) {
+		LabConnectUtil.log(message);
+	}
+}
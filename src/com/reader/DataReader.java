@@ -2,197 +2,304 @@ package com.reader;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.ws.rs.core.MediaType;
-import jssc.SerialPort;
-import jssc.SerialPortEvent;
-import jssc.SerialPortEventListener;
-import jssc.SerialPortException;
+import com.connector.LinkArbiter;
+import com.connector.LinkListener;
+import com.connector.LinkResponseMonitor;
+import com.connector.LinkTransport;
+import com.connector.SessionThreads;
 import org.apache.cxf.jaxrs.client.WebClient;
 import org.codehaus.jackson.map.ObjectMapper;
 
 public class DataReader {
 
-	private static SerialPort serialPort;
-	private static String readString = "";
-	public static String partialResult = "";
 	private static String machineID = "VITEK2COMPACT";
-	private static String sampleID = "";
-	private static String sampleDate = "";
-	private static String antibioticCode = "";
-	private static String testResult = "";
-	private static String testInterpretation = "";
-	private static String isolationNumber = "";
-	private static String organismName = "";
-	private static ArrayList<MachineCodeWithValue> machineCodeWithValueList = new ArrayList<>();
+	// Session of the service's own analyzer, used by the static processBytes/clearData
+	private static volatile ReaderSession primary;
 
-	public static class SerialPortReader implements SerialPortEventListener {
+	public static final int DEFAULT_READ_BUFFER_SIZE = 4096;
+	public static final int DEFAULT_READ_TIMEOUT_MS = 200;
+	// How often a held ACK is checked for release
+	private static final long ACK_RELEASE_CHECK_MS = 100;
 
-		public SerialPortReader(SerialPort port) {
-			  serialPort = port;
+	private static final ResultSink WEB_SERVICE_SINK = new ResultSink() {
+		public void onResult(MachineReadData machineReadData) throws Exception {
+			webServiceCall(machineReadData);
 		}
+	};
+	private static volatile ResultSink resultSink = WEB_SERVICE_SINK;
+	private static volatile ResultSink resultObserver;
+	private static volatile ResultStore resultStore;
+	private static volatile CaptureJournal captureJournal;
+	private static volatile ResultUploadStage uploadStage;
+	private static volatile long ackHoldMs = ResultFrameDecoder.DEFAULT_ACK_HOLD_MS;
+	private static final ResultSink DISPATCH_SINK = new ResultSink() {
+		public void onResult(MachineReadData machineReadData) throws Exception {
+			ResultSink observer = resultObserver;
+			if (observer != null) {
+				try {
+					observer.onResult(machineReadData);
+				} catch (Exception ex) {
+					log("Result observer failed: " + ex);
+				}
+			}
+			resultSink.onResult(machineReadData);
+		}
+	};
+	/**
+	 * Decoder and line arbiter of one link, so several analyzers (tenants) can
+	 * be read by the same process
+	 */
+	private static class ReaderSession {
+		final LinkTransport link;
+		final LinkArbiter arbiter;
+		final ResultFrameDecoder decoder;
+		final String captureSource;
+		final boolean verbose;
+		// Decoding and the ACK release ticker take turns on the decoder; a lock, not
+		// a monitor, so an inline upload on a virtual thread does not pin its carrier
+		private final ReentrantLock decodeLock = new ReentrantLock();
+
+		/**
+		 * @param verbose Log every received byte and frame step (benchmarks turn this off)
+		 */
+		ReaderSession(LinkTransport transport, String machineID, boolean verbose) {
+			this.link = transport;
+			this.verbose = verbose;
+			this.captureSource = machineID + "|" + transport.getName();
+			this.arbiter = LinkArbiter.forLink(transport);
+			this.decoder = new ResultFrameDecoder(machineID, new ResultFrameDecoder.Responder() {
+				public void reply(int controlByte) throws IOException {
+					arbiter.writeControl(controlByte);
+				}
+			}, DISPATCH_SINK);
+			decoder.setVerbose(verbose);
+			decoder.setResponseMonitor(LinkResponseMonitor.forLink(transport));
+			ResultUploadStage stage = uploadStage;
+			if (stage != null && ackHoldMs > 0) {
+				decoder.setBackpressure(stage, ackHoldMs);
+				SessionThreads.start("AckRelease-" + transport.getName(), new Runnable() {
+					public void run() {
+						releaseLoop();
+					}
+				});
+			}
+		}
+
+		void process(byte[] bites, int length) {
+			CaptureJournal journal = captureJournal;
+			if (journal != null) {
+				journal.append(captureSource, bites, 0, length);
+			}
+			try {
+				arbiter.onInboundData(bites, 0, length);
+				decodeLock.lock();
+				try {
+					decoder.decode(bites, 0, length);
+				} finally {
+					decodeLock.unlock();
+				}
+			}	catch (IOException ioe) {
+				log(ioe.toString());
+			}	catch (Exception ex) { 
+				log(ex.toString());
+			}
+		}
+
+		/**
+		 * Send an ACK held for backpressure once the upload stage drains or the hold time is up
+		 */
+		private void releaseLoop() {
+			while (link.isOpen()) {
+				try {
+					Thread.sleep(ACK_RELEASE_CHECK_MS);
+					decodeLock.lock();
+					try {
+						decoder.releaseHeldAck(System.currentTimeMillis());
+					} finally {
+						decodeLock.unlock();
+					}
+				} catch (InterruptedException ex) {
+					break;
+				} catch (IOException ioe) {
+					log(ioe.toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Event ingest mode: the transport pushes received bytes from its own thread
+	 */
+	public static class LinkEventReader implements LinkListener {
+
+		private final ReaderSession session;
 
-		public void serialEvent(SerialPortEvent event) {
+		public LinkEventReader(LinkTransport transport) {
+			  session = new ReaderSession(transport, machineID, true);
+			  primary = session;
+		}
+
+		/**
+		 * Reader for a tenant's analyzer, reporting results under its own machine ID
+		 */
+		public LinkEventReader(LinkTransport transport, String tenantMachineID) {
+			  this(transport, tenantMachineID, true);
+		}
+
+		/**
+		 * @param verbose false stops the per-event and per-byte logging, e.g. when measuring the reader
+		 */
+		public LinkEventReader(LinkTransport transport, String tenantMachineID, boolean verbose) {
+			  session = new ReaderSession(transport, tenantMachineID, verbose);
+		}
+
+		public void onDataReceived(byte[] buffer, int length) {
+			if (session.verbose) {
 				log("Here Serial Event Called ");
-	        	if(event.isRXCHAR()){
-	                if(event.getEventValue() > 0 ){
-	                    try {
-	                    	log("in reader..!");
-		                    byte bites[] = serialPort.readBytes();
-		                    for(int i=0; i < bites.length; i++) {
-								readString = readString + (char) bites[i];
-								log("what i am getting:: "+readString);
-								if (bites[i] == 05) {
-									serialPort.writeInt(06);
-									log("Inside ENQ BLOCK");
-								}
-								if (bites[i] == 06) {
-									log("Inside ACK BLOCK");
-								}
-								if (bites[i] == 10) {
-									serialPort.writeInt(06);
-									log("Inside LF BLOCK");
-								}
-								if (bites[i] == 29) {
-									serialPort.writeInt(06);
-									log("Inside GS BLOCK");
-								}
-								if (bites[i] == 04) {
-									log("Inside EOT BLOCK");
-								}
-
-								//-------------------------Logic---------------------------//
-
-								if (bites[i] == 02) {
-									partialClearData();
-								}
-
-								if(bites[i]!=30) {
-									partialResult = partialResult + (char) bites[i];
-								}
-
-								if (bites[i] == 03) {
-									String[] piStrArr = partialResult.split("\\|");
-
-									if(piStrArr.length>0){
-										for(int j=0; j<piStrArr.length; j++){
-											String strObj = piStrArr[j];
-
-											if(strObj.startsWith("ci")){
-												strObj = strObj.substring(2);
-												sampleID = strObj;
-												log("sampleID " + sampleID);
-											}
-
-											if(strObj.startsWith("s1")){
-												strObj = strObj.substring(2);
-												sampleDate = strObj.replaceAll("/","-");
-												log("sampleID " + sampleDate);
-											}
-
-											if(strObj.startsWith("pl")){
-												strObj = strObj.substring(2);
-												log("location " + strObj);
-											}
-
-											if(strObj.startsWith("ss")){
-												strObj = strObj.substring(2);
-												log("sample source code " + strObj);
-											}
-
-											if(strObj.startsWith("s5")){
-												strObj = strObj.substring(2);
-												log("sample source name " + strObj);
-											}
-
-											if(strObj.startsWith("a1")){
-												antibioticCode = "";
-												testResult = "";
-												testInterpretation = "";
-												strObj = strObj.substring(2);
-												System.out.print("drugs code " + strObj);
-												antibioticCode = strObj.trim();
-											}
-
-											if(strObj.startsWith("a2")){
-												strObj = strObj.substring(2);
-												System.out.print(" --- "+strObj);
-											}
-
-
-											if(strObj.startsWith("a3")){
-												strObj = strObj.substring(2);
-												System.out.print(" --- " + strObj);
-												testResult = strObj.trim();
-											}
-
-											if(strObj.startsWith("a4")){
-												strObj = strObj.substring(2);
-												log(" --- " + strObj);
-												testInterpretation = strObj.trim();
-
-												machineCodeWithValueList.add(DataStructureCreator.createMachineCodeWithValueObj(antibioticCode, testResult, testInterpretation,""));
-											}
-
-											if(strObj.startsWith("t1")){
-												isolationNumber = "";
-												organismName = "";
-												strObj = strObj.substring(2);
-												log("isolated number " + strObj);
-												isolationNumber = strObj.trim();
-											}
-
-											if(strObj.startsWith("o2")){
-												strObj = strObj.substring(2);
-												log("organism " + strObj);
-												organismName = strObj.trim();
-											}
-
-										}
-									}
-
-									MachineReadData machineReadData = null;
-									List<MachineCodeForSampleID> machineCodeForSampleIDList = null;
-
-									MachineCodeForSampleID machineCodeForSampleID = DataStructureCreator.createDataStructure(sampleID, sampleDate, isolationNumber, organismName, machineCodeWithValueList);
-
-									if(machineCodeForSampleID!=null){
-										machineCodeForSampleIDList = new ArrayList<>();
-										machineCodeForSampleIDList.add(machineCodeForSampleID);
-									}
-
-									if(machineCodeForSampleIDList!=null && machineCodeForSampleIDList.size()>0) {
-										machineReadData = new MachineReadData();
-										machineReadData.setMachineID(machineID);
-										machineReadData.setMachineCodeForSampleList(machineCodeForSampleIDList);
-									}
-
-									if(machineReadData!=null){
-										webServiceCall(machineReadData);
-										log("webservice Called");
-										clearData();
-									}
-								}
-							}
-	                  }	catch (SerialPortException spe) {
-	                	  log(spe.toString());
-	                  }	catch (Exception ex) { 
-	                	  log(ex.toString());
-	                  }
-	            	}
-	        	}else if (event.isCTS()) {// If CTS line has changed state
-	        		if (event.getEventValue() == 1) {// If line is ON
-	        			log("CTS - ON");
-	        		}else {
-						log("CTS - OFF");
+				log("in reader..!");
+			}
+			session.process(buffer, length);
+		}
+
+		public void onLineStatusChanged(String signal, boolean on) {
+			logLineStatus(signal, on);
+		}
+	}
+
+	/**
+	 * Blocking ingest mode: a dedicated thread does bounded reads and hands
+	 * the bytes to the same frame logic as the event listener. The reading
+	 * moves off the transport's event thread; the transport may still
+	 * allocate per read (jSSC does).
+	 */
+	public static class BlockingLinkReader implements Runnable, LinkListener {
+
+		private final ReaderSession session;
+		private final LinkTransport link;
+		private final byte[] readBuffer;
+		private final int readTimeoutMs;
+		private volatile boolean running = true;
+		private Thread readerThread;
+
+		public BlockingLinkReader(LinkTransport transport, int bufferSize, int readTimeoutMs) {
+			this(transport, machineID, bufferSize, readTimeoutMs);
+			primary = session;
+		}
+
+		/**
+		 * Reader for a tenant's analyzer, reporting results under its own machine ID
+		 */
+		public BlockingLinkReader(LinkTransport transport, String tenantMachineID, int bufferSize, int readTimeoutMs) {
+			this(transport, tenantMachineID, bufferSize, readTimeoutMs, true);
+		}
+
+		/**
+		 * @param verbose false stops the per-byte logging, e.g. when measuring the reader
+		 */
+		public BlockingLinkReader(LinkTransport transport, String tenantMachineID, int bufferSize, int readTimeoutMs,
+				boolean verbose) {
+			this.session = new ReaderSession(transport, tenantMachineID, verbose);
+			this.link = transport;
+			this.readBuffer = new byte[bufferSize > 0 ? bufferSize : DEFAULT_READ_BUFFER_SIZE];
+			this.readTimeoutMs = readTimeoutMs > 0 ? readTimeoutMs : DEFAULT_READ_TIMEOUT_MS;
+		}
+
+		public void start() {
+			readerThread = SessionThreads.start("VitekBlockingReader-" + link.getName(), this);
+		}
+
+		public void stop() {
+			running = false;
+			if (readerThread != null) {
+				readerThread.interrupt();
+			}
+		}
+
+		public void run() {
+			log("Blocking reader started on " + link.getName() + " (buffer " + readBuffer.length + " bytes)");
+			while (running) {
+				try {
+					int length = link.read(readBuffer, 0, readBuffer.length, readTimeoutMs);
+					if (length < 0) {
+						break;
+					}
+					if (length > 0) {
+						session.process(readBuffer, length);
 					}
-	        	}else if (event.isDSR()) {// /If DSR line has changed state
-	        		if (event.getEventValue() == 1) {// If line is ON
-						log("DSR - ON");
-	        		}else {
-						log("DSR - OFF");
-	        		}
-	        	}
-	        }
+				} catch (IOException ioe) {
+					if (!running || !link.isOpen()) {
+						break;
+					}
+					log(ioe.toString());
+				} catch (Exception ex) {
+					log(ex.toString());
+				}
+			}
+			log("Blocking reader stopped");
+		}
+
+		public void onDataReceived(byte[] buffer, int length) {
+			// Received bytes are pulled by run(), only line status is delivered here
+		}
+
+		public void onLineStatusChanged(String signal, boolean on) {
+			logLineStatus(signal, on);
+		}
+	}
+
+	/**
+	 * Run the received bytes through the frame logic, ACKing ENQ/LF/GS and
+	 * posting the result once the ETX of a message has arrived.
+	 */
+	public static void processBytes(byte[] bites, int length) {
+		primary.process(bites, length);
+	}
+
+	private static void logLineStatus(String signal, boolean on) {
+		log(signal + (on ? " - ON" : " - OFF"));
+	}
+
+	/**
+	 * Replace where decoded results go (defaults to posting them to serverIpAddress)
+	 */
+	public static void setResultSink(ResultSink sink) {
+		resultSink = sink != null ? sink : WEB_SERVICE_SINK;
+	}
+
+	/**
+	 * Be told about every decoded result before it is handed to the result sink
+	 * (null to remove); failures of the observer do not affect the upload
+	 */
+	public static void setResultObserver(ResultSink observer) {
+		resultObserver = observer;
+	}
+
+	/**
+	 * Record every posted result and its JSON in this store (null to stop recording)
+	 */
+	public static void setResultStore(ResultStore store) {
+		resultStore = store;
+	}
+
+	/**
+	 * Post results from an upload stage instead of on the reader's thread
+	 * (null to post inline again). Readers created afterwards hold their ACK
+	 * to the analyzer while the stage is past its high-water mark, for at
+	 * most holdMs (0 ACKs at once).
+	 */
+	public static void setUploadStage(ResultUploadStage stage, long holdMs) {
+		uploadStage = stage;
+		ackHoldMs = holdMs;
+		resultSink = stage != null ? stage : WEB_SERVICE_SINK;
+	}
+
+	/**
+	 * Capture the raw bytes received on every link in this journal (null to stop capturing)
+	 */
+	public static void setCaptureJournal(CaptureJournal journal) {
+		captureJournal = journal;
 	}
 
 	public static void webServiceCall(MachineReadData machineReadData) throws Exception {
@@ -216,35 +323,27 @@ public class DataReader {
 			resultclient.accept(MediaType.APPLICATION_JSON);
 			jsons = result.writeValueAsString(machineReadData);
 			log("JSON :" + jsons);
-			resultclient.post(jsons, String.class);
+			ResultStore store = resultStore;
+			try {
+				resultclient.post(jsons, String.class);
+			} catch (Exception ex) {
+				if (store != null) {
+					store.record(machineReadData, jsons, false);
+				}
+				throw ex;
+			}
+			if (store != null) {
+				store.record(machineReadData, jsons, true);
+			}
 			jsons = "";
 	}
 
 	public static void clearData(){
-		log("In clear data");
-		readString = "";
-		partialResult = "";
-		sampleID = "";
-		sampleDate = "";
-		antibioticCode = "";
-		testResult = "";
-		testInterpretation = "";
-		isolationNumber = "";
-		organismName = "";
-		machineCodeWithValueList.clear();
+		primary.decoder.clearData();
 	}
 
 	public static void partialClearData(){
-		log("In partial clear data");
-		partialResult = "";
-		sampleID = "";
-		sampleDate = "";
-		antibioticCode = "";
-		testResult = "";
-		testInterpretation = "";
-		isolationNumber = "";
-		organismName = "";
-		machineCodeWithValueList.clear();
+		primary.decoder.partialClearData();
 	}
 
 	public static void log(String message) {
@@ -0,0 +1,137 @@
+package com.reader;
+
+/**
+ * Date and time normalization for the formats on both sides of the interface:
+ * the LIS API ("2024-01-16 15:26:00.0", "2016-02-05") and the Vitek s1 field
+ * ("10/19/2026").
+ *
+ * Every order and result passes through here several times, so the fields are
+ * scanned character by character into a per-thread buffer instead of running
+ * replaceAll or split. Results match the regex versions they replace.
+ */
+public class DateNormalizer {
+
+	private static final int BUFFER_SIZE = 64;
+
+	private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[BUFFER_SIZE];
+		}
+	};
+
+	private DateNormalizer() {
+	}
+
+	/**
+	 * Date as YYYYMMDD: the first 8 digits, or all digits if there are fewer
+	 */
+	public static String toDate(String value) {
+		return digits(value, 8);
+	}
+
+	/**
+	 * Date and time as the first maxDigits digits (12 for YYYYMMDDHHMM, 14 for
+	 * YYYYMMDDHHMMSS). With fewer than 12 digits but a full date, 1200 is
+	 * appended as the default time.
+	 */
+	public static String toDateTime(String value, int maxDigits) {
+		if (value == null) {
+			return "";
+		}
+		char[] buffer = buffer(maxDigits + 4);
+		int count = scanDigits(value, buffer, maxDigits);
+		if (count >= 12 || count < 8) {
+			return count == value.length() ? value : new String(buffer, 0, count);
+		}
+		// Add default time if only date provided
+		buffer[count] = '1';
+		buffer[count + 1] = '2';
+		buffer[count + 2] = '0';
+		buffer[count + 3] = '0';
+		return new String(buffer, 0, count + 4);
+	}
+
+	/**
+	 * The first maxDigits digits of the value, all other characters dropped
+	 */
+	public static String digits(String value, int maxDigits) {
+		if (value == null) {
+			return "";
+		}
+		char[] buffer = buffer(maxDigits);
+		int count = scanDigits(value, buffer, maxDigits);
+		return count == value.length() ? value : new String(buffer, 0, count);
+	}
+
+	/**
+	 * API date ("2024-01-16 15:26:00.0" or "2016-02-05") as DD-MM-YYYY; any
+	 * other value is returned unchanged
+	 */
+	public static String toDayMonthYear(String value) {
+		if (value == null || value.length() < 10) {
+			return value;
+		}
+		// Dashes ending the first 10 characters only leave empty parts, which split dropped
+		int end = 10;
+		while (end > 0 && value.charAt(end - 1) == '-') {
+			end--;
+		}
+		int firstDash = -1;
+		int secondDash = -1;
+		for (int i = 0; i < end; i++) {
+			if (value.charAt(i) == '-') {
+				if (firstDash < 0) {
+					firstDash = i;
+				} else if (secondDash < 0) {
+					secondDash = i;
+				} else {
+					return value;
+				}
+			}
+		}
+		if (secondDash < 0) {
+			return value;
+		}
+		char[] buffer = buffer(12);
+		int length = 0;
+		for (int i = secondDash + 1; i < end; i++) {
+			buffer[length++] = value.charAt(i);
+		}
+		buffer[length++] = '-';
+		for (int i = firstDash + 1; i < secondDash; i++) {
+			buffer[length++] = value.charAt(i);
+		}
+		buffer[length++] = '-';
+		for (int i = 0; i < firstDash; i++) {
+			buffer[length++] = value.charAt(i);
+		}
+		return new String(buffer, 0, length);
+	}
+
+	/**
+	 * Vitek s1 sample date ("10/19/2026") with dashes ("10-19-2026")
+	 */
+	public static String fromVitekDate(String value) {
+		if (value == null) {
+			return "";
+		}
+		return value.replace('/', '-');
+	}
+
+	private static int scanDigits(String value, char[] buffer, int maxDigits) {
+		int count = 0;
+		int length = value.length();
+		for (int i = 0; i < length && count < maxDigits; i++) {
+			char c = value.charAt(i);
+			if (c >= '0' && c <= '9') {
+				buffer[count++] = c;
+			}
+		}
+		return count;
+	}
+
+	private static char[] buffer(int size) {
+		return size <= BUFFER_SIZE ? BUFFER.get() : new char[size];
+	}
+}
@@ -0,0 +1,121 @@
+package com.reader;
+
+/**
+ * Microbenchmark of DateNormalizer against the regex/split versions it
+ * replaced. First checks both produce the same output on the sample values,
+ * then times each operation.
+ *
+ * Usage: DateNormalizerBenchmark [iterations=2000000]
+ */
+public class DateNormalizerBenchmark {
+
+	private static final String[] API_DATES = {
+		"2016-02-05", "2024-01-16 15:26:00.0", "1980-12-31", "2026-10-19 08:05:59.0", "", "20240116", "2024-1-6"
+	};
+	private static final String[] VITEK_DATES = { "10/19/2026", "01/02/2025", "12-31-2024", "" };
+
+	private static volatile Object sink;
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+		System.out.println("=== Date Normalizer Benchmark ===");
+		verify();
+
+		for (int round = 0; round < 2; round++) {
+			boolean report = round == 1; // first round is warm-up
+			if (report) {
+				System.out.println("Iterations: " + iterations + " (ns per call, regex vs scan)");
+			}
+			time("date YYYYMMDD", iterations, report, new Op() {
+				public Object regex(String v) { return regexDate(v); }
+				public Object scan(String v) { return DateNormalizer.toDate(v); }
+			}, API_DATES);
+			time("datetime 12 digits", iterations, report, new Op() {
+				public Object regex(String v) { return regexDateTime(v, 12); }
+				public Object scan(String v) { return DateNormalizer.toDateTime(v, 12); }
+			}, API_DATES);
+			time("datetime 14 digits", iterations, report, new Op() {
+				public Object regex(String v) { return regexDateTime(v, 14); }
+				public Object scan(String v) { return DateNormalizer.toDateTime(v, 14); }
+			}, API_DATES);
+			time("ack DD-MM-YYYY", iterations, report, new Op() {
+				public Object regex(String v) { return splitDayMonthYear(v); }
+				public Object scan(String v) { return DateNormalizer.toDayMonthYear(v); }
+			}, API_DATES);
+			time("vitek s1", iterations, report, new Op() {
+				public Object regex(String v) { return v.replaceAll("/", "-"); }
+				public Object scan(String v) { return DateNormalizer.fromVitekDate(v); }
+			}, VITEK_DATES);
+		}
+		System.out.println("=== End Date Normalizer Benchmark ===");
+	}
+
+	private interface Op {
+		Object regex(String value);
+		Object scan(String value);
+	}
+
+	private static void time(String name, int iterations, boolean report, Op op, String[] values) {
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			sink = op.regex(values[i % values.length]);
+		}
+		long regexNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			sink = op.scan(values[i % values.length]);
+		}
+		long scanNanos = System.nanoTime() - start;
+		if (report) {
+			System.out.println(String.format("%-20s %7.1f  %7.1f  (%.1fx)", name,
+					(double) regexNanos / iterations, (double) scanNanos / iterations, (double) regexNanos / scanNanos));
+		}
+	}
+
+	private static void verify() {
+		for (String value : API_DATES) {
+			check(regexDate(value), DateNormalizer.toDate(value), value);
+			check(regexDateTime(value, 12), DateNormalizer.toDateTime(value, 12), value);
+			check(regexDateTime(value, 14), DateNormalizer.toDateTime(value, 14), value);
+			check(splitDayMonthYear(value), DateNormalizer.toDayMonthYear(value), value);
+		}
+		for (String value : VITEK_DATES) {
+			check(value.replaceAll("/", "-"), DateNormalizer.fromVitekDate(value), value);
+		}
+		System.out.println("Outputs match the regex versions");
+	}
+
+	private static void check(String expected, String actual, String input) {
+		if (!expected.equals(actual)) {
+			throw new IllegalStateException("'" + input + "': expected '" + expected + "', got '" + actual + "'");
+		}
+	}
+
+	// The replaced implementations, also the reference for DateNormalizerTest
+
+	static String regexDate(String value) {
+		String digitsOnly = value.replaceAll("[^0-9]", "");
+		return digitsOnly.length() >= 8 ? digitsOnly.substring(0, 8) : digitsOnly;
+	}
+
+	static String regexDateTime(String value, int maxDigits) {
+		String digitsOnly = value.replaceAll("\\D", "");
+		if (digitsOnly.length() >= 12) {
+			return digitsOnly.substring(0, Math.min(maxDigits, digitsOnly.length()));
+		} else if (digitsOnly.length() >= 8) {
+			return digitsOnly + "1200";
+		}
+		return digitsOnly;
+	}
+
+	static String splitDayMonthYear(String value) {
+		if (value.contains("-") && value.length() >= 10) {
+			String[] parts = value.substring(0, 10).split("-");
+			if (parts.length == 3) {
+				return parts[2] + "-" + parts[1] + "-" + parts[0];
+			}
+		}
+		return value;
+	}
+}
@@ -0,0 +1,104 @@
+package com.reader;
+
+import java.util.Random;
+
+/**
+ * Checks that DateNormalizer returns exactly what the regex/split versions it
+ * replaced returned (kept in DateNormalizerBenchmark):
+ * 1. Dates with 8 to 11 digits get the default time 1200 appended
+ * 2. Values with 12 or more digits are cut to 12 or 14 digits
+ * 3. Dashed values are reordered to DD-MM-YYYY only when split found three parts
+ * 4. Random values built from digits, separators and letters
+ */
+public class DateNormalizerTest {
+
+	private static final String[] SHORT_DIGITS = {
+		"", "2024", "2024011", "20240116", "2024-01-16", "2024011615", "2024-01-16 1", "2024-01-16 15:2",
+		"16/01/2024", "x2024y01z16", "2024-01-16T1"
+	};
+	private static final String[] LONG_DIGITS = {
+		"202401161526", "2024-01-16 15:26", "2024-01-16 15:26:00.0", "2024-01-16T15:26:59.123",
+		"20240116152659", "2024011615265999", "2024/01/16 15.26.00"
+	};
+	private static final String[] DASHED = {
+		"2016-02-05", "2024-01-16 15:26:00.0", "2024-1-6", "2024-1-16x", "abcdefgh--", "abcd-efgh-",
+		"a-b-cdefg-", "ab--cdefgh", "-ab-cdefgh", "--abcdefgh", "----------", "a-b-c-d-ef", "abcdefghij-",
+		"2024-01-1", "2024-01-16-", "20240116--", "-", "10-19-2026"
+	};
+	private static final String ALPHABET = "0123456789-/ :.T";
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		System.out.println("=== Date Normalizer Test ===");
+
+		check("8 to 11 digits", SHORT_DIGITS);
+		check("12 or more digits", LONG_DIGITS);
+		check("Dashed values", DASHED);
+		checkRandom(args.length > 0 ? Integer.parseInt(args[0]) : 200000);
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " checks FAILED");
+		System.out.println("=== End Date Normalizer Test ===");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static void check(String name, String[] values) {
+		int mismatches = 0;
+		for (String value : values) {
+			mismatches += compare(value, true);
+		}
+		report(name, mismatches);
+	}
+
+	/**
+	 * Values of up to 24 characters, mostly digits and separators
+	 */
+	private static void checkRandom(int count) {
+		Random random = new Random(20261019L);
+		char[] chars = new char[24];
+		int mismatches = 0;
+		for (int i = 0; i < count; i++) {
+			int length = random.nextInt(chars.length + 1);
+			for (int c = 0; c < length; c++) {
+				chars[c] = random.nextInt(20) == 0 ? 'a' : ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+			}
+			mismatches += compare(new String(chars, 0, length), mismatches < 10);
+		}
+		report(count + " random values", mismatches);
+	}
+
+	/**
+	 * @return number of operations whose output differs from the old version
+	 */
+	private static int compare(String value, boolean print) {
+		int mismatches = 0;
+		mismatches += compare("toDate", value, DateNormalizerBenchmark.regexDate(value), DateNormalizer.toDate(value), print);
+		mismatches += compare("toDateTime 12", value, DateNormalizerBenchmark.regexDateTime(value, 12),
+				DateNormalizer.toDateTime(value, 12), print);
+		mismatches += compare("toDateTime 14", value, DateNormalizerBenchmark.regexDateTime(value, 14),
+				DateNormalizer.toDateTime(value, 14), print);
+		mismatches += compare("toDayMonthYear", value, DateNormalizerBenchmark.splitDayMonthYear(value),
+				DateNormalizer.toDayMonthYear(value), print);
+		mismatches += compare("fromVitekDate", value, value.replaceAll("/", "-"), DateNormalizer.fromVitekDate(value), print);
+		return mismatches;
+	}
+
+	private static int compare(String operation, String value, String expected, String actual, boolean print) {
+		if (expected.equals(actual)) {
+			return 0;
+		}
+		if (print) {
+			System.out.println("  " + operation + "('" + value + "'): expected '" + expected + "', got '" + actual + "'");
+		}
+		return 1;
+	}
+
+	private static void report(String name, int mismatches) {
+		System.out.println((mismatches == 0 ? "OK     " : "FAILED ") + name);
+		if (mismatches > 0) {
+			failures++;
+		}
+	}
+}
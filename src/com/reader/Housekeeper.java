@@ -0,0 +1,328 @@
+package com.reader;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+import com.connector.SessionThreads;
+
+/**
+ * Background housekeeping of the files the service keeps growing: the daily
+ * logs, the capture journal and the result store.
+ *
+ * On every run it gzips the files no longer written to (past days, and
+ * segments split off today's log once it passes the segment size), deletes
+ * files older than their area's retention, and then deletes the oldest files
+ * until all areas together fit the size limit. Today's files are never
+ * deleted or compressed in place. The JVM has no I/O priority, so the thread
+ * runs at minimum priority and compression is throttled to a byte rate,
+ * which keeps the disk free for the serial path.
+ */
+public class Housekeeper {
+
+	public static final long DEFAULT_INTERVAL_MS = 60 * 60 * 1000;
+	public static final long DEFAULT_LOG_SEGMENT_BYTES = 100L * 1024 * 1024;
+	public static final int DEFAULT_LOG_RETENTION_DAYS = 90;
+	public static final long DEFAULT_BYTES_PER_SECOND = 4L * 1024 * 1024;
+
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+	/**
+	 * A directory of files managed together
+	 */
+	private static class Area {
+		final String name;
+		final File directory;
+		final String marker;
+		final long retentionMs;
+
+		Area(String name, File directory, String marker, int retentionDays) {
+			this.name = name;
+			this.directory = directory;
+			this.marker = marker;
+			this.retentionMs = retentionDays * DAY_MS;
+		}
+	}
+
+	private final List<Area> areas = new ArrayList<Area>();
+	private final long intervalMs;
+	private final long logSegmentBytes;
+	private final long maxTotalBytes;
+	private final long bytesPerSecond;
+	private volatile boolean running = false;
+	private Thread thread;
+
+	private long compressedFiles = 0;
+	private long savedBytes = 0;
+	private long deletedFiles = 0;
+
+	/**
+	 * @param maxTotalBytes Size limit over all areas (0 = no limit)
+	 * @param bytesPerSecond Compression throughput cap (0 = unthrottled)
+	 */
+	public Housekeeper(long intervalMs, long logSegmentBytes, long maxTotalBytes, long bytesPerSecond) {
+		this.intervalMs = intervalMs > 0 ? intervalMs : DEFAULT_INTERVAL_MS;
+		this.logSegmentBytes = logSegmentBytes;
+		this.maxTotalBytes = maxTotalBytes;
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Manage the files in a directory whose names contain the marker; the
+	 * marker should name this instance, as several share the directories
+	 * @param retentionDays Age after which the files are deleted (0 keeps them)
+	 */
+	public void addArea(String name, File directory, String marker, int retentionDays) {
+		areas.add(new Area(name, directory, marker, retentionDays));
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = SessionThreads.newThread("Housekeeper", new Runnable() {
+			public void run() {
+				while (running) {
+					try {
+						runOnce();
+						Thread.sleep(intervalMs);
+					} catch (InterruptedException ex) {
+						break;
+					} catch (Exception ex) {
+						log("Housekeeper: Run failed: " + ex);
+					}
+				}
+			}
+		}, false);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+		log("Housekeeper: Started, every " + intervalMs / 60000 + " min, " + areas.size() + " areas"
+				+ (maxTotalBytes > 0 ? ", size limit " + maxTotalBytes / (1024 * 1024) + " MB" : ""));
+	}
+
+	public synchronized void stop() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * One pass: split the oversized log, compress, apply age and then size retention
+	 */
+	public void runOnce() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		splitLog();
+		for (Area area : areas) {
+			for (File file : listFiles(area)) {
+				if (!isActive(file) && !file.getName().endsWith(GZIP_SUFFIX)) {
+					compress(file);
+				}
+			}
+		}
+		for (Area area : areas) {
+			if (area.retentionMs <= 0) {
+				continue;
+			}
+			for (File file : listFiles(area)) {
+				if (!isActive(file) && start - file.lastModified() > area.retentionMs) {
+					delete(file, area.name + " past retention");
+				}
+			}
+		}
+		enforceSizeLimit();
+		log("Housekeeper: Done in " + (System.currentTimeMillis() - start) + " ms. " + getStatistics());
+	}
+
+	/**
+	 * Move today's log aside as a numbered segment once it passes the segment
+	 * size; LabConnectUtil starts a new file with the next message
+	 */
+	private void splitLog() {
+		if (logSegmentBytes <= 0) {
+			return;
+		}
+		File log = new File(LabConnectUtil.getLogDirectory(), LabConnectUtil.getLogFileName(new Date()));
+		if (log.length() < logSegmentBytes) {
+			return;
+		}
+		String base = log.getName().substring(0, log.getName().length() - ".txt".length());
+		for (int segment = 1; ; segment++) {
+			File target = new File(log.getParentFile(), base + "." + segment + ".txt");
+			if (!target.exists() && !new File(target.getPath() + GZIP_SUFFIX).exists()) {
+				if (!log.renameTo(target)) {
+					log("Housekeeper: Cannot split " + log + ", trying again next run");
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Drop the oldest closed files until all areas fit the size limit
+	 */
+	private void enforceSizeLimit() {
+		if (maxTotalBytes <= 0) {
+			return;
+		}
+		List<File> closed = new ArrayList<File>();
+		long total = 0;
+		for (Area area : areas) {
+			for (File file : listFiles(area)) {
+				total += file.length();
+				if (!isActive(file)) {
+					closed.add(file);
+				}
+			}
+		}
+		Collections.sort(closed, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return a.lastModified() < b.lastModified() ? -1 : a.lastModified() > b.lastModified() ? 1 : 0;
+			}
+		});
+		for (File file : closed) {
+			if (total <= maxTotalBytes) {
+				break;
+			}
+			long length = file.length();
+			if (delete(file, "size limit")) {
+				total -= length;
+			}
+		}
+		if (total > maxTotalBytes) {
+			log("Housekeeper: Today's files alone (" + total / (1024 * 1024) + " MB) exceed the size limit");
+		}
+	}
+
+	/**
+	 * gzip a closed file next to it, then delete the original
+	 */
+	private void compress(File file) throws InterruptedException {
+		File target = new File(file.getPath() + GZIP_SUFFIX);
+		File temp = new File(target.getPath() + TEMP_SUFFIX);
+		InputStream in = null;
+		OutputStream out = null;
+		long length = file.length();
+		long modified = file.lastModified();
+		try {
+			in = new FileInputStream(file);
+			out = new GZIPOutputStream(new FileOutputStream(temp), 65536);
+			byte[] buffer = new byte[65536];
+			long started = System.nanoTime();
+			long copied = 0;
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				copied += read;
+				throttle(copied, started);
+			}
+			out.close();
+			out = null;
+			in.close();
+			in = null;
+			// Keep the age of the data for retention
+			temp.setLastModified(modified);
+			if (target.exists()) {
+				// Never replace a segment compressed earlier
+				log("Housekeeper: " + target + " already exists, leaving " + file.getName() + " uncompressed");
+				temp.delete();
+				return;
+			}
+			if (!temp.renameTo(target)) {
+				log("Housekeeper: Cannot rename " + temp + " to " + target);
+				temp.delete();
+				return;
+			}
+			if (!file.delete()) {
+				// Still open elsewhere (Windows); the plain file wins until the next run
+				target.delete();
+				return;
+			}
+			synchronized (this) {
+				compressedFiles++;
+				savedBytes += length - target.length();
+			}
+		} catch (IOException ex) {
+			log("Housekeeper: Error compressing " + file + ": " + ex.getMessage());
+			temp.delete();
+		} finally {
+			closeQuietly(in);
+			closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Sleep as long as needed to stay under the byte rate
+	 */
+	private void throttle(long copied, long startedNanos) throws InterruptedException {
+		if (bytesPerSecond <= 0) {
+			return;
+		}
+		long dueNanos = copied * 1000000000L / bytesPerSecond;
+		long aheadMs = (dueNanos - (System.nanoTime() - startedNanos)) / 1000000;
+		if (aheadMs > 0) {
+			Thread.sleep(aheadMs);
+		}
+	}
+
+	private boolean delete(File file, String reason) {
+		if (file.delete()) {
+			synchronized (this) {
+				deletedFiles++;
+			}
+			log("Housekeeper: Deleted " + file.getName() + " (" + reason + ")");
+			return true;
+		}
+		return false;
+	}
+
+	private List<File> listFiles(Area area) {
+		List<File> found = new ArrayList<File>();
+		File[] files = area.directory.listFiles();
+		if (files == null) {
+			return found;
+		}
+		for (File file : files) {
+			if (file.isFile() && file.getName().contains(area.marker) && !file.getName().endsWith(TEMP_SUFFIX)) {
+				found.add(file);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Files still being written: today's log of any instance (numbered
+	 * segments are closed) and today's capture and result day files
+	 */
+	private static boolean isActive(File file) {
+		Date now = new Date();
+		String name = file.getName();
+		if (name.endsWith(GZIP_SUFFIX)) {
+			return false;
+		}
+		return (name.startsWith(new SimpleDateFormat("dd-MM-yyyy").format(now) + "_") && name.endsWith("Log.txt"))
+				|| name.contains("_" + new SimpleDateFormat("yyyyMMdd").format(now) + ".");
+	}
+
+	public synchronized String getStatistics() {
+		return "compressed " + compressedFiles + " files (" + savedBytes / 1024 + " KB saved), deleted " + deletedFiles;
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException ex) {
+				// ignore
+			}
+		}
+	}
+
+	private static void log(String message) {
+		LabConnectUtil.log(message);
+	}
+}
@@ -15,22 +15,12 @@ public class LabConnectUtil {
 
 	public static void log(String message) {
 		try {
-			String logRootDrive =  "/tmp";
-			if(System.getProperty("logRootDrive")!=null) {
-				logRootDrive = System.getProperty("logRootDrive");
-			}
-			String propertyFileSuffix = "VITEK2COMPACT";
-	
-			if(System.getProperty("propertyFileSuffix")!=null) {
-				propertyFileSuffix = System.getProperty("propertyFileSuffix");
-			}
-
-			File folderPath = new File(logRootDrive + File.separator+"mednet"+File.separator+"log");
+			File folderPath = getLogDirectory();
 			if(!folderPath.exists()){
 				folderPath.mkdirs();
 			}
 
-			PrintWriter out = new PrintWriter(new FileWriter(logRootDrive + File.separator+"mednet"+File.separator+"log"+File.separator+new SimpleDateFormat("dd-MM-yyyy").format(new Date())+"_"+propertyFileSuffix+"Log.txt", true), true);
+			PrintWriter out = new PrintWriter(new FileWriter(new File(folderPath, getLogFileName(new Date())), true), true);
 			out.write("\r\n" +message);
 			out.close();
 
@@ -39,4 +29,26 @@ public class LabConnectUtil {
 			ioe.printStackTrace();
 		}
 	}
+
+	/**
+	 * logRootDrive/mednet/log
+	 */
+	public static File getLogDirectory() {
+		String logRootDrive =  "/tmp";
+		if(System.getProperty("logRootDrive")!=null) {
+			logRootDrive = System.getProperty("logRootDrive");
+		}
+		return new File(logRootDrive + File.separator+"mednet"+File.separator+"log");
+	}
+
+	/**
+	 * Name of the day's log file: dd-MM-yyyy_[propertyFileSuffix]Log.txt
+	 */
+	public static String getLogFileName(Date day) {
+		String propertyFileSuffix = "VITEK2COMPACT";
+		if(System.getProperty("propertyFileSuffix")!=null) {
+			propertyFileSuffix = System.getProperty("propertyFileSuffix");
+		}
+		return new SimpleDateFormat("dd-MM-yyyy").format(day)+"_"+propertyFileSuffix+"Log.txt";
+	}
 }
@@ -0,0 +1,139 @@
+package com.reader;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.connector.SerialLinkTransport;
+
+/**
+ * Compares the event-listener and blocking-read ingest modes for receive latency and CPU use.
+ *
+ * Needs two serial ports wired back to back (a null-modem cable or a virtual pair such as
+ * com0com / socat): the first one plays the analyzer, the second one runs the DataReader.
+ *
+ * Usage: ReadModeBenchmark senderPort readerPort [messagesPerRun]
+ */
+public class ReadModeBenchmark {
+
+	private static final int[] BAUD_RATES = {9600, 115200};
+	private static final String[] MODES = {"event", "blocking"};
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: ReadModeBenchmark senderPort readerPort [messagesPerRun]");
+			return;
+		}
+		int messages = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		System.out.println(String.format("%-8s | %-8s | %10s | %10s | %10s | %8s",
+				"Baud", "Mode", "p50 (ms)", "p99 (ms)", "wire (ms)", "CPU %"));
+		for (int baudRate : BAUD_RATES) {
+			for (String mode : MODES) {
+				runOnce(args[0], args[1], baudRate, mode, messages);
+			}
+		}
+		DataReader.setResultSink(null);
+	}
+
+	private static void runOnce(String senderName, String readerName, int baudRate, String mode, int messages) throws Exception {
+		SerialLinkTransport sender = new SerialLinkTransport(senderName, baudRate, 8, 1, 0);
+		SerialLinkTransport reader = new SerialLinkTransport(readerName, baudRate, 8, 1, 0);
+		DataReader.BlockingLinkReader blockingReader = null;
+		final Semaphore received = new Semaphore(0);
+		final long[] receivedAt = new long[1];
+
+		DataReader.setResultSink(new ResultSink() {
+			public void onResult(MachineReadData machineReadData) {
+				receivedAt[0] = System.nanoTime();
+				received.release();
+			}
+		});
+
+		try {
+			sender.open();
+			reader.open();
+
+			// Quiet readers: per-byte logging would turn the comparison into one of log-file I/O
+			if ("blocking".equals(mode)) {
+				blockingReader = new DataReader.BlockingLinkReader(reader, "VITEK2COMPACT",
+						DataReader.DEFAULT_READ_BUFFER_SIZE, DataReader.DEFAULT_READ_TIMEOUT_MS, false);
+				reader.setListener(blockingReader, false);
+				blockingReader.start();
+			} else {
+				reader.setListener(new DataReader.LinkEventReader(reader, "VITEK2COMPACT", false), true);
+			}
+			byte[] drain = new byte[256];
+
+			long[] latencies = new long[messages];
+			int completed = 0;
+			long wireNanos = 0;
+			long cpuStart = processCpuTime();
+			long wallStart = System.nanoTime();
+
+			for (int i = 0; i < messages; i++) {
+				byte[] message = sampleMessage(i);
+				wireNanos += TimeUnit.SECONDS.toNanos(message.length * 10L) / baudRate;
+				long sentAt = System.nanoTime();
+				sender.write(message);
+				if (received.tryAcquire(5, TimeUnit.SECONDS)) {
+					latencies[completed++] = receivedAt[0] - sentAt;
+				}
+				while (sender.read(drain, 0, drain.length, 1) > 0) {
+					// drop the ACKs sent back by the reader
+				}
+			}
+
+			long wallNanos = System.nanoTime() - wallStart;
+			long cpuNanos = processCpuTime() - cpuStart;
+			Arrays.sort(latencies, 0, completed);
+
+			System.out.println(String.format("%-8d | %-8s | %10.2f | %10.2f | %10.2f | %8.1f%s",
+					baudRate, mode,
+					percentile(latencies, completed, 50), percentile(latencies, completed, 99),
+					wireNanos / 1e6 / messages,
+					wallNanos > 0 ? 100.0 * cpuNanos / wallNanos : 0.0,
+					completed < messages ? "  (" + (messages - completed) + " timed out)" : ""));
+		} finally {
+			if (blockingReader != null) {
+				blockingReader.stop();
+			}
+			reader.close();
+			sender.close();
+		}
+	}
+
+	/**
+	 * One Vitek result message as the analyzer frames it
+	 */
+	private static byte[] sampleMessage(int sequence) {
+		String body = "mtrsl|iiiR|rsVITEK|ci" + (100000 + sequence) + "|s110/19/2026|t11|o2Escherichia coli"
+				+ "|a1AM|a3>=32|a4R|a1GM|a3<=1|a4S|a1CIP|a3<=0.25|a4S|zz|";
+		byte[] message = new byte[body.length() + 4];
+		message[0] = 0x02;
+		for (int i = 0; i < body.length(); i++) {
+			message[i + 1] = (byte) body.charAt(i);
+		}
+		message[body.length() + 1] = 0x1D;
+		message[body.length() + 2] = 0x03;
+		message[body.length() + 3] = 0x04;
+		return message;
+	}
+
+	private static double percentile(long[] sorted, int count, int percentile) {
+		if (count == 0) {
+			return 0.0;
+		}
+		int index = Math.min(count - 1, (int) Math.ceil(percentile / 100.0 * count) - 1);
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+	private static long processCpuTime() {
+		java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,381 @@
+package com.reader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.connector.LinkResponseMonitor;
+
+/**
+ * Decodes the Vitek result stream of one analyzer session.
+ *
+ * Holds the per-session parsing state that used to live in DataReader's static
+ * fields, so several analyzers can be decoded side by side. Control bytes that
+ * need an answer (ENQ, LF, GS) are ACKed through the Responder and each
+ * completed message is handed to the ResultSink.
+ *
+ * With a Backpressure set, the answer is held while it reports congestion, so
+ * the analyzer waits instead of sending results there is no room for. A held
+ * answer goes out from releaseHeldAck once the congestion clears or the hold
+ * time runs out, which is kept below the sender's 15 s reply timeout. If still
+ * congested then, an ENQ is answered with NAK (busy, the analyzer asks again
+ * later) and a frame with ACK, so no received frame is ever refused.
+ */
+public class ResultFrameDecoder {
+
+	/**
+	 * Sends a control byte back to the analyzer
+	 */
+	public interface Responder {
+		void reply(int controlByte) throws IOException;
+	}
+
+	/**
+	 * Tells whether results downstream are piling up
+	 */
+	public interface Backpressure {
+		boolean isCongested();
+	}
+
+	/** ASTM E1381 receiver timeout: a message idle this long is discarded */
+	public static final long RECEIVE_TIMEOUT_MS = 30000;
+	/** Default longest hold of an answer, below the 15 s the sender waits for it */
+	public static final long DEFAULT_ACK_HOLD_MS = 10000;
+
+	private final String machineID;
+	private final Responder responder;
+	private ResultSink resultSink;
+	private LinkResponseMonitor responseMonitor;
+	private boolean verbose = true;
+	private Backpressure backpressure;
+	private long ackHoldMs = DEFAULT_ACK_HOLD_MS;
+	// Control byte whose answer is held, -1 if none
+	private int heldControlByte = -1;
+	private long heldSince = 0;
+	private long heldAckCount = 0;
+	private long busyNakCount = 0;
+
+	private final StringBuilder readString = new StringBuilder();
+	private final StringBuilder partialResult = new StringBuilder();
+	private String sampleID = "";
+	private String sampleDate = "";
+	private String antibioticCode = "";
+	private String testResult = "";
+	private String testInterpretation = "";
+	private String isolationNumber = "";
+	private String organismName = "";
+	private List<MachineCodeWithValue> machineCodeWithValueList = new ArrayList<>();
+	private long lastByteTime = 0;
+
+	public ResultFrameDecoder(String machineID, Responder responder, ResultSink resultSink) {
+		this.machineID = machineID;
+		this.responder = responder;
+		this.resultSink = resultSink;
+	}
+
+	/**
+	 * Per-byte logging of the received stream (on for the single-port reader)
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	public void setResultSink(ResultSink resultSink) {
+		this.resultSink = resultSink;
+	}
+
+	/**
+	 * Forward received ENQ/ACK/NAK/EOT to the writer waiting on this link
+	 */
+	public void setResponseMonitor(LinkResponseMonitor responseMonitor) {
+		this.responseMonitor = responseMonitor;
+	}
+
+	/**
+	 * Hold answers while the backpressure reports congestion, at most ackHoldMs
+	 * (null or 0 answers at once)
+	 */
+	public void setBackpressure(Backpressure backpressure, long ackHoldMs) {
+		this.backpressure = backpressure;
+		this.ackHoldMs = ackHoldMs;
+	}
+
+	/**
+	 * Run received bytes through the frame logic, ACKing ENQ/LF/GS and
+	 * handing over the result once the ETX of a message has arrived.
+	 */
+	public void decode(byte[] bites, int offset, int length) throws Exception {
+		lastByteTime = System.currentTimeMillis();
+		for(int i=offset; i < offset + length; i++) {
+			readString.append((char) bites[i]);
+			if (verbose) {
+				log("what i am getting:: "+readString);
+			}
+			if (bites[i] == 05) {
+				acknowledge(bites[i]);
+				trace("Inside ENQ BLOCK");
+			}
+			if (bites[i] == 06) {
+				trace("Inside ACK BLOCK");
+			}
+			if (responseMonitor != null && (bites[i] == 05 || bites[i] == 06 || bites[i] == 0x15 || bites[i] == 04)) {
+				responseMonitor.onControlByte(bites[i]);
+			}
+			if (bites[i] == 10) {
+				acknowledge(bites[i]);
+				trace("Inside LF BLOCK");
+			}
+			if (bites[i] == 29) {
+				acknowledge(bites[i]);
+				trace("Inside GS BLOCK");
+			}
+			if (bites[i] == 04) {
+				trace("Inside EOT BLOCK");
+				if (heldControlByte >= 0) {
+					// The analyzer gave up waiting, nothing left to answer
+					log(machineID + ": EOT while holding the answer, released");
+					heldControlByte = -1;
+				}
+			}
+
+			//-------------------------Logic---------------------------//
+
+			if (bites[i] == 02) {
+				partialClearData();
+			}
+
+			if(bites[i]!=30) {
+				partialResult.append((char) bites[i]);
+			}
+
+			if (bites[i] == 03) {
+				MachineReadData machineReadData = parseMessage();
+				if(machineReadData!=null){
+					resultSink.onResult(machineReadData);
+					trace("webservice Called");
+					clearData();
+				}
+			}
+		}
+	}
+
+	/**
+	 * ACK a control byte now, or hold the ACK while downstream is congested
+	 */
+	private void acknowledge(int controlByte) throws IOException {
+		if (backpressure == null || ackHoldMs <= 0 || !backpressure.isCongested()) {
+			heldControlByte = -1;
+			responder.reply(06);
+			return;
+		}
+		if (heldControlByte < 0) {
+			heldAckCount++;
+			trace("Holding ACK, results are backing up");
+		}
+		// A newer ENQ or frame supersedes the one the analyzer stopped waiting for
+		heldControlByte = controlByte;
+		heldSince = System.currentTimeMillis();
+	}
+
+	/**
+	 * Send the held answer if the congestion has cleared or the hold time is
+	 * up; to be called regularly by the session's thread
+	 * @return true if an answer was sent
+	 */
+	public boolean releaseHeldAck(long now) throws IOException {
+		if (heldControlByte < 0) {
+			return false;
+		}
+		boolean congested = backpressure != null && backpressure.isCongested();
+		if (congested && now - heldSince < ackHoldMs) {
+			return false;
+		}
+		int answer = 06;
+		if (congested && heldControlByte == 05) {
+			answer = 0x15;
+			busyNakCount++;
+			log(machineID + ": Still congested after " + (now - heldSince) + " ms, answering ENQ with NAK");
+		}
+		heldControlByte = -1;
+		responder.reply(answer);
+		return true;
+	}
+
+	public boolean isHoldingAck() {
+		return heldControlByte >= 0;
+	}
+
+	/**
+	 * Number of times an answer was held
+	 */
+	public long getHeldAckCount() {
+		return heldAckCount;
+	}
+
+	/**
+	 * Number of ENQs refused with NAK because the hold time ran out
+	 */
+	public long getBusyNakCount() {
+		return busyNakCount;
+	}
+
+	private MachineReadData parseMessage() {
+		String[] piStrArr = partialResult.toString().split("\\|");
+
+		if(piStrArr.length>0){
+			for(int j=0; j<piStrArr.length; j++){
+				String strObj = piStrArr[j];
+
+				if(strObj.startsWith("ci")){
+					strObj = strObj.substring(2);
+					sampleID = strObj;
+					trace("sampleID " + sampleID);
+				}
+
+				if(strObj.startsWith("s1")){
+					strObj = strObj.substring(2);
+					sampleDate = DateNormalizer.fromVitekDate(strObj);
+					trace("sampleID " + sampleDate);
+				}
+
+				if(strObj.startsWith("pl")){
+					strObj = strObj.substring(2);
+					trace("location " + strObj);
+				}
+
+				if(strObj.startsWith("ss")){
+					strObj = strObj.substring(2);
+					trace("sample source code " + strObj);
+				}
+
+				if(strObj.startsWith("s5")){
+					strObj = strObj.substring(2);
+					trace("sample source name " + strObj);
+				}
+
+				if(strObj.startsWith("a1")){
+					antibioticCode = "";
+					testResult = "";
+					testInterpretation = "";
+					strObj = strObj.substring(2);
+					if (verbose) {
+						System.out.print("drugs code " + strObj);
+					}
+					antibioticCode = strObj.trim();
+				}
+
+				if(strObj.startsWith("a2")){
+					strObj = strObj.substring(2);
+					if (verbose) {
+						System.out.print(" --- "+strObj);
+					}
+				}
+
+
+				if(strObj.startsWith("a3")){
+					strObj = strObj.substring(2);
+					if (verbose) {
+						System.out.print(" --- " + strObj);
+					}
+					testResult = strObj.trim();
+				}
+
+				if(strObj.startsWith("a4")){
+					strObj = strObj.substring(2);
+					trace(" --- " + strObj);
+					testInterpretation = strObj.trim();
+
+					machineCodeWithValueList.add(DataStructureCreator.createMachineCodeWithValueObj(antibioticCode, testResult, testInterpretation,""));
+				}
+
+				if(strObj.startsWith("t1")){
+					isolationNumber = "";
+					organismName = "";
+					strObj = strObj.substring(2);
+					trace("isolated number " + strObj);
+					isolationNumber = strObj.trim();
+				}
+
+				if(strObj.startsWith("o2")){
+					strObj = strObj.substring(2);
+					trace("organism " + strObj);
+					organismName = strObj.trim();
+				}
+
+			}
+		}
+
+		MachineReadData machineReadData = null;
+		List<MachineCodeForSampleID> machineCodeForSampleIDList = null;
+
+		MachineCodeForSampleID machineCodeForSampleID = DataStructureCreator.createDataStructure(sampleID, sampleDate, isolationNumber, organismName, machineCodeWithValueList);
+
+		if(machineCodeForSampleID!=null){
+			machineCodeForSampleIDList = new ArrayList<>();
+			machineCodeForSampleIDList.add(machineCodeForSampleID);
+		}
+
+		if(machineCodeForSampleIDList!=null && machineCodeForSampleIDList.size()>0) {
+			machineReadData = new MachineReadData();
+			machineReadData.setMachineID(machineID);
+			machineReadData.setMachineCodeForSampleList(machineCodeForSampleIDList);
+		}
+		return machineReadData;
+	}
+
+	/**
+	 * Discard a message that stopped arriving halfway, per the receiver timeout
+	 * @return true if partial data was discarded
+	 */
+	public boolean checkReceiveTimeout(long now) {
+		if (partialResult.length() > 0 && lastByteTime > 0 && now - lastByteTime > RECEIVE_TIMEOUT_MS) {
+			log("Receive timeout after " + (now - lastByteTime) + " ms, discarding partial message");
+			clearData();
+			return true;
+		}
+		return false;
+	}
+
+	public long getLastByteTime() {
+		return lastByteTime;
+	}
+
+	public String getMachineID() {
+		return machineID;
+	}
+
+	public void clearData(){
+		trace("In clear data");
+		readString.setLength(0);
+		partialResult.setLength(0);
+		resetFields();
+	}
+
+	public void partialClearData(){
+		trace("In partial clear data");
+		partialResult.setLength(0);
+		resetFields();
+	}
+
+	private void resetFields() {
+		sampleID = "";
+		sampleDate = "";
+		antibioticCode = "";
+		testResult = "";
+		testInterpretation = "";
+		isolationNumber = "";
+		organismName = "";
+		// A fresh list, the previous one may still be queued for upload inside a MachineReadData
+		machineCodeWithValueList = new ArrayList<>();
+	}
+
+	private void trace(String message) {
+		if (verbose) {
+			log(message);
+		}
+	}
+
+	private static void log(String message) {
+		LabConnectUtil.log(message);
+	}
+}
@@ -0,0 +1,357 @@
+package com.reader;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.core.MediaType;
+import org.apache.cxf.jaxrs.client.WebClient;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Re-posts stored or captured results to serverIpAddress after the LIS lost
+ * them, instead of having the analyzer resend them by hand.
+ *
+ * Results come from the ResultStore (the JSON exactly as it was posted) or are
+ * decoded again from the CaptureJournal, for a range of days and optionally a
+ * range of sample IDs. Stored results are read one day file at a time by a
+ * reader thread; worker threads post them in parallel behind a shared rate
+ * limit. Every accepted result is written to a checkpoint file, so an
+ * interrupted run started again with the same checkpoint skips what already
+ * went through; failed results are not checkpointed and are retried.
+ *
+ * Usage: ResultRepost store|capture [--from=yyyyMMdd] [--to=yyyyMMdd]
+ *        [--samples=FROM:TO] [--parallel=4] [--rate=20] [--checkpoint=FILE]
+ *        [--url=URL] [--dryRun]
+ * --rate is posts per second over all workers (0 = unlimited). The URL
+ * defaults to serverIpAddress of the service properties (-DrootDrive,
+ * -DpropertyFileSuffix). The store is only read; every day still on disk
+ * can be re-posted, whatever the service's retention.
+ */
+public class ResultRepost {
+
+	private static final int RECEIVE_TIMEOUT_MS = 15000;
+	// Results read ahead of the workers, per worker
+	private static final int READ_AHEAD = 64;
+	// Tells a worker that no more results follow
+	private static final Item END = new Item(null, null, null);
+
+	/**
+	 * One result to post; json is read by the reader thread for stored results
+	 */
+	private static class Item {
+		final String id;
+		final ResultStore.Record record;
+		final String json;
+
+		Item(String id, ResultStore.Record record, String json) {
+			this.id = id;
+			this.record = record;
+			this.json = json;
+		}
+	}
+
+	private final String url;
+	private final ResultStore store;
+	private final long intervalNanos;
+	private final File checkpointFile;
+	private final Set<String> done = new HashSet<String>();
+	private long nextPostNanos = System.nanoTime();
+
+	private final AtomicLong posted = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	private ResultRepost(String url, ResultStore store, double ratePerSecond, File checkpointFile) {
+		this.url = url;
+		this.store = store;
+		this.intervalNanos = ratePerSecond > 0 ? (long) (1000000000L / ratePerSecond) : 0;
+		this.checkpointFile = checkpointFile;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || !("store".equals(args[0]) || "capture".equals(args[0]))) {
+			System.out.println("Usage: ResultRepost store|capture [--from=yyyyMMdd] [--to=yyyyMMdd] [--samples=FROM:TO]");
+			System.out.println("       [--parallel=4] [--rate=20] [--checkpoint=FILE] [--url=URL] [--dryRun]");
+			return;
+		}
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i].startsWith("--") ? args[i].substring(2) : args[i];
+			int equals = arg.indexOf('=');
+			options.put(equals < 0 ? arg : arg.substring(0, equals), equals < 0 ? "true" : arg.substring(equals + 1));
+		}
+		String fromDay = option(options, "from", "00000000");
+		String toDay = option(options, "to", "99999999");
+		String[] samples = options.containsKey("samples") ? options.get("samples").split(":", 2) : null;
+		int parallel = Integer.parseInt(option(options, "parallel", "4"));
+		double rate = Double.parseDouble(option(options, "rate", "20"));
+		boolean dryRun = options.containsKey("dryRun");
+		String url = options.containsKey("url") ? options.get("url") : serverIpAddress();
+		File checkpoint = new File(option(options, "checkpoint",
+				"repost_" + args[0] + "_" + fromDay + "_" + toDay + ".checkpoint"));
+
+		ResultStore store = null;
+		List<Item> items;
+		long start = System.nanoTime();
+		if ("store".equals(args[0])) {
+			// load() never deletes, so the retention does not matter here
+			store = ResultStore.defaultStore(ResultStore.DEFAULT_RETENTION_DAYS);
+			store.load();
+			items = fromStore(store, fromDay, toDay, samples);
+		} else {
+			items = fromCaptures(CaptureJournal.defaultJournal(), fromDay, toDay, samples);
+		}
+
+		ResultRepost repost = new ResultRepost(url, store, rate, checkpoint);
+		repost.loadCheckpoint();
+		List<Item> pending = new ArrayList<Item>();
+		for (Item item : items) {
+			if (!repost.done.contains(item.id)) {
+				pending.add(item);
+			}
+		}
+		System.out.println("Results in range: " + items.size() + ", already re-posted: " + (items.size() - pending.size())
+				+ ", to post: " + pending.size() + " (selected in " + (System.nanoTime() - start) / 1000000 + " ms)");
+		if (dryRun || pending.isEmpty()) {
+			return;
+		}
+		System.out.println("Posting to " + url + " with " + parallel + " workers at "
+				+ (rate > 0 ? rate + " per second" : "no rate limit") + ", checkpoint " + checkpoint);
+		repost.run(pending, parallel);
+	}
+
+	private static List<Item> fromStore(ResultStore store, String fromDay, String toDay, String[] samples) {
+		List<Item> items = new ArrayList<Item>();
+		for (ResultStore.Record record : store.findByDate(fromDay, toDay)) {
+			if (samples == null || inRange(record.getSampleIDs(), samples)) {
+				items.add(new Item(record.getId(), record, null));
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Decode the capture files again, one decoder per captured link
+	 */
+	private static List<Item> fromCaptures(CaptureJournal journal, String fromDay, String toDay, final String[] samples) throws Exception {
+		final List<Item> items = new ArrayList<Item>();
+		final ObjectMapper mapper = new ObjectMapper();
+		for (final File file : journal.files(fromDay, toDay)) {
+			// Same result IDs whether or not the day has been compressed since
+			final String fileName = file.getName().endsWith(".gz")
+					? file.getName().substring(0, file.getName().length() - 3) : file.getName();
+			final Map<String, ResultFrameDecoder> decoders = new HashMap<String, ResultFrameDecoder>();
+			final int[] index = { 0 };
+			CaptureJournal.read(file, new CaptureJournal.ChunkReader() {
+				public void onChunk(CaptureJournal.Chunk chunk) throws Exception {
+					ResultFrameDecoder decoder = decoders.get(chunk.getSource());
+					if (decoder == null) {
+						decoder = new ResultFrameDecoder(chunk.getMachineID(), new ResultFrameDecoder.Responder() {
+							public void reply(int controlByte) {
+								// Nothing goes back to the analyzer during a replay
+							}
+						}, new ResultSink() {
+							public void onResult(MachineReadData machineReadData) throws Exception {
+								String id = fileName + "#" + (index[0]++);
+								List<String> sampleIDs = new ArrayList<String>();
+								for (MachineCodeForSampleID sample : machineReadData.getMachineCodeForSampleList()) {
+									sampleIDs.add(sample.getSampleID());
+								}
+								if (samples == null || inRange(sampleIDs, samples)) {
+									items.add(new Item(id, null, mapper.writeValueAsString(machineReadData)));
+								}
+							}
+						});
+						decoder.setVerbose(false);
+						decoders.put(chunk.getSource(), decoder);
+					}
+					decoder.decode(chunk.getBytes(), 0, chunk.getBytes().length);
+				}
+			});
+		}
+		return items;
+	}
+
+	private void run(List<Item> pending, int parallel) throws Exception {
+		Thread[] workers = new Thread[Math.max(1, parallel)];
+		final BlockingQueue<Item> queue = new ArrayBlockingQueue<Item>(workers.length * READ_AHEAD);
+		final int total = pending.size();
+		final long start = System.nanoTime();
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						Item item;
+						while ((item = queue.take()) != END) {
+							post(item);
+							long finished = posted.get() + failed.get();
+							if (finished % 1000 == 0) {
+								System.out.println(String.format("%d / %d (%d failed), %.1f per second", finished, total,
+										failed.get(), finished * 1e9 / (System.nanoTime() - start)));
+							}
+						}
+						// Leave the end marker for the other workers
+						queue.put(END);
+					} catch (InterruptedException ex) {
+						// stop
+					}
+				}
+			}, "ResultRepost-" + (i + 1));
+			workers[i].start();
+		}
+		try {
+			feed(pending, queue);
+		} finally {
+			queue.put(END);
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Re-posted %d, failed %d in %.1f s (%.1f per second)",
+				posted.get(), failed.get(), seconds, posted.get() / Math.max(seconds, 0.001)));
+		if (failed.get() > 0) {
+			System.out.println("Run again with the same checkpoint to retry the failed results");
+		}
+	}
+
+	/**
+	 * Hand the results to the workers, reading stored ones a whole day file at a time
+	 */
+	private void feed(List<Item> pending, final BlockingQueue<Item> queue) throws Exception {
+		List<ResultStore.Record> records = new ArrayList<ResultStore.Record>();
+		for (Item item : pending) {
+			if (item.json != null) {
+				queue.put(item);
+			} else {
+				records.add(item.record);
+			}
+		}
+		if (records.isEmpty()) {
+			return;
+		}
+		store.readJson(records, new ResultStore.JsonReader() {
+			public void onJson(ResultStore.Record record, String json) throws Exception {
+				queue.put(new Item(record.getId(), record, json));
+			}
+
+			public void onUnreadable(ResultStore.Record record, IOException ex) {
+				failed.incrementAndGet();
+				LabConnectUtil.log("ResultRepost: Cannot read " + record.getId() + ": " + ex.getMessage());
+			}
+		});
+	}
+
+	private void post(Item item) {
+		try {
+			String json = item.json;
+			throttle();
+			WebClient client = WebClient.create(url);
+			WebClient.getConfig(client).getHttpConduit().getClient().setReceiveTimeout(RECEIVE_TIMEOUT_MS);
+			client.type(MediaType.APPLICATION_JSON);
+			client.accept(MediaType.APPLICATION_JSON);
+			client.post(json, String.class);
+			posted.incrementAndGet();
+			checkpoint(item.id);
+		} catch (Exception ex) {
+			failed.incrementAndGet();
+			LabConnectUtil.log("ResultRepost: Failed to post " + item.id + ": " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Wait for the next free slot of the shared rate limit
+	 */
+	private void throttle() throws InterruptedException {
+		if (intervalNanos == 0) {
+			return;
+		}
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			long slot = Math.max(now, nextPostNanos);
+			nextPostNanos = slot + intervalNanos;
+			wait = slot - now;
+		}
+		if (wait > 0) {
+			Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+		}
+	}
+
+	private void loadCheckpoint() throws IOException {
+		if (!checkpointFile.exists()) {
+			return;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					done.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private synchronized void checkpoint(String id) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(checkpointFile, true), "UTF-8");
+		try {
+			writer.write(id + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Whether any sample ID lies in FROM:TO, numerically when all three are numbers
+	 */
+	static boolean inRange(List<String> sampleIDs, String[] range) {
+		String from = range[0].trim();
+		String to = range.length > 1 ? range[1].trim() : from;
+		for (String sampleID : sampleIDs) {
+			String id = sampleID != null ? sampleID.trim() : "";
+			if (isNumber(id) && isNumber(from) && isNumber(to)) {
+				long value = Long.parseLong(id);
+				if (value >= Long.parseLong(from) && value <= Long.parseLong(to)) {
+					return true;
+				}
+			} else if (id.compareTo(from) >= 0 && id.compareTo(to) <= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isNumber(String value) {
+		if (value.isEmpty() || value.length() > 18) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (!Character.isDigit(value.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String option(Map<String, String> options, String name, String defaultValue) {
+		return options.containsKey(name) ? options.get(name) : defaultValue;
+	}
+
+	private static String serverIpAddress() throws IOException {
+		String rootDrive = "D://";
+		if (System.getProperty("rootDrive") != null) {
+			rootDrive = System.getProperty("rootDrive");
+		}
+		String propertyFileSuffix = "VITEK2COMPACT";
+		if (System.getProperty("propertyFileSuffix") != null) {
+			propertyFileSuffix = System.getProperty("propertyFileSuffix");
+		}
+		ResourceBundle bundle = new PropertyResourceBundle(new FileInputStream(rootDrive + File.separator + "mednet"
+				+ File.separator + "windowsService" + propertyFileSuffix + ".properties"));
+		return bundle.getString("serverIpAddress");
+	}
+}
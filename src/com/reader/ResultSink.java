@@ -0,0 +1,9 @@
+package com.reader;
+
+/**
+ * Receives each result decoded from the analyzer stream
+ */
+public interface ResultSink {
+
+	void onResult(MachineReadData machineReadData) throws Exception;
+}
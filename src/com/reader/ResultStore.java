@@ -0,0 +1,631 @@
+package com.reader;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import com.connector.SessionThreads;
+
+/**
+ * Local record of every result posted to the LIS: what was sent, when, and
+ * whether the post succeeded.
+ *
+ * Results go to one append-only file per day, one line each:
+ * postedAt TAB SENT|FAILED TAB machineID TAB sampleIDs TAB isolation numbers
+ * TAB organisms TAB the JSON that was posted. The index columns let load()
+ * rebuild the in-memory indexes (sampleID, isolation number, organism, day)
+ * without parsing the JSON, and the indexes only keep the JSON's position in
+ * its file. load() only reads, so lookup tools can open the store safely;
+ * the service calls expire() to delete day files older than the retention.
+ * Past days may be gzip-compressed by Housekeeper and are still read. The
+ * service loads the store in the background; results posted meanwhile are
+ * recorded once the load is done.
+ */
+public class ResultStore {
+
+	public static final int DEFAULT_RETENTION_DAYS = 30;
+
+	private static final String SEPARATOR = "\t";
+	private static final String LIST_SEPARATOR = "|";
+	private static final String FILE_PREFIX = "results_";
+	private static final String FILE_SUFFIX = ".txt";
+	// Day files compressed by Housekeeper
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+	/**
+	 * One posted result; the JSON stays on disk until read with ResultStore.readJson
+	 */
+	public static class Record {
+		private final long postedAt;
+		private final boolean sent;
+		private final String machineID;
+		private final List<String> sampleIDs;
+		private final List<String> isolationNumbers;
+		private final List<String> organisms;
+		private final File file;
+		private final long offset;
+		private final int length;
+
+		Record(long postedAt, boolean sent, String machineID, List<String> sampleIDs, List<String> isolationNumbers,
+				List<String> organisms, File file, long offset, int length) {
+			this.postedAt = postedAt;
+			this.sent = sent;
+			this.machineID = machineID;
+			this.sampleIDs = sampleIDs;
+			this.isolationNumbers = isolationNumbers;
+			this.organisms = organisms;
+			this.file = file;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public long getPostedAt() { return postedAt; }
+		public boolean isSent() { return sent; }
+		public String getMachineID() { return machineID; }
+		public List<String> getSampleIDs() { return sampleIDs; }
+		public List<String> getIsolationNumbers() { return isolationNumbers; }
+		public List<String> getOrganisms() { return organisms; }
+
+		/**
+		 * Stable identifier of the record: its day file and position, the same once the day is compressed
+		 */
+		public String getId() {
+			String fileName = file.getName();
+			if (fileName.endsWith(GZIP_SUFFIX)) {
+				fileName = fileName.substring(0, fileName.length() - GZIP_SUFFIX.length());
+			}
+			return fileName + ":" + offset;
+		}
+
+		@Override
+		public String toString() {
+			return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(postedAt)) + " " + (sent ? "SENT" : "FAILED")
+					+ " " + machineID + " samples=" + sampleIDs + " isolations=" + isolationNumbers + " organisms=" + organisms;
+		}
+	}
+
+	private final File directory;
+	private final String name;
+	private final long retentionMs;
+
+	private final List<Record> records = new ArrayList<Record>();
+	private final Map<String, List<Record>> bySampleID = new HashMap<String, List<Record>>();
+	private final Map<String, List<Record>> byIsolationNumber = new HashMap<String, List<Record>>();
+	private final Map<String, List<Record>> byOrganism = new HashMap<String, List<Record>>();
+	private final TreeMap<String, List<Record>> byDay = new TreeMap<String, List<Record>>();
+
+	private String currentDay;
+	private File currentFile;
+	private long currentLength;
+
+	// Results posted while loadInBackground is still running, guarded by itself
+	private final List<Object[]> postedWhileLoading = new ArrayList<Object[]>();
+	private boolean loading = false;
+
+	/**
+	 * @param name Store name in the file names, normally the propertyFileSuffix
+	 */
+	public ResultStore(File directory, String name, int retentionDays) {
+		this.directory = directory;
+		this.name = name;
+		this.retentionMs = (retentionDays > 0 ? retentionDays : DEFAULT_RETENTION_DAYS) * DAY_MS;
+	}
+
+	/**
+	 * Default location: rootDrive/mednet/data/results, files results_[propertyFileSuffix]_[yyyyMMdd].txt
+	 */
+	public static ResultStore defaultStore(int retentionDays) {
+		String propertyFileSuffix = "VITEK2COMPACT";
+		if (System.getProperty("propertyFileSuffix") != null) {
+			propertyFileSuffix = System.getProperty("propertyFileSuffix");
+		}
+		return new ResultStore(defaultDirectory(), propertyFileSuffix, retentionDays);
+	}
+
+	public static File defaultDirectory() {
+		String rootDrive = "D://";
+		if (System.getProperty("rootDrive") != null) {
+			rootDrive = System.getProperty("rootDrive");
+		}
+		return new File(rootDrive + File.separator + "mednet" + File.separator + "data" + File.separator + "results");
+	}
+
+	/**
+	 * Index every day file of the store; nothing is deleted
+	 */
+	public synchronized void load() {
+		clearIndexes();
+		File[] files = directory.listFiles();
+		if (files == null) {
+			log("ResultStore: No results at " + directory + ", starting empty");
+			return;
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			String day = dayOfFile(file);
+			if (day == null) {
+				continue;
+			}
+			if (isCompressed(file) && new File(directory, file.getName().substring(0,
+					file.getName().length() - GZIP_SUFFIX.length())).exists()) {
+				// Still being compressed; the plain file is indexed
+				continue;
+			}
+			indexFile(file);
+		}
+		log("ResultStore: Loaded " + records.size() + " results from " + directory);
+	}
+
+	/**
+	 * Delete the day files past the retention and drop their results from the
+	 * indexes, without re-reading the other days
+	 * @return number of day files deleted
+	 */
+	public synchronized int expire() {
+		return expire(System.currentTimeMillis());
+	}
+
+	private int expire(long now) {
+		String oldestDay = dayOf(now - retentionMs);
+		SortedMap<String, List<Record>> expired = byDay.headMap(oldestDay);
+		if (!expired.isEmpty()) {
+			Set<Record> dropped = Collections.newSetFromMap(new IdentityHashMap<Record, Boolean>());
+			for (List<Record> day : expired.values()) {
+				dropped.addAll(day);
+			}
+			for (Record record : dropped) {
+				for (String sampleID : record.sampleIDs) {
+					remove(bySampleID, sampleID, record);
+				}
+				for (String isolationNumber : record.isolationNumbers) {
+					remove(byIsolationNumber, isolationNumber, record);
+				}
+				for (String organism : record.organisms) {
+					remove(byOrganism, organism.toLowerCase(), record);
+				}
+			}
+			records.removeAll(dropped);
+			expired.clear();
+		}
+		int deleted = 0;
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String day = dayOfFile(file);
+				if (day != null && day.compareTo(oldestDay) < 0 && file.delete()) {
+					deleted++;
+				}
+			}
+		}
+		if (deleted > 0) {
+			log("ResultStore: Deleted " + deleted + " expired day files");
+		}
+		return deleted;
+	}
+
+	/**
+	 * Run expire() and load() on their own thread, so a month of results does not hold up
+	 * opening the link
+	 */
+	public void loadInBackground() {
+		synchronized (postedWhileLoading) {
+			loading = true;
+		}
+		SessionThreads.start("ResultStore-load", new Runnable() {
+			public void run() {
+				try {
+					expire();
+					load();
+				} finally {
+					List<Object[]> posted;
+					synchronized (postedWhileLoading) {
+						loading = false;
+						posted = new ArrayList<Object[]>(postedWhileLoading);
+						postedWhileLoading.clear();
+					}
+					for (Object[] result : posted) {
+						store((MachineReadData) result[0], (String) result[1], (Boolean) result[2]);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Store a result and the JSON that was posted for it
+	 * @param sent Whether the LIS accepted the post
+	 */
+	public void record(MachineReadData machineReadData, String json, boolean sent) {
+		synchronized (postedWhileLoading) {
+			if (loading) {
+				postedWhileLoading.add(new Object[] { machineReadData, json, sent });
+				return;
+			}
+		}
+		store(machineReadData, json, sent);
+	}
+
+	private synchronized void store(MachineReadData machineReadData, String json, boolean sent) {
+		long now = System.currentTimeMillis();
+		String day = dayOf(now);
+		if (!day.equals(currentDay)) {
+			openDay(day, now);
+		}
+		List<String> sampleIDs = new ArrayList<String>();
+		List<String> isolationNumbers = new ArrayList<String>();
+		List<String> organisms = new ArrayList<String>();
+		collectKeys(machineReadData, sampleIDs, isolationNumbers, organisms);
+
+		StringBuilder prefix = new StringBuilder();
+		prefix.append(now).append(SEPARATOR).append(sent ? "SENT" : "FAILED").append(SEPARATOR)
+				.append(clean(machineReadData.getMachineID())).append(SEPARATOR)
+				.append(join(sampleIDs)).append(SEPARATOR)
+				.append(join(isolationNumbers)).append(SEPARATOR)
+				.append(join(organisms)).append(SEPARATOR);
+		OutputStream out = null;
+		try {
+			byte[] prefixBytes = prefix.toString().getBytes("UTF-8");
+			byte[] jsonBytes = clean(json).getBytes("UTF-8");
+			if (!directory.exists()) {
+				directory.mkdirs();
+			}
+			out = new FileOutputStream(currentFile, true);
+			out.write(prefixBytes);
+			out.write(jsonBytes);
+			out.write('\n');
+			long offset = currentLength + prefixBytes.length;
+			currentLength = offset + jsonBytes.length + 1;
+			index(new Record(now, sent, clean(machineReadData.getMachineID()), sampleIDs, isolationNumbers, organisms,
+					currentFile, offset, jsonBytes.length), day);
+		} catch (IOException ex) {
+			log("ResultStore: Error writing " + currentFile + ": " + ex.getMessage());
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	public synchronized List<Record> findBySampleID(String sampleID) {
+		return copy(bySampleID.get(key(sampleID)));
+	}
+
+	public synchronized List<Record> findByIsolationNumber(String isolationNumber) {
+		return copy(byIsolationNumber.get(key(isolationNumber)));
+	}
+
+	/**
+	 * Results naming this organism, case-insensitive
+	 */
+	public synchronized List<Record> findByOrganism(String organism) {
+		return copy(byOrganism.get(key(organism).toLowerCase()));
+	}
+
+	/**
+	 * Results posted between two days, inclusive
+	 * @param fromDay yyyyMMdd
+	 * @param toDay yyyyMMdd
+	 */
+	public synchronized List<Record> findByDate(String fromDay, String toDay) {
+		List<Record> found = new ArrayList<Record>();
+		for (List<Record> day : byDay.subMap(fromDay, true, toDay, true).values()) {
+			found.addAll(day);
+		}
+		return found;
+	}
+
+	/**
+	 * Receives the JSON of each record read by readJson(List, JsonReader)
+	 */
+	public interface JsonReader {
+		void onJson(Record record, String json) throws Exception;
+
+		/**
+		 * The record's day file could not be read
+		 */
+		void onUnreadable(Record record, IOException ex) throws Exception;
+	}
+
+	/**
+	 * The JSON that was posted for a result
+	 */
+	public String readJson(Record record) throws IOException {
+		InputStream in = openDayFile(record.file);
+		try {
+			return readJson(in, 0, record);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The JSON of many results, reading each day file once from start to end
+	 * instead of reopening (and, for compressed days, decompressing up to the
+	 * record) once per result. Records are handed over grouped by day file in
+	 * file order.
+	 */
+	public void readJson(List<Record> records, JsonReader reader) throws Exception {
+		Map<File, List<Record>> byFile = new LinkedHashMap<File, List<Record>>();
+		for (Record record : records) {
+			List<Record> inFile = byFile.get(record.file);
+			if (inFile == null) {
+				inFile = new ArrayList<Record>();
+				byFile.put(record.file, inFile);
+			}
+			inFile.add(record);
+		}
+		for (Map.Entry<File, List<Record>> entry : byFile.entrySet()) {
+			List<Record> inFile = entry.getValue();
+			Collections.sort(inFile, new Comparator<Record>() {
+				public int compare(Record a, Record b) {
+					return a.offset < b.offset ? -1 : a.offset > b.offset ? 1 : 0;
+				}
+			});
+			int next = 0;
+			try {
+				InputStream in = openDayFile(entry.getKey());
+				try {
+					long position = 0;
+					for (; next < inFile.size(); next++) {
+						Record record = inFile.get(next);
+						String json = readJson(in, position, record);
+						position = record.offset + record.length;
+						reader.onJson(record, json);
+					}
+				} finally {
+					in.close();
+				}
+			} catch (IOException ex) {
+				log("ResultStore: Error reading " + entry.getKey() + ": " + ex.getMessage());
+				for (; next < inFile.size(); next++) {
+					reader.onUnreadable(inFile.get(next), ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Open a day file at its start; a day compressed since it was indexed is read from its .gz
+	 */
+	private static InputStream openDayFile(File file) throws IOException {
+		File compressed = new File(file.getPath() + GZIP_SUFFIX);
+		if (isCompressed(file) || (!file.exists() && compressed.exists())) {
+			// A compressed day has to be read up to each record
+			return new GZIPInputStream(new FileInputStream(isCompressed(file) ? file : compressed), 65536);
+		}
+		return new FileInputStream(file);
+	}
+
+	/**
+	 * Skip from the stream's position to the record and read its JSON
+	 */
+	private static String readJson(InputStream in, long position, Record record) throws IOException {
+		long skipped = position;
+		while (skipped < record.offset) {
+			long step = in.skip(record.offset - skipped);
+			if (step <= 0) {
+				throw new EOFException("Result beyond the end of " + record.file);
+			}
+			skipped += step;
+		}
+		byte[] json = new byte[record.length];
+		new DataInputStream(in).readFully(json);
+		return new String(json, "UTF-8");
+	}
+
+	public synchronized int size() {
+		return records.size();
+	}
+
+	/**
+	 * Start the day's file, dropping days that passed the retention
+	 */
+	private void openDay(String day, long now) {
+		currentDay = day;
+		currentFile = new File(directory, FILE_PREFIX + name + "_" + day + FILE_SUFFIX);
+		currentLength = currentFile.length();
+		if (!byDay.isEmpty() && byDay.firstKey().compareTo(dayOf(now - retentionMs)) < 0) {
+			expire(now);
+		}
+	}
+
+	/**
+	 * Index one day file, tracking byte offsets so readJson can seek to each line's JSON
+	 */
+	private void indexFile(File file) {
+		String day = dayOfFile(file);
+		InputStream in = null;
+		try {
+			in = isCompressed(file) ? new GZIPInputStream(new FileInputStream(file), 65536) : new FileInputStream(file);
+			byte[] buffer = new byte[65536];
+			ByteArrayOutputStream line = new ByteArrayOutputStream(1024);
+			long lineStart = 0;
+			long position = 0;
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				int from = 0;
+				for (int i = 0; i < read; i++) {
+					if (buffer[i] != '\n') {
+						continue;
+					}
+					line.write(buffer, from, i - from);
+					indexLine(file, day, line.toByteArray(), lineStart);
+					line.reset();
+					from = i + 1;
+					lineStart = position + from;
+				}
+				line.write(buffer, from, read - from);
+				position += read;
+			}
+			// A last line without a newline was cut short by a crash and is skipped
+		} catch (IOException ex) {
+			log("ResultStore: Error reading " + file + ": " + ex.getMessage());
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private void indexLine(File file, String day, byte[] line, long lineStart) throws UnsupportedEncodingException {
+		// Index columns are ASCII-safe to split on; only the JSON column needs its byte position
+		int column = 0;
+		int jsonStart = -1;
+		for (int i = 0; i < line.length; i++) {
+			if (line[i] == '\t' && ++column == 6) {
+				jsonStart = i + 1;
+				break;
+			}
+		}
+		if (jsonStart < 0) {
+			return;
+		}
+		String[] parts = new String(line, 0, jsonStart - 1, "UTF-8").split(SEPARATOR, -1);
+		try {
+			index(new Record(Long.parseLong(parts[0]), "SENT".equals(parts[1]), parts[2], split(parts[3]),
+					split(parts[4]), split(parts[5]), file, lineStart + jsonStart, line.length - jsonStart), day);
+		} catch (NumberFormatException ex) {
+			// Skip a damaged line
+		}
+	}
+
+	private void index(Record record, String day) {
+		records.add(record);
+		for (String sampleID : record.sampleIDs) {
+			add(bySampleID, sampleID, record);
+		}
+		for (String isolationNumber : record.isolationNumbers) {
+			add(byIsolationNumber, isolationNumber, record);
+		}
+		for (String organism : record.organisms) {
+			add(byOrganism, organism.toLowerCase(), record);
+		}
+		add(byDay, day, record);
+	}
+
+	private void clearIndexes() {
+		records.clear();
+		bySampleID.clear();
+		byIsolationNumber.clear();
+		byOrganism.clear();
+		byDay.clear();
+	}
+
+	private static void collectKeys(MachineReadData machineReadData, List<String> sampleIDs,
+			List<String> isolationNumbers, List<String> organisms) {
+		if (machineReadData.getMachineCodeForSampleList() == null) {
+			return;
+		}
+		for (MachineCodeForSampleID sample : machineReadData.getMachineCodeForSampleList()) {
+			addKey(sampleIDs, sample.getSampleID());
+			if (sample.getIsolationInfoForSampleIDList() == null) {
+				continue;
+			}
+			for (IsolationInfoForSampleID isolation : sample.getIsolationInfoForSampleIDList()) {
+				addKey(isolationNumbers, isolation.getIsolationNumber());
+				addKey(organisms, isolation.getOrganismName());
+			}
+		}
+	}
+
+	private static void addKey(List<String> keys, String value) {
+		String key = key(value).replace(LIST_SEPARATOR, " ");
+		if (!key.isEmpty() && !keys.contains(key)) {
+			keys.add(key);
+		}
+	}
+
+	private static void add(Map<String, List<Record>> index, String key, Record record) {
+		List<Record> list = index.get(key);
+		if (list == null) {
+			list = new ArrayList<Record>(2);
+			index.put(key, list);
+		}
+		list.add(record);
+	}
+
+	private static void remove(Map<String, List<Record>> index, String key, Record record) {
+		List<Record> list = index.get(key);
+		if (list != null) {
+			list.remove(record);
+			if (list.isEmpty()) {
+				index.remove(key);
+			}
+		}
+	}
+
+	private static List<Record> copy(List<Record> found) {
+		return found != null ? new ArrayList<Record>(found) : new ArrayList<Record>();
+	}
+
+	private static String key(String value) {
+		return value != null ? clean(value).trim() : "";
+	}
+
+	/**
+	 * Tabs and line breaks would break the line format
+	 */
+	private static String clean(String value) {
+		if (value == null) {
+			return "";
+		}
+		return value.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+	}
+
+	private static String join(List<String> keys) {
+		StringBuilder joined = new StringBuilder();
+		for (String key : keys) {
+			if (joined.length() > 0) {
+				joined.append(LIST_SEPARATOR);
+			}
+			joined.append(key);
+		}
+		return joined.toString();
+	}
+
+	private static List<String> split(String joined) {
+		List<String> keys = new ArrayList<String>();
+		for (String key : joined.split("\\" + LIST_SEPARATOR)) {
+			if (!key.isEmpty()) {
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	private static String dayOf(long time) {
+		return new SimpleDateFormat("yyyyMMdd").format(new Date(time));
+	}
+
+	private static boolean isCompressed(File file) {
+		return file.getName().endsWith(GZIP_SUFFIX);
+	}
+
+	/**
+	 * yyyyMMdd of a results_[name]_[yyyyMMdd].txt(.gz) file of this store, null for other files
+	 */
+	private String dayOfFile(File file) {
+		String fileName = file.getName();
+		if (isCompressed(file)) {
+			fileName = fileName.substring(0, fileName.length() - GZIP_SUFFIX.length());
+		}
+		String prefix = FILE_PREFIX + name + "_";
+		if (!fileName.startsWith(prefix) || !fileName.endsWith(FILE_SUFFIX)
+				|| fileName.length() != prefix.length() + 8 + FILE_SUFFIX.length()) {
+			return null;
+		}
+		return fileName.substring(prefix.length(), prefix.length() + 8);
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException ex) {
+				// ignore
+			}
+		}
+	}
+
+	private static void log(String message) {
+		LabConnectUtil.log(message);
+	}
+}
@@ -0,0 +1,56 @@
+package com.reader;
+
+import java.util.List;
+
+/**
+ * Command line lookup in the local result store, for checking whether a
+ * result left the box and what was posted for it.
+ *
+ * Usage: ResultStoreQuery sample|isolation|organism SAMPLEID|NUMBER|NAME [--json]
+ *        ResultStoreQuery date FROM_yyyyMMdd [TO_yyyyMMdd] [--json]
+ * Reads the store under -DrootDrive / -DpropertyFileSuffix like the service.
+ * Only reads: expired days are left for the service to delete.
+ */
+public class ResultStoreQuery {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: ResultStoreQuery sample|isolation|organism VALUE [--json]");
+			System.out.println("       ResultStoreQuery date FROM_yyyyMMdd [TO_yyyyMMdd] [--json]");
+			return;
+		}
+		boolean json = "--json".equals(args[args.length - 1]);
+		// load() never deletes, so the retention does not matter here
+		ResultStore store = ResultStore.defaultStore(ResultStore.DEFAULT_RETENTION_DAYS);
+
+		long start = System.nanoTime();
+		store.load();
+		long loaded = System.nanoTime();
+
+		List<ResultStore.Record> found;
+		String by = args[0];
+		if ("sample".equals(by)) {
+			found = store.findBySampleID(args[1]);
+		} else if ("isolation".equals(by)) {
+			found = store.findByIsolationNumber(args[1]);
+		} else if ("organism".equals(by)) {
+			found = store.findByOrganism(args[1]);
+		} else if ("date".equals(by)) {
+			String to = args.length > 2 && !args[2].startsWith("--") ? args[2] : args[1];
+			found = store.findByDate(args[1], to);
+		} else {
+			System.out.println("Unknown lookup: " + by);
+			return;
+		}
+		long queried = System.nanoTime();
+
+		for (ResultStore.Record record : found) {
+			System.out.println(record);
+			if (json) {
+				System.out.println("  " + store.readJson(record));
+			}
+		}
+		System.out.println(found.size() + " of " + store.size() + " results (load "
+				+ (loaded - start) / 1000000 + " ms, lookup " + (queried - loaded) / 1000 + " us)");
+	}
+}
@@ -0,0 +1,142 @@
+package com.reader;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.connector.SessionThreads;
+
+/**
+ * Shared upload stage: decoded results from any number of analyzer sessions
+ * are queued here and posted by a small fixed set of worker threads, so a slow
+ * LIS never stalls the thread that reads the analyzers. Past the high-water
+ * mark the stage reports itself congested, so sessions can hold back the
+ * analyzers before the queue is full.
+ */
+public class ResultUploadStage implements ResultSink, ResultFrameDecoder.Backpressure {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+	public static final int DEFAULT_WORKERS = 2;
+	public static final int DEFAULT_HIGH_WATER_PERCENT = 80;
+
+	private final BlockingQueue<MachineReadData> queue;
+	private final ResultSink uploader;
+	private final int workerCount;
+	private final Thread[] workers;
+	private volatile int highWaterMark;
+	private volatile boolean running = false;
+
+	private final AtomicLong uploaded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * @param uploader Sink that performs the actual post (e.g. DataReader.webServiceCall)
+	 */
+	public ResultUploadStage(ResultSink uploader, int queueCapacity, int workerCount) {
+		this.uploader = uploader;
+		this.queue = new ArrayBlockingQueue<MachineReadData>(queueCapacity > 0 ? queueCapacity : DEFAULT_QUEUE_CAPACITY);
+		this.workerCount = workerCount > 0 ? workerCount : DEFAULT_WORKERS;
+		this.workers = new Thread[this.workerCount];
+		setHighWaterPercent(DEFAULT_HIGH_WATER_PERCENT);
+	}
+
+	/**
+	 * Queue fill, in percent of the capacity, from which the stage is congested
+	 */
+	public void setHighWaterPercent(int percent) {
+		int bounded = Math.max(1, Math.min(100, percent));
+		this.highWaterMark = Math.max(1, getCapacity() * bounded / 100);
+	}
+
+	public boolean isCongested() {
+		return queue.size() >= highWaterMark;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = SessionThreads.start("ResultUpload-" + (i + 1), new Runnable() {
+				public void run() {
+					uploadLoop();
+				}
+			});
+		}
+		log("ResultUploadStage: Started " + workerCount + " upload workers, queue capacity " + getCapacity());
+	}
+
+	public synchronized void stop() {
+		running = false;
+		for (Thread worker : workers) {
+			if (worker != null) {
+				worker.interrupt();
+			}
+		}
+		if (!queue.isEmpty()) {
+			log("ResultUploadStage: Stopped with " + queue.size() + " results still queued");
+		}
+	}
+
+	/**
+	 * Queue a result without blocking
+	 * @return false if the queue is full and the caller has to hold on to the result
+	 */
+	public boolean offer(MachineReadData machineReadData) {
+		return queue.offer(machineReadData);
+	}
+
+	/**
+	 * ResultSink entry point for callers that may block until there is room
+	 */
+	public void onResult(MachineReadData machineReadData) throws Exception {
+		queue.put(machineReadData);
+	}
+
+	private void uploadLoop() {
+		while (running) {
+			MachineReadData machineReadData;
+			try {
+				machineReadData = queue.poll(1, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				break;
+			}
+			if (machineReadData == null) {
+				continue;
+			}
+			try {
+				uploader.onResult(machineReadData);
+				uploaded.incrementAndGet();
+			} catch (Exception ex) {
+				failed.incrementAndGet();
+				log("ResultUploadStage: Upload failed for " + machineReadData.getMachineID() + ": " + ex);
+			}
+		}
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	public int getCapacity() {
+		return queue.size() + queue.remainingCapacity();
+	}
+
+	public int getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	public long getUploadedCount() {
+		return uploaded.get();
+	}
+
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	private static void log(String message) {
+		LabConnectUtil.log(message);
+	}
+}
@@ -0,0 +1,122 @@
+package com.writer;
+
+import java.io.IOException;
+
+/**
+ * Encodes ASTM records into E1381 frames.
+ *
+ * A record longer than the frame allows is split into intermediate frames
+ * (STX FN text ETB C1 C2 CR LF) followed by one end frame (... ETX ...). The
+ * frame number runs 1..7,0,1.. across the whole message and is only reset
+ * with reset(). Every frame is built straight from the record characters into
+ * one reused byte buffer with the checksum summed along the way.
+ */
+public class ASTMFrameEncoder {
+
+    /**
+     * Transmits one encoded frame (and waits for it to be acknowledged)
+     */
+    public interface FrameSink {
+        /**
+         * @param frame Buffer holding the frame, only valid during the call
+         * @param length Number of frame bytes in the buffer
+         * @param frameNumber Frame number 0-7
+         * @param last true for the ETX frame that ends the record
+         * @return false to stop encoding the record
+         */
+        boolean sendFrame(byte[] frame, int length, int frameNumber, boolean last) throws IOException, InterruptedException;
+    }
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1024;
+    /** STX, frame number, ETB/ETX, two checksum characters, CR and LF */
+    public static final int FRAME_OVERHEAD = 7;
+
+    private static final byte STX = 0x02;
+    private static final byte ETX = 0x03;
+    private static final byte ETB = 0x17;
+    private static final byte CR = 0x0D;
+    private static final byte LF = 0x0A;
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    private final int maxTextLength;
+    private final byte[] frameBuffer;
+    private int frameNumber = 1;
+
+    /**
+     * @param maxFrameSize Largest frame in bytes including the control characters (maxFrameSize property)
+     */
+    public ASTMFrameEncoder(int maxFrameSize) {
+        if (maxFrameSize <= FRAME_OVERHEAD) {
+            maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+        }
+        this.maxTextLength = maxFrameSize - FRAME_OVERHEAD;
+        this.frameBuffer = new byte[maxFrameSize];
+    }
+
+    /**
+     * Start a new message: the next frame is numbered 1 again
+     */
+    public void reset() {
+        frameNumber = 1;
+    }
+
+    /**
+     * Encode one record into as many frames as it needs and hand each to the sink
+     * @return true if every frame was accepted by the sink
+     */
+    public boolean encodeRecord(CharSequence record, FrameSink sink) throws IOException, InterruptedException {
+        int length = record.length();
+        int start = 0;
+        do {
+            int end = Math.min(start + maxTextLength, length);
+            boolean last = end == length;
+            int number = frameNumber;
+            int frameLength = encodeFrame(record, start, end, last);
+            if (!sink.sendFrame(frameBuffer, frameLength, number, last)) {
+                return false;
+            }
+            start = end;
+        } while (start < length);
+        return true;
+    }
+
+    /**
+     * Encode record characters [start, end) as the next frame into the reused buffer
+     * @return frame length in bytes
+     */
+    int encodeFrame(CharSequence record, int start, int end, boolean last) {
+        int position = 0;
+        byte number = (byte) ('0' + frameNumber);
+        byte terminator = last ? ETX : ETB;
+        int checksum = number + terminator;
+
+        frameBuffer[position++] = STX;
+        frameBuffer[position++] = number;
+        for (int i = start; i < end; i++) {
+            char c = record.charAt(i);
+            byte b = c < 0x80 ? (byte) c : (byte) '?';
+            frameBuffer[position++] = b;
+            checksum += b;
+        }
+        frameBuffer[position++] = terminator;
+        checksum &= 0xFF;
+        frameBuffer[position++] = HEX[checksum >> 4];
+        frameBuffer[position++] = HEX[checksum & 0x0F];
+        frameBuffer[position++] = CR;
+        frameBuffer[position++] = LF;
+
+        frameNumber = (frameNumber + 1) % 8;
+        return position;
+    }
+
+    public int getMaxFrameSize() {
+        return frameBuffer.length;
+    }
+
+    /**
+     * Frame number the next frame will carry
+     */
+    public int getFrameNumber() {
+        return frameNumber;
+    }
+}
@@ -0,0 +1,235 @@
+package com.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.connector.InMemoryLinkTransport;
+import com.reader.DataReader;
+
+/**
+ * Checks the ASTM framing of the worklist writer:
+ * 1. Long records are split into ETB frames and one ETX frame of at most maxFrameSize
+ * 2. Frame numbers run 1..7,0,1.. and every checksum matches the frame
+ * 3. RS232DataWriter waits for the analyzer's ACK to ENQ and to every frame,
+ *    and retransmits a NAKed frame
+ */
+public class ASTMFramingTest {
+
+    private static final int STX = 0x02;
+    private static final int ETX = 0x03;
+    private static final int EOT = 0x04;
+    private static final int ENQ = 0x05;
+    private static final int ACK = 0x06;
+    private static final int NAK = 0x15;
+    private static final int ETB = 0x17;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== ASTM Framing Test ===");
+
+        testFrameSplitting();
+        testWorklistHandshake();
+
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks FAILED");
+        System.out.println("=== End ASTM Framing Test ===");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Encode a record much longer than a frame and check every frame
+     */
+    public static void testFrameSplitting() throws Exception {
+        System.out.println("\n--- Frame splitting ---");
+        StringBuilder record = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            record.append("O|").append(i).append("|SAMPLE").append(i).append("|");
+        }
+        final int maxFrameSize = 64;
+        final List<byte[]> frames = new ArrayList<byte[]>();
+        ASTMFrameEncoder encoder = new ASTMFrameEncoder(maxFrameSize);
+        // Two records in one message: numbering continues across them
+        for (int r = 0; r < 2; r++) {
+            encoder.encodeRecord(record, new ASTMFrameEncoder.FrameSink() {
+                public boolean sendFrame(byte[] frame, int length, int frameNumber, boolean last) {
+                    frames.add(Arrays.copyOf(frame, length));
+                    return true;
+                }
+            });
+        }
+
+        StringBuilder reassembled = new StringBuilder();
+        int expectedNumber = 1;
+        int etxFrames = 0;
+        for (int i = 0; i < frames.size(); i++) {
+            byte[] frame = frames.get(i);
+            String problem = checkFrame(frame, expectedNumber, maxFrameSize);
+            if (problem != null) {
+                fail("Frame " + i + ": " + problem);
+                return;
+            }
+            reassembled.append(new String(frame, 2, frame.length - 7, "US-ASCII"));
+            if (frame[frame.length - 5] == ETX) {
+                etxFrames++;
+            }
+            expectedNumber = (expectedNumber + 1) % 8;
+        }
+        check("ETX ends each record, ETB elsewhere", etxFrames == 2
+                && frames.get(frames.size() - 1)[frames.get(frames.size() - 1).length - 5] == ETX);
+        check("Frame numbers wrap past 7", frames.size() > 8);
+        check("Frames reassemble to the records", reassembled.toString().equals(record.toString() + record));
+        System.out.println(frames.size() + " frames for 2 records of " + record.length() + " characters");
+    }
+
+    /**
+     * Send a worklist through RS232DataWriter to a simulated analyzer that
+     * ACKs the ENQ, NAKs the first frame once and ACKs everything else
+     */
+    public static void testWorklistHandshake() throws Exception {
+        System.out.println("\n--- Worklist handshake ---");
+        InMemoryLinkTransport[] pair = InMemoryLinkTransport.createPair("interface", "analyzer");
+        final InMemoryLinkTransport link = pair[0];
+        final InMemoryLinkTransport analyzer = pair[1];
+        link.open();
+        analyzer.open();
+        // The production reader forwards the analyzer's replies to the writer
+        link.setListener(new DataReader.LinkEventReader(link), true);
+
+        final List<byte[]> received = new ArrayList<byte[]>();
+        final int[] enqCount = {0};
+        final int[] nakSent = {0};
+        Thread simulator = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    simulateAnalyzer(analyzer, received, enqCount, nakSent);
+                } catch (IOException ex) {
+                    System.out.println("Simulated analyzer failed: " + ex);
+                }
+            }
+        }, "SimulatedAnalyzer");
+        simulator.setDaemon(true);
+        simulator.start();
+
+        List<LabOrderData> orders = new ArrayList<LabOrderData>();
+        for (int i = 0; i < 3; i++) {
+            LabOrderData order = new LabOrderData();
+            order.setSampleId("S" + i);
+            order.setMrn("MRN" + i);
+            order.setPatientName("John Smith" + i);
+            order.setSpecimenType("URINE");
+            orders.add(order);
+        }
+        RS232DataWriter writer = new RS232DataWriter(48, true);
+        boolean sent = writer.sendWorklistBatch(orders, link, null, 3);
+        simulator.join(5000);
+
+        check("Worklist accepted", sent);
+        check("One ENQ for the session", enqCount[0] == 1);
+        check("NAKed frame retransmitted", nakSent[0] == 1 && received.size() > 2
+                && Arrays.equals(received.get(0), received.get(1)));
+        int expectedNumber = 1;
+        boolean framesValid = true;
+        for (int i = 1; i < received.size(); i++) {
+            String problem = checkFrame(received.get(i), expectedNumber, 48);
+            if (problem != null) {
+                System.out.println("Frame " + i + ": " + problem);
+                framesValid = false;
+            }
+            expectedNumber = (expectedNumber + 1) % 8;
+        }
+        check("Every frame within 48 bytes, numbered and checksummed", framesValid);
+        link.close();
+        analyzer.close();
+    }
+
+    /**
+     * Analyzer side: ACK the ENQ, then collect frames until EOT
+     */
+    private static void simulateAnalyzer(InMemoryLinkTransport analyzer, List<byte[]> received,
+                                         int[] enqCount, int[] nakSent) throws IOException {
+        byte[] buffer = new byte[256];
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        int afterTerminator = -1;
+        while (true) {
+            int length = analyzer.read(buffer, 0, buffer.length, 3000);
+            if (length <= 0) {
+                return;
+            }
+            for (int i = 0; i < length; i++) {
+                int b = buffer[i] & 0xFF;
+                if (frame.size() == 0 && b == ENQ) {
+                    enqCount[0]++;
+                    analyzer.write(ACK);
+                } else if (frame.size() == 0 && b == EOT) {
+                    return;
+                } else {
+                    frame.write(b);
+                    if (afterTerminator >= 0) {
+                        afterTerminator++;
+                    } else if (b == ETB || b == ETX) {
+                        afterTerminator = 0;
+                    }
+                    // Two checksum characters, CR and LF complete the frame
+                    if (afterTerminator == 4) {
+                        received.add(frame.toByteArray());
+                        frame.reset();
+                        afterTerminator = -1;
+                        if (nakSent[0] == 0) {
+                            nakSent[0]++;
+                            analyzer.write(NAK);
+                        } else {
+                            analyzer.write(ACK);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return what is wrong with the frame, or null
+     */
+    private static String checkFrame(byte[] frame, int expectedNumber, int maxFrameSize) {
+        int n = frame.length;
+        if (n > maxFrameSize) {
+            return "length " + n + " over " + maxFrameSize;
+        }
+        if (frame[0] != STX || frame[n - 2] != '\r' || frame[n - 1] != '\n') {
+            return "not STX .. CR LF";
+        }
+        if (frame[1] != '0' + expectedNumber) {
+            return "frame number " + (char) frame[1] + ", expected " + expectedNumber;
+        }
+        int terminator = frame[n - 5];
+        if (terminator != ETB && terminator != ETX) {
+            return "no ETB/ETX";
+        }
+        int sum = 0;
+        for (int i = 1; i <= n - 5; i++) {
+            sum += frame[i] & 0xFF;
+        }
+        String expected = String.format("%02X", sum & 0xFF);
+        String actual = new String(frame, n - 4, 2);
+        if (!expected.equals(actual)) {
+            return "checksum " + actual + ", expected " + expected;
+        }
+        return null;
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "OK     " : "FAILED ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAILED " + message);
+        failures++;
+    }
+}
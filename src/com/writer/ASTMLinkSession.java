@@ -0,0 +1,177 @@
+package com.writer;
+
+import java.io.IOException;
+import com.connector.LinkArbiter;
+import com.connector.LinkResponseMonitor;
+import com.connector.LinkTransport;
+import com.reader.LabConnectUtil;
+
+/**
+ * Sender side of one ASTM E1381 session on a link: takes the line, bids with
+ * ENQ until the analyzer ACKs it, sends frames that are each acknowledged
+ * (retransmitted on NAK) and ends with EOT. Shared by DataWriter and
+ * RS232DataWriter.
+ */
+class ASTMLinkSession {
+
+    // How long a transmission waits for the analyzer to raise CTS
+    private static final long CLEAR_TO_SEND_TIMEOUT_MS = 30000;
+
+    private static final byte EOT = 0x04;
+    private static final byte ENQ = 0x05;
+    private static final byte ACK = 0x06;
+    private static final byte NAK = 0x15;
+
+    private final String owner;
+    private final LinkArbiter arbiter;
+    private final LinkResponseMonitor monitor;
+
+    /**
+     * @param owner Class name used in the log lines
+     */
+    ASTMLinkSession(LinkTransport link, String owner) {
+        this.owner = owner;
+        this.arbiter = LinkArbiter.forLink(link);
+        this.monitor = LinkResponseMonitor.forLink(link);
+    }
+
+    /**
+     * Take the line and establish the session
+     * @return false if the line stayed busy or the ENQ was not acknowledged;
+     *         the line is released again in that case
+     */
+    boolean open() throws IOException, InterruptedException {
+        if (!arbiter.beginOutbound(LinkArbiter.LINE_WAIT_TIMEOUT_MS)) {
+            log(owner + ": Line stayed busy for " + LinkArbiter.LINE_WAIT_TIMEOUT_MS + " ms");
+            return false;
+        }
+        boolean established = false;
+        try {
+            established = sendENQ();
+            if (!established) {
+                log(owner + ": Failed to establish communication with ENQ");
+                if (arbiter.holdsLine()) {
+                    arbiter.write(EOT);
+                }
+            }
+            return established;
+        } finally {
+            if (!established) {
+                arbiter.endOutbound();
+            }
+        }
+    }
+
+    /**
+     * Send ENQ and wait for the analyzer's ACK. A NAK means the analyzer is
+     * busy: wait and bid again. An ENQ in reply means both sides bid at once:
+     * yield to the analyzer and bid again afterwards.
+     */
+    private boolean sendENQ() throws IOException, InterruptedException {
+        for (int attempt = 1; attempt <= LinkResponseMonitor.MAX_FRAME_TRANSMISSIONS; attempt++) {
+            if (!waitForClearToSend()) {
+                return false;
+            }
+            monitor.arm();
+            arbiter.write(ENQ);
+            log(owner + ": Sent ENQ");
+
+            int response = monitor.awaitResponse(LinkResponseMonitor.REPLY_TIMEOUT_MS);
+            if (response == ACK) {
+                return true;
+            }
+            if (response == LinkResponseMonitor.TIMEOUT) {
+                log(owner + ": No reply to ENQ within " + LinkResponseMonitor.REPLY_TIMEOUT_MS + " ms");
+                return false;
+            }
+            if (response == LinkResponseMonitor.ENQ) {
+                // Both sides bid at once: the analyzer has priority, receive its message first
+                arbiter.yieldToInbound();
+                if (!arbiter.beginOutbound(LinkArbiter.LINE_WAIT_TIMEOUT_MS)) {
+                    log(owner + ": Line stayed busy after ENQ contention");
+                    return false;
+                }
+                continue;
+            }
+            log(owner + ": ENQ answered with " + controlName(response) + ", retrying in " + LinkResponseMonitor.ENQ_RETRY_DELAY_MS + " ms");
+            Thread.sleep(LinkResponseMonitor.ENQ_RETRY_DELAY_MS);
+        }
+        return false;
+    }
+
+    /**
+     * Send one encoded frame and wait for it to be acknowledged, retransmitting on NAK
+     */
+    boolean sendFrame(byte[] frame, int offset, int length, int frameNumber, boolean last) throws IOException, InterruptedException {
+        log(owner + ": Sending frame " + frameNumber + " (" + length + " bytes, " + (last ? "ETX" : "ETB") + ")");
+
+        for (int transmission = 1; transmission <= LinkResponseMonitor.MAX_FRAME_TRANSMISSIONS; transmission++) {
+            if (!waitForClearToSend()) {
+                return false;
+            }
+            monitor.arm();
+            arbiter.write(frame, offset, length);
+
+            int response = monitor.awaitResponse(LinkResponseMonitor.REPLY_TIMEOUT_MS);
+            if (response == ACK) {
+                return true;
+            }
+            if (response == EOT) {
+                // Receiver interrupt request; the frame itself was accepted
+                log(owner + ": Analyzer requested interrupt after frame " + frameNumber);
+                return true;
+            }
+            if (response == LinkResponseMonitor.TIMEOUT) {
+                log(owner + ": No reply to frame " + frameNumber + " within " + LinkResponseMonitor.REPLY_TIMEOUT_MS + " ms");
+                return false;
+            }
+            log(owner + ": Frame " + frameNumber + " NAKed, transmission " + transmission + " of " + LinkResponseMonitor.MAX_FRAME_TRANSMISSIONS);
+        }
+        return false;
+    }
+
+    /**
+     * End the session with EOT and release the line
+     */
+    void close() throws IOException {
+        try {
+            if (arbiter.holdsLine()) {
+                arbiter.write(EOT);
+                log(owner + ": Sent EOT");
+            }
+        } finally {
+            arbiter.endOutbound();
+        }
+    }
+
+    /**
+     * Reply statistics of the link
+     */
+    String getStatistics() {
+        return monitor.getStatistics();
+    }
+
+    /**
+     * Hold the transmission while the analyzer signals it is not ready (CTS low)
+     */
+    private boolean waitForClearToSend() throws InterruptedException {
+        if (arbiter.getLink().awaitClearToSend(CLEAR_TO_SEND_TIMEOUT_MS)) {
+            return true;
+        }
+        log(owner + ": CTS not raised within " + CLEAR_TO_SEND_TIMEOUT_MS + " ms");
+        return false;
+    }
+
+    private static String controlName(int controlByte) {
+        switch (controlByte) {
+            case ACK: return "ACK";
+            case NAK: return "NAK";
+            case EOT: return "EOT";
+            default: return String.format("0x%02X", controlByte);
+        }
+    }
+
+    private static void log(String message) {
+        LabConnectUtil.log(message);
+    }
+}
@@ -1,9 +1,9 @@
 package com.writer;
 
-import jssc.SerialPort;
-
 import java.util.List;
 
+import com.reader.DateNormalizer;
+
 /**
  * Builder class to construct ASTM messages from lab order data
  */
@@ -103,12 +103,7 @@ public class ASTMMessageBuilder {
         }
         
         // Remove any non-digit characters and ensure 8 digits
-        String digitsOnly = birthdate.replaceAll("\\D", "");
-        if (digitsOnly.length() >= 8) {
-            return digitsOnly.substring(0, 8);
-        }
-        
-        return digitsOnly;
+        return DateNormalizer.toDate(birthdate);
     }
     
     /**
@@ -139,17 +134,7 @@ public class ASTMMessageBuilder {
             return "";
         }
         
-        // Remove any non-digit characters
-        String digitsOnly = dateTime.replaceAll("\\D", "");
-        
-        // Ensure minimum 12 digits for YYYYMMDDHHMM, pad with zeros if needed
-        if (digitsOnly.length() >= 12) {
-            return digitsOnly.substring(0, Math.min(14, digitsOnly.length()));
-        } else if (digitsOnly.length() >= 8) {
-            // Add default time if only date provided
-            return digitsOnly + "1200"; // Default to 12:00
-        }
-        
-        return digitsOnly;
+        // Digits only, YYYYMMDDHHMM up to seconds; 12:00 if only a date is provided
+        return DateNormalizer.toDateTime(dateTime, 14);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,438 @@
+package com.writer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import com.reader.LabConnectUtil;
+import com.connector.SessionThreads;
+
+/**
+ * Durable queue of order acknowledgments for the LIS.
+ *
+ * The order loop only enqueues; a background worker posts the pending
+ * acknowledgments as bulk updateOrderAcknowledgement calls (one per status),
+ * so the next fetch never waits on the round trip. Acknowledgments for the
+ * same order are merged, the latest status wins, and everything still pending
+ * is kept in a file so a restart or a long LIS outage loses nothing. Failed
+ * posts are retried with exponential backoff, kept separately for success and
+ * fail acknowledgments so one status the LIS keeps rejecting does not hold
+ * back the other. An acknowledgment that fails maxAttempts posts is parked in
+ * a side file instead of blocking the queue.
+ *
+ * The queue file is a journal: enqueued acknowledgments and "done" records
+ * for delivered or parked ones are appended, and the file is rewritten with
+ * only the pending set once it grows to twice that size.
+ */
+public class AcknowledgmentQueue {
+
+    /**
+     * Posts one bulk acknowledgment
+     */
+    public interface Sender {
+        boolean send(List<LabOrderData> orders, boolean success);
+    }
+
+    public static final long DEFAULT_COALESCE_DELAY_MS = 2000;
+    public static final long INITIAL_RETRY_DELAY_MS = 5000;
+    public static final long MAX_RETRY_DELAY_MS = 300000;
+    public static final int DEFAULT_MAX_BATCH = 500;
+    public static final int DEFAULT_MAX_ATTEMPTS = 20;
+
+    private static final String SEPARATOR = "\t";
+    private static final String DONE = "done";
+
+    private final Sender sender;
+    private final File queueFile;
+    private final long coalesceDelayMs;
+    private final int maxBatch;
+    private final int maxAttempts;
+
+    // key (sampleId|investigationCode) -> pending acknowledgment, in arrival order
+    private final LinkedHashMap<String, PendingAck> pending = new LinkedHashMap<String, PendingAck>();
+    // Backoff per status, indexed by statusIndex()
+    private final long[] retryDelayMs = {INITIAL_RETRY_DELAY_MS, INITIAL_RETRY_DELAY_MS};
+    private final long[] nextAttemptTime = {0, 0};
+    private boolean lastSuccess = false;
+    private int fileLines = 0;
+    private volatile boolean running = false;
+    private Thread worker;
+
+    private long sentCount = 0;
+    private long failedAttempts = 0;
+    private long parkedCount = 0;
+
+    private static class PendingAck {
+        final LabOrderData order;
+        final boolean success;
+        int attempts = 0;
+
+        PendingAck(LabOrderData order, boolean success) {
+            this.order = order;
+            this.success = success;
+        }
+    }
+
+    /**
+     * @param maxAttempts Failed posts after which an acknowledgment is parked (0 = never)
+     */
+    public AcknowledgmentQueue(Sender sender, File queueFile, long coalesceDelayMs, int maxBatch, int maxAttempts) {
+        this.sender = sender;
+        this.queueFile = queueFile;
+        this.coalesceDelayMs = coalesceDelayMs >= 0 ? coalesceDelayMs : DEFAULT_COALESCE_DELAY_MS;
+        this.maxBatch = maxBatch > 0 ? maxBatch : DEFAULT_MAX_BATCH;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Default location: rootDrive/mednet/data/pendingAcks_[propertyFileSuffix].txt
+     */
+    public static File defaultFile() {
+        return DataWriterConfig.getDataFile("pendingAcks");
+    }
+
+    /**
+     * Where acknowledgments that kept failing are set aside, next to the queue file
+     */
+    public File getParkedFile() {
+        return queueFile != null ? new File(queueFile.getParentFile(), "parked_" + queueFile.getName()) : null;
+    }
+
+    /**
+     * Reload acknowledgments left over from the last run and start the worker
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        load();
+        compact();
+        running = true;
+        worker = SessionThreads.start("AcknowledgmentQueue", new Runnable() {
+            public void run() {
+                deliveryLoop();
+            }
+        });
+        log("AcknowledgmentQueue: Started with " + pending.size() + " pending acknowledgments");
+    }
+
+    public synchronized void stop() {
+        running = false;
+        notifyAll();
+        if (worker != null) {
+            worker.interrupt();
+        }
+        log("AcknowledgmentQueue: Stopped with " + pending.size() + " pending acknowledgments");
+    }
+
+    /**
+     * Queue acknowledgments for orders; returns without any network call
+     */
+    public synchronized void enqueue(List<LabOrderData> orders, boolean success) {
+        if (orders == null || orders.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (LabOrderData order : orders) {
+            String key = SentOrderIndex.keyOf(order);
+            pending.remove(key);
+            PendingAck ack = new PendingAck(order, success);
+            pending.put(key, ack);
+            lines.append(record(ack));
+            fileLines++;
+        }
+        append(queueFile, lines.toString());
+        notifyAll();
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long getSentCount() {
+        return sentCount;
+    }
+
+    public synchronized long getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    public synchronized long getParkedCount() {
+        return parkedCount;
+    }
+
+    private void deliveryLoop() {
+        while (running) {
+            List<PendingAck> batch;
+            boolean success;
+            try {
+                synchronized (this) {
+                    while (running && pending.isEmpty()) {
+                        wait();
+                    }
+                    if (!running) {
+                        break;
+                    }
+                    success = nextStatus();
+                    // Let acknowledgments from the same poll cycle (and any backlog) pile up into one call
+                    long wakeAt = Math.max(nextAttemptTime[statusIndex(success)], System.currentTimeMillis() + coalesceDelayMs);
+                    long now;
+                    while (running && (now = System.currentTimeMillis()) < wakeAt) {
+                        wait(wakeAt - now);
+                    }
+                    if (!running) {
+                        break;
+                    }
+                    batch = new ArrayList<PendingAck>();
+                    for (PendingAck ack : pending.values()) {
+                        if (ack.success == success) {
+                            batch.add(ack);
+                            if (batch.size() >= maxBatch) {
+                                break;
+                            }
+                        }
+                    }
+                    if (batch.isEmpty()) {
+                        // Superseded by newer acknowledgments of the other status while waiting
+                        continue;
+                    }
+                    lastSuccess = success;
+                }
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            List<LabOrderData> orders = new ArrayList<LabOrderData>(batch.size());
+            for (PendingAck ack : batch) {
+                orders.add(ack.order);
+            }
+            boolean delivered;
+            try {
+                delivered = sender.send(orders, success);
+            } catch (Exception ex) {
+                log("AcknowledgmentQueue: Error posting acknowledgments: " + ex.getMessage());
+                delivered = false;
+            }
+
+            synchronized (this) {
+                int status = statusIndex(success);
+                if (delivered) {
+                    remove(batch, null);
+                    sentCount += batch.size();
+                    retryDelayMs[status] = INITIAL_RETRY_DELAY_MS;
+                    nextAttemptTime[status] = 0;
+                    log("AcknowledgmentQueue: Delivered " + batch.size() + " acknowledgments (" + statusName(success)
+                            + "), " + pending.size() + " pending");
+                } else {
+                    failedAttempts++;
+                    nextAttemptTime[status] = System.currentTimeMillis() + retryDelayMs[status];
+                    log("AcknowledgmentQueue: Delivery of " + batch.size() + " acknowledgments (" + statusName(success)
+                            + ") failed, retrying in " + retryDelayMs[status] + " ms (" + pending.size() + " pending)");
+                    retryDelayMs[status] = Math.min(retryDelayMs[status] * 2, MAX_RETRY_DELAY_MS);
+                    park(batch);
+                }
+                if (fileLines > 2 * pending.size() + 100) {
+                    compact();
+                }
+            }
+        }
+    }
+
+    /**
+     * Status of the next batch: the one whose retry is due first, taking
+     * turns when both are due, so a failing status cannot starve the other
+     */
+    private boolean nextStatus() {
+        boolean hasSuccess = false;
+        boolean hasFail = false;
+        for (PendingAck ack : pending.values()) {
+            if (ack.success) {
+                hasSuccess = true;
+            } else {
+                hasFail = true;
+            }
+            if (hasSuccess && hasFail) {
+                break;
+            }
+        }
+        if (!hasSuccess || !hasFail) {
+            return hasSuccess;
+        }
+        long successDue = nextAttemptTime[statusIndex(true)];
+        long failDue = nextAttemptTime[statusIndex(false)];
+        if (successDue != failDue) {
+            return successDue < failDue;
+        }
+        return !lastSuccess;
+    }
+
+    /**
+     * Count a failed post against each acknowledgment of the batch and park
+     * the ones that reached maxAttempts
+     */
+    private void park(List<PendingAck> batch) {
+        if (maxAttempts <= 0) {
+            return;
+        }
+        List<PendingAck> exhausted = new ArrayList<PendingAck>();
+        for (PendingAck ack : batch) {
+            if (++ack.attempts >= maxAttempts) {
+                exhausted.add(ack);
+            }
+        }
+        if (exhausted.isEmpty()) {
+            return;
+        }
+        int parked = remove(exhausted, getParkedFile());
+        parkedCount += parked;
+        log("AcknowledgmentQueue: Parked " + parked + " acknowledgments after " + maxAttempts
+                + " failed posts in " + getParkedFile());
+    }
+
+    /**
+     * Drop acknowledgments from the pending set and journal them as done,
+     * unless a newer acknowledgment for the order arrived meanwhile
+     * @param copyTo File that also receives the removed acknowledgments (may be null)
+     * @return number removed
+     */
+    private int remove(List<PendingAck> acks, File copyTo) {
+        StringBuilder done = new StringBuilder();
+        StringBuilder copies = new StringBuilder();
+        int removed = 0;
+        for (PendingAck ack : acks) {
+            String key = SentOrderIndex.keyOf(ack.order);
+            if (pending.get(key) == ack) {
+                pending.remove(key);
+                done.append(DONE).append(SEPARATOR).append(field(ack.order.getSampleId()))
+                    .append(SEPARATOR).append(field(ack.order.getInvestigationCode())).append("\n");
+                copies.append(record(ack));
+                fileLines++;
+                removed++;
+            }
+        }
+        if (copyTo != null) {
+            append(copyTo, copies.toString());
+        }
+        append(queueFile, done.toString());
+        return removed;
+    }
+
+    private void load() {
+        pending.clear();
+        fileLines = 0;
+        if (queueFile == null || !queueFile.exists()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(queueFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR, -1);
+                fileLines++;
+                if (DONE.equals(parts[0]) && parts.length >= 3) {
+                    pending.remove(parts[1].trim() + "|" + parts[2].trim());
+                    continue;
+                }
+                if (parts.length < 5) {
+                    continue;
+                }
+                LabOrderData order = new LabOrderData();
+                order.setSampleId(parts[1]);
+                order.setInvestigationCode(parts[2]);
+                order.setMrn(parts[3]);
+                order.setAcceptanceDate(parts[4]);
+                String key = SentOrderIndex.keyOf(order);
+                pending.remove(key);
+                pending.put(key, new PendingAck(order, "success".equals(parts[0])));
+            }
+        } catch (IOException ex) {
+            log("AcknowledgmentQueue: Error reading " + queueFile + ": " + ex.getMessage());
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the pending set. The new file replaces the
+     * old one in a single atomic rename, so a crash leaves one or the other.
+     */
+    private void compact() {
+        if (queueFile == null) {
+            return;
+        }
+        File folder = queueFile.getParentFile();
+        if (folder != null && !folder.exists()) {
+            folder.mkdirs();
+        }
+        File temp = new File(queueFile.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            for (PendingAck ack : pending.values()) {
+                writer.write(record(ack));
+            }
+            writer.close();
+            writer = null;
+            Files.move(temp.toPath(), queueFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fileLines = pending.size();
+        } catch (IOException ex) {
+            log("AcknowledgmentQueue: Error compacting " + queueFile + ": " + ex.getMessage());
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private void append(File file, String lines) {
+        if (file == null || lines.isEmpty()) {
+            return;
+        }
+        Writer writer = null;
+        try {
+            File folder = file.getParentFile();
+            if (folder != null && !folder.exists()) {
+                folder.mkdirs();
+            }
+            writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+            writer.write(lines);
+        } catch (IOException ex) {
+            log("AcknowledgmentQueue: Error writing " + file + ": " + ex.getMessage());
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private static String record(PendingAck ack) {
+        return statusName(ack.success) + SEPARATOR
+                + field(ack.order.getSampleId()) + SEPARATOR
+                + field(ack.order.getInvestigationCode()) + SEPARATOR
+                + field(ack.order.getMrn()) + SEPARATOR
+                + field(ack.order.getAcceptanceDate()) + "\n";
+    }
+
+    private static String statusName(boolean success) {
+        return success ? "success" : "fail";
+    }
+
+    private static int statusIndex(boolean success) {
+        return success ? 1 : 0;
+    }
+
+    private static String field(String value) {
+        return value != null ? value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ') : "";
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+
+    private void log(String message) {
+        LabConnectUtil.log(message);
+    }
+}
@@ -0,0 +1,82 @@
+package com.writer;
+
+import com.reader.LabConnectUtil;
+
+/**
+ * Decides when the next lab order fetch runs.
+ *
+ * While fetches keep returning new orders the interval stays at the minimum;
+ * every empty fetch doubles it up to the maximum. wakeUp() (for instance when
+ * a result arrives for a sample we never sent an order for, so its order is
+ * probably waiting in the LIS) ends the current wait and drops back to the
+ * minimum interval.
+ */
+public class AdaptivePollScheduler {
+
+    public static final long DEFAULT_MIN_INTERVAL_MS = 2000;
+
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private long currentIntervalMs;
+    private boolean woken = false;
+
+    public AdaptivePollScheduler(long minIntervalMs, long maxIntervalMs) {
+        this.minIntervalMs = minIntervalMs > 0 ? minIntervalMs : DEFAULT_MIN_INTERVAL_MS;
+        this.maxIntervalMs = Math.max(this.minIntervalMs, maxIntervalMs);
+        this.currentIntervalMs = this.minIntervalMs;
+    }
+
+    /**
+     * Block until the next fetch is due or wakeUp() is called
+     */
+    public synchronized void awaitNextPoll() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + currentIntervalMs;
+        long remaining;
+        while (!woken && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+        }
+        woken = false;
+    }
+
+    /**
+     * Adjust the interval after a fetch
+     * @param newOrders Orders the fetch produced that still had to be sent
+     */
+    public synchronized void onPollResult(int newOrders) {
+        long previous = currentIntervalMs;
+        if (newOrders > 0) {
+            currentIntervalMs = minIntervalMs;
+        } else {
+            currentIntervalMs = Math.min(currentIntervalMs * 2, maxIntervalMs);
+        }
+        if (currentIntervalMs != previous) {
+            log("AdaptivePollScheduler: Poll interval " + previous + " -> " + currentIntervalMs + " ms");
+        }
+    }
+
+    /**
+     * Fetch now and return to fast polling
+     */
+    public synchronized void wakeUp(String reason) {
+        log("AdaptivePollScheduler: Fast polling, " + reason);
+        currentIntervalMs = minIntervalMs;
+        woken = true;
+        notifyAll();
+    }
+
+    /**
+     * Run the next fetch now without changing the interval (pushed orders are waiting)
+     */
+    public synchronized void trigger() {
+        woken = true;
+        notifyAll();
+    }
+
+    public synchronized long getCurrentInterval() {
+        return currentIntervalMs;
+    }
+
+    private void log(String message) {
+        LabConnectUtil.log(message);
+    }
+}
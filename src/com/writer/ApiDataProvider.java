@@ -1,8 +1,9 @@
 package com.writer;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import com.reader.LabConnectUtil;
-import jssc.SerialPort;
+import com.connector.LinkTransport;
 
 /**
  * Data provider that fetches lab orders from REST API
@@ -14,6 +15,9 @@ public class ApiDataProvider implements DataProvider {
     private String companyId;
     private long lastFetchTime;
     private long fetchIntervalMs;
+    private final ConcurrentLinkedQueue<LabOrderData> pushedOrders = new ConcurrentLinkedQueue<LabOrderData>();
+    private OrderFanOut fanOut;
+    private OfflineOrderCache offlineCache;
     
     public ApiDataProvider() {
         this.apiService = new LabOrderApiService();
@@ -44,15 +48,79 @@ public class ApiDataProvider implements DataProvider {
         this.fetchIntervalMs = intervalMs;
     }
     
+    /**
+     * Fetch the orders of other analyzers in the same request and forward them (null fetches only this analyzer)
+     */
+    public void setFanOut(OrderFanOut fanOut) {
+        this.fanOut = fanOut;
+        if (fanOut != null) {
+            log("ApiDataProvider: Fetching orders for " + fanOut.getMachineCodes());
+        }
+    }
+    
+    /**
+     * Keep fetched orders in this cache and serve them while the API is unreachable (null for no cache)
+     */
+    public void setOfflineCache(OfflineOrderCache offlineCache) {
+        this.offlineCache = offlineCache;
+        if (offlineCache != null) {
+            log("ApiDataProvider: Offline order cache holds " + offlineCache.size() + " unsent orders");
+        }
+    }
+    
+    /**
+     * Queue orders pushed by the LIS in the getLabOrderRequests response format
+     * @return number of orders queued, -1 if the body is not a valid response
+     */
+    public int pushOrderResponse(String jsonResponse) {
+        List<LabOrderData> orders = apiService.parseLabOrderResponse(jsonResponse);
+        if (orders == null) {
+            return -1;
+        }
+        pushedOrders.addAll(orders);
+        if (offlineCache != null) {
+            offlineCache.putAll(orders);
+        }
+        return orders.size();
+    }
+    
+    /**
+     * Whether pushed orders are waiting; the next getLabOrderData returns them without calling the API
+     */
+    public boolean hasPushedOrders() {
+        return !pushedOrders.isEmpty();
+    }
+    
     @Override
-    public List<LabOrderData> getLabOrderData(SerialPort serialPort) {
+    public List<LabOrderData> getLabOrderData(LinkTransport link) {
+        if (!pushedOrders.isEmpty()) {
+            List<LabOrderData> pushed = new ArrayList<LabOrderData>();
+            LabOrderData order;
+            while ((order = pushedOrders.poll()) != null) {
+                pushed.add(order);
+            }
+            log("ApiDataProvider: Taking " + pushed.size() + " pushed lab orders");
+            return pushed;
+        }
         try {
             log("ApiDataProvider: Fetching lab orders from API...");
-            List<LabOrderData> labOrders = apiService.fetchLabOrderRequests(machineCode, companyId);
+            List<LabOrderData> labOrders = fanOut != null
+                ? apiService.fetchLabOrderRequests(fanOut.getMachineCodes(), companyId)
+                : apiService.fetchLabOrderRequests(machineCode, companyId);
             
             // Update last fetch time regardless of result
             lastFetchTime = System.currentTimeMillis();
             
+            if (labOrders != null && fanOut != null) {
+                labOrders = fanOut.route(labOrders);
+            }
+            
+            if (labOrders != null && offlineCache != null) {
+                // The LIS lists every unsent order, so anything cached but not listed is gone
+                offlineCache.putAll(labOrders);
+                offlineCache.retain(keysOf(labOrders));
+            }
+            
             if (labOrders != null) {
                 if (labOrders.isEmpty()) {
                     log("ApiDataProvider: No lab orders available at this time");
@@ -62,14 +130,92 @@ public class ApiDataProvider implements DataProvider {
                 return labOrders;
             } else {
                 log("ApiDataProvider: Failed to fetch lab orders - API communication error");
-                return new ArrayList<LabOrderData>();
+                return cachedOrders();
             }
             
         } catch (Exception ex) {
             log("ApiDataProvider: Exception while fetching lab orders: " + ex.getMessage());
             lastFetchTime = System.currentTimeMillis(); // Still update fetch time to avoid rapid retries
+            return cachedOrders();
+        }
+    }
+    
+    /**
+     * Orders from the offline cache while the API is unreachable, empty without a cache
+     */
+    private List<LabOrderData> cachedOrders() {
+        if (offlineCache == null || offlineCache.size() == 0) {
             return new ArrayList<LabOrderData>();
         }
+        List<LabOrderData> cached = offlineCache.getOrders();
+        log("ApiDataProvider: API unavailable, serving " + cached.size() + " orders from the offline cache");
+        return cached;
+    }
+    
+    private static Set<String> keysOf(List<LabOrderData> orders) {
+        Set<String> keys = new HashSet<String>();
+        for (LabOrderData order : orders) {
+            keys.add(SentOrderIndex.keyOf(order));
+        }
+        return keys;
+    }
+    
+    /**
+     * Fetch lab orders from the API and hand them to the handler in chunks while
+     * the response is still downloading
+     * @return number of orders handed over, or -1 if the fetch failed or was stopped
+     */
+    public int fetchLabOrderData(int chunkSize, final LabOrderResponseParser.ChunkHandler handler) {
+        log("ApiDataProvider: Fetching lab orders from API in chunks of " + chunkSize + "...");
+        List<String> machineCodes = fanOut != null ? fanOut.getMachineCodes() : Arrays.asList(machineCode);
+        final boolean[] received = { false };
+        // Keys of the local orders listed, to drop cached orders the LIS no longer has
+        final Set<String> listed = new HashSet<String>();
+        LabOrderResponseParser.ChunkHandler chunkHandler = new LabOrderResponseParser.ChunkHandler() {
+            public boolean onChunk(List<LabOrderData> chunk) throws Exception {
+                received[0] = true;
+                List<LabOrderData> local = fanOut != null ? fanOut.route(chunk) : chunk;
+                if (local.isEmpty()) {
+                    return true;
+                }
+                if (offlineCache != null) {
+                    offlineCache.putAll(local);
+                    listed.addAll(keysOf(local));
+                }
+                return handler.onChunk(local);
+            }
+        };
+        int count = apiService.fetchLabOrderRequests(machineCodes, companyId, chunkSize, chunkHandler);
+        lastFetchTime = System.currentTimeMillis();
+        if (count >= 0 && offlineCache != null) {
+            offlineCache.retain(listed);
+        } else if (count < 0 && !received[0]) {
+            // Nothing came from the API: hand over the cached orders instead
+            return handCachedOrders(chunkSize, handler);
+        }
+        return count;
+    }
+    
+    /**
+     * Hand the offline cache to a chunk handler as if it had been fetched
+     * @return number of orders handed over, -1 if there are none or the handler stopped
+     */
+    private int handCachedOrders(int chunkSize, LabOrderResponseParser.ChunkHandler handler) {
+        List<LabOrderData> cached = cachedOrders();
+        if (cached.isEmpty()) {
+            return -1;
+        }
+        try {
+            for (int from = 0; from < cached.size(); from += chunkSize) {
+                if (!handler.onChunk(new ArrayList<LabOrderData>(cached.subList(from, Math.min(from + chunkSize, cached.size()))))) {
+                    return -1;
+                }
+            }
+        } catch (Exception ex) {
+            log("ApiDataProvider: Error handing over cached orders: " + ex.getMessage());
+            return -1;
+        }
+        return cached.size();
     }
     
     @Override
@@ -110,6 +256,9 @@ public class ApiDataProvider implements DataProvider {
     
     @Override
     public boolean hasDataAvailable() {
+        if (!pushedOrders.isEmpty()) {
+            return true;
+        }
         // Check if enough time has passed since last fetch
         long currentTime = System.currentTimeMillis();
         boolean shouldFetch = (currentTime - lastFetchTime) >= fetchIntervalMs;
@@ -1,6 +1,6 @@
 package com.writer;
 
-import jssc.SerialPort;
+import com.connector.LinkTransport;
 
 import java.util.List;
 
@@ -14,7 +14,7 @@ public interface DataProvider {
      * Fetch available lab order data
      * @return List of lab order data, or empty list if no data available
      */
-    List<LabOrderData> getLabOrderData(SerialPort serialPort);
+    List<LabOrderData> getLabOrderData(LinkTransport link);
     
     /**
      * Acknowledge processing of lab orders
@@ -1,8 +1,8 @@
 package com.writer;
 
+import java.io.IOException;
 import java.util.List;
-import jssc.SerialPort;
-import jssc.SerialPortException;
+import com.connector.LinkTransport;
 import com.reader.LabConnectUtil;
 
 /**
@@ -11,6 +11,7 @@ import com.reader.LabConnectUtil;
 public class DataWriter {
     
     private boolean isConnected = false;
+    private final ASTMFrameEncoder frameEncoder;
     
     // ASTM Protocol Control Characters
     private static final byte STX = 0x02;  // Start of Text
@@ -24,6 +25,14 @@ public class DataWriter {
     private static final byte CR = 0x0D;   // Carriage Return
     
     public DataWriter() {
+        this(ASTMFrameEncoder.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param maxFrameSize Largest frame in bytes, longer records are split into ETB frames
+     */
+    public DataWriter(int maxFrameSize) {
+        this.frameEncoder = new ASTMFrameEncoder(maxFrameSize);
     }
 
     
@@ -32,8 +41,8 @@ public class DataWriter {
      * @param astmMessage Complete ASTM message
      * @return true if message sent successfully
      */
-    public boolean sendASTMMessage(ASTMMessage astmMessage, SerialPort serialPort) {
-        if (serialPort == null) {
+    public boolean sendASTMMessage(ASTMMessage astmMessage, LinkTransport link) {
+        if (link == null) {
             log("DataWriter: Port not found");
             return false;
         }
@@ -53,127 +62,57 @@ public class DataWriter {
             }
             
             log("DataWriter: Starting ASTM transmission with " + astmStrings.size() + " records");
+            final ASTMLinkSession session = new ASTMLinkSession(link, "DataWriter");
+            ASTMFrameEncoder.FrameSink frameSink = new ASTMFrameEncoder.FrameSink() {
+                public boolean sendFrame(byte[] frame, int length, int frameNumber, boolean last) throws IOException, InterruptedException {
+                    return session.sendFrame(frame, 0, length, frameNumber, last);
+                }
+            };
             
-            // Start transmission with ENQ
-            if (!sendENQ(serialPort)) {
-                log("DataWriter: Failed to establish communication with ENQ");
+            // Wait until the analyzer is not sending to us, then start with ENQ
+            if (!session.open()) {
                 return false;
             }
-            
-            // Send each ASTM record
-            for (int i = 0; i < astmStrings.size(); i++) {
-                String astmString = astmStrings.get(i);
-                log("DataWriter: Sending record " + (i + 1) + ": " + astmString);
-                
-                if (!sendASTMRecord(astmString, i + 1, serialPort)) {
-                    log("DataWriter: Failed to send record " + (i + 1));
-                    return false;
+            try {
+                // Send each ASTM record, frame numbers continue across records
+                frameEncoder.reset();
+                for (int i = 0; i < astmStrings.size(); i++) {
+                    String astmString = astmStrings.get(i);
+                    log("DataWriter: Sending record " + (i + 1) + ": " + astmString);
+                    
+                    if (!frameEncoder.encodeRecord(astmString, frameSink)) {
+                        log("DataWriter: Failed to send record " + (i + 1));
+                        return false;
+                    }
                 }
+            } finally {
+                // End transmission with EOT
+                session.close();
             }
             
-            // End transmission with EOT
-            if (!sendEOT(serialPort)) {
-                log("DataWriter: Failed to end transmission with EOT");
-                return false;
-            }
-            
-            log("DataWriter: ASTM transmission completed successfully");
+            log("DataWriter: ASTM transmission completed successfully (" + session.getStatistics() + ")");
             return true;
             
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log("DataWriter: ASTM transmission interrupted");
+            return false;
         } catch (Exception ex) {
             log("DataWriter: Error during ASTM transmission: " + ex.getMessage());
             return false;
         }
     }
     
-    /**
-     * Send ENQ (Enquiry) to establish communication
-     */
-    private boolean sendENQ(SerialPort serialPort) throws SerialPortException {
-        serialPort.writeByte(ENQ);
-        log("DataWriter: Sent ENQ");
-        
-        // Wait for ACK response (simplified - in real implementation, should have timeout)
-        try {
-            Thread.sleep(100); // Give time for response
-        } catch (InterruptedException e) {
-            // Continue
-        }
-        
-        return true; // Simplified - should check for ACK response
-    }
-    
-    /**
-     * Send individual ASTM record
-     * @param astmRecord ASTM formatted record string
-     * @param frameNumber Frame number for the record
-     */
-    private boolean sendASTMRecord(String astmRecord, int frameNumber, SerialPort serialPort) throws SerialPortException {
-        // Calculate frame number (0-7, cycling)
-        int frame = frameNumber % 8;
-        
-        // Create complete frame: STX + frame + astmRecord + ETX + checksum + CR + LF
-        StringBuilder frameBuilder = new StringBuilder();
-        frameBuilder.append((char) STX);
-        frameBuilder.append(frame);
-        frameBuilder.append(astmRecord);
-        frameBuilder.append((char) ETX);
-        
-        // Calculate checksum
-        String frameContent = frame + astmRecord + (char) ETX;
-        int checksum = calculateChecksum(frameContent);
-        frameBuilder.append(String.format("%02X", checksum));
-        frameBuilder.append((char) CR);
-        frameBuilder.append((char) LF);
-        
-        String completeFrame = frameBuilder.toString();
-        log("DataWriter: Sending frame: " + completeFrame.replace("\r", "\\r").replace("\n", "\\n"));
-        
-        // Send frame
-        serialPort.writeBytes(completeFrame.getBytes());
-        
-        // Wait for ACK (simplified)
-        try {
-            Thread.sleep(100);
-        } catch (InterruptedException e) {
-            // Continue
-        }
-        
-        return true; // Simplified - should check for ACK response
-    }
-    
-    /**
-     * Send EOT (End of Transmission)
-     */
-    private boolean sendEOT(SerialPort serialPort) throws SerialPortException {
-        serialPort.writeByte(EOT);
-        log("DataWriter: Sent EOT");
-        return true;
-    }
-    
-    /**
-     * Calculate ASTM checksum
-     * @param data Data to calculate checksum for
-     * @return Checksum value
-     */
-    private int calculateChecksum(String data) {
-        int checksum = 0;
-        for (char c : data.toCharArray()) {
-            checksum += (int) c;
-        }
-        return checksum & 0xFF; // Keep only the lower 8 bits
-    }
-    
     /**
      * Close serial port connection
      */
-    public void closeConnection(SerialPort serialPort) {
-        if (serialPort != null && isConnected) {
+    public void closeConnection(LinkTransport link) {
+        if (link != null && isConnected) {
             try {
-                serialPort.closePort();
+                link.close();
                 isConnected = false;
                 log("DataWriter: Port closed successfully");
-            } catch (SerialPortException ex) {
+            } catch (IOException ex) {
                 log("DataWriter: Error closing port: " + ex.getMessage());
             }
         }
@@ -3,6 +3,8 @@ package com.writer;
 import java.io.*;
 import java.util.*;
 
+import com.connector.TenantBundle;
+
 /**
  * Configuration class for ASTM Data Writer
  * Loads configuration from ResourceBundle following the same pattern as DataReader
@@ -11,6 +13,8 @@ public class DataWriterConfig {
     
     public ResourceBundle bundle;
     private String configFilePath;
+    // Tenant this configuration belongs to, null for the service's own analyzer
+    private String tenant;
 
     // Default configuration values
     private static final int DEFAULT_BAUD_RATE = 9600;
@@ -58,6 +62,36 @@ public class DataWriterConfig {
         }
     }
 
+    /**
+     * Configuration of a tenant listed in the tenants property: tenant.key
+     * values override the shared ones (see TenantBundle)
+     */
+    public DataWriterConfig forTenant(String tenant) {
+        DataWriterConfig tenantConfig = new DataWriterConfig();
+        tenantConfig.configFilePath = configFilePath;
+        tenantConfig.bundle = new TenantBundle(bundle, tenant);
+        tenantConfig.tenant = tenant;
+        return tenantConfig;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    /**
+     * Names of the extra tenants served by this process
+     */
+    public List<String> getTenantNames() {
+        return bundle != null ? TenantBundle.tenantNames(bundle) : new ArrayList<String>();
+    }
+
+    /**
+     * File for this configuration's writer state; tenants get their own files
+     */
+    public File getStateFile(String prefix) {
+        return getDataFile(tenant == null ? prefix : prefix + "_" + tenant);
+    }
+
     /**
      * Create a default configuration file for reference
      */
@@ -157,6 +191,177 @@ public class DataWriterConfig {
         return getIntProperty("maxFrameSize", 1024);
     }
 
+    /**
+     * Worklist format on the wire: "astm" (ENQ/ACK handshake, acknowledged
+     * maxFrameSize frames) or "legacy" (one unacknowledged write per session)
+     */
+    public boolean isAstmFraming() {
+        return !"legacy".equalsIgnoreCase(getStringProperty("writerProtocol", "astm"));
+    }
+
+    /**
+     * Skip orders already sent unchanged (persistent sent-orders index, off by default)
+     */
+    public boolean isSentOrderIndexEnabled() {
+        return getBooleanProperty("sentOrderIndexEnabled", false);
+    }
+
+    /**
+     * Sent-orders index file, empty for rootDrive/mednet/data/sentOrders_[suffix].txt
+     */
+    public String getSentOrderIndexFile() {
+        return getStringProperty("sentOrderIndexFile", "");
+    }
+
+    /**
+     * Days an order stays in the sent-orders index
+     */
+    public int getSentOrderRetentionDays() {
+        return getIntProperty("sentOrderRetentionDays", SentOrderIndex.DEFAULT_RETENTION_DAYS);
+    }
+
+    /**
+     * Fetch orders on an adaptive schedule between pollMinInterval and pollMaxInterval (off by default)
+     */
+    public boolean isAdaptivePolling() {
+        return getBooleanProperty("adaptivePolling", false);
+    }
+
+    /**
+     * Shortest adaptive interval, defaults to pollingInterval so the LIS is never polled faster than configured
+     */
+    public long getPollMinInterval() {
+        return getLongProperty("pollMinInterval", getPollingInterval());
+    }
+
+    /**
+     * Longest adaptive interval, defaults to pollingInterval
+     */
+    public long getPollMaxInterval() {
+        return getLongProperty("pollMaxInterval", getPollingInterval());
+    }
+
+    /**
+     * Accept orders pushed by the LIS over HTTP
+     */
+    public boolean isPushEnabled() {
+        return getBooleanProperty("pushEnabled", false);
+    }
+
+    public String getPushBindAddress() {
+        return getStringProperty("pushBindAddress", "127.0.0.1");
+    }
+
+    public int getPushPort() {
+        return getIntProperty("pushPort", OrderPushServer.DEFAULT_PORT);
+    }
+
+    public String getPushPath() {
+        return getStringProperty("pushPath", OrderPushServer.DEFAULT_PATH);
+    }
+
+    /**
+     * API_KEY header value required on pushes, empty to accept any
+     */
+    public String getPushApiKey() {
+        return getStringProperty("pushApiKey", "");
+    }
+
+    /**
+     * Analyzers whose orders this process fetches and forwards to their own
+     * process: fanOutTargets=B122=http://127.0.0.1:8090/orders,B123=http://...
+     */
+    public Map<String, String> getFanOutTargets() {
+        return getCodeMap("fanOutTargets");
+    }
+
+    /**
+     * API_KEY sent to each fan-out target's push endpoint:
+     * fanOutApiKeys=B122=key1,B123=key2. Targets not listed get pushApiKey.
+     */
+    public Map<String, String> getFanOutApiKeys() {
+        return getCodeMap("fanOutApiKeys");
+    }
+
+    /**
+     * A "machineCode=value,..." property as a map
+     */
+    private Map<String, String> getCodeMap(String key) {
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for (String entry : getStringProperty(key, "").split(",")) {
+            int separator = entry.indexOf('=');
+            if (separator > 0 && separator < entry.length() - 1) {
+                values.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Interval of the reconciliation poll while push is enabled
+     */
+    public long getPushReconcileInterval() {
+        return getLongProperty("pushReconcileInterval", 300000);
+    }
+
+    /**
+     * Post order acknowledgments from a durable background queue (off by default)
+     */
+    public boolean isAckQueueEnabled() {
+        return getBooleanProperty("ackQueueEnabled", false);
+    }
+
+    /**
+     * How long acknowledgments are collected before one bulk post
+     */
+    public long getAckCoalesceDelay() {
+        return getLongProperty("ackCoalesceDelay", AcknowledgmentQueue.DEFAULT_COALESCE_DELAY_MS);
+    }
+
+    /**
+     * Orders per bulk acknowledgment post
+     */
+    public int getAckMaxBatch() {
+        return getIntProperty("ackMaxBatch", AcknowledgmentQueue.DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * Failed posts after which an acknowledgment is parked (0 = retry forever)
+     */
+    public int getAckMaxAttempts() {
+        return getIntProperty("ackMaxAttempts", AcknowledgmentQueue.DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Orders sent inside one link session; 0 sends every order in its own session
+     */
+    public int getWorklistBatchSize() {
+        return getIntProperty("worklistBatchSize", 0);
+    }
+
+    /**
+     * Capacity of the queues between the fetch, encode, transmit and ack stages;
+     * 0 runs them one after another on the polling thread
+     */
+    public int getPipelineQueueCapacity() {
+        return getIntProperty("pipelineQueueCapacity", 0);
+    }
+
+    /**
+     * Wait after which a queued routine order goes ahead of STAT orders
+     */
+    public long getPriorityAgingTime() {
+        return getLongProperty("priorityAgingTime", OrderPriorityQueue.DEFAULT_AGING_MS);
+    }
+
+    /**
+     * Orders parsed, sent and acknowledged per chunk while a fetch is still
+     * downloading; 0 fetches the whole response before sending
+     */
+    public int getFetchChunkSize() {
+        return getIntProperty("fetchChunkSize", 0);
+    }
+
     public String getMessageEncoding() {
         return getStringProperty("messageEncoding", "ASCII");
     }
@@ -254,6 +459,27 @@ public class DataWriterConfig {
         return getBooleanProperty("verifySSLCertificates", true);
     }
 
+    /**
+     * Keep fetched but unsent orders on disk and serve them while the LIS is unreachable (off by default)
+     */
+    public boolean isOfflineCacheEnabled() {
+        return getBooleanProperty("offlineCacheEnabled", false);
+    }
+
+    /**
+     * Most orders kept in the offline cache; the ones accepted longest ago are evicted first
+     */
+    public int getOfflineCacheMaxOrders() {
+        return getIntProperty("offlineCacheMaxOrders", OfflineOrderCache.DEFAULT_MAX_ORDERS);
+    }
+
+    /**
+     * Days after its acceptanceDate an order is dropped from the offline cache
+     */
+    public int getOfflineCacheRetentionDays() {
+        return getIntProperty("offlineCacheRetentionDays", OfflineOrderCache.DEFAULT_RETENTION_DAYS);
+    }
+
     public String getSSLTruststorePath() {
         return getStringProperty("sslTruststorePath", "");
     }
@@ -262,6 +488,22 @@ public class DataWriterConfig {
         return getStringProperty("sslTruststorePassword", "");
     }
 
+    /**
+     * File for writer state kept across restarts: rootDrive/mednet/data/[prefix]_[propertyFileSuffix].txt
+     */
+    public static File getDataFile(String prefix) {
+        String rootDrive = "D://";
+        if (System.getProperty("rootDrive") != null) {
+            rootDrive = System.getProperty("rootDrive");
+        }
+        String propertyFileSuffix = "VITEK2COMPACT";
+        if (System.getProperty("propertyFileSuffix") != null) {
+            propertyFileSuffix = System.getProperty("propertyFileSuffix");
+        }
+        return new File(rootDrive + File.separator + "mednet" + File.separator + "data" + File.separator
+                + prefix + "_" + propertyFileSuffix + ".txt");
+    }
+
     // Utility methods for type conversion with ResourceBundle support
     private String getStringProperty(String key, String defaultValue) {
         try {
@@ -303,7 +545,8 @@ public class DataWriterConfig {
     public String getConfigurationSummary() {
         try {
             StringBuilder summary = new StringBuilder();
-            summary.append("ASTM Data Writer Configuration:\n");
+            summary.append("ASTM Data Writer Configuration")
+                   .append(tenant != null ? " (tenant " + tenant + ")" : "").append(":\n");
 
             if (bundle != null) {
                 // Use ResourceBundle values if available
@@ -340,6 +583,20 @@ public class DataWriterConfig {
             summary.append("- Read Timeout: ").append(getReadTimeout()).append(" ms\n");
             summary.append("- Max Retry Attempts: ").append(getMaxRetryAttempts()).append("\n");
             summary.append("- Max Frame Size: ").append(getMaxFrameSize()).append(" bytes\n");
+            summary.append("- Writer Protocol: ").append(isAstmFraming() ? "astm" : "legacy").append("\n");
+            summary.append("- Worklist Batch Size: ").append(getWorklistBatchSize()).append("\n");
+            summary.append("- Fetch Chunk Size: ").append(getFetchChunkSize()).append("\n");
+            summary.append("- Pipeline Queue Capacity: ").append(getPipelineQueueCapacity()).append("\n");
+            summary.append("- Priority Aging Time: ").append(getPriorityAgingTime()).append(" ms\n");
+            summary.append("- Sent Order Index: ").append(isSentOrderIndexEnabled()).append("\n");
+            summary.append("- Offline Order Cache: ").append(isOfflineCacheEnabled() ? getOfflineCacheMaxOrders() + " orders, " + getOfflineCacheRetentionDays() + " days" : "false").append("\n");
+            summary.append("- Acknowledgment Queue: ").append(isAckQueueEnabled()).append("\n");
+            summary.append("- Adaptive Polling: ").append(isAdaptivePolling()).append("\n");
+            summary.append("- Fan-out Targets: ").append(getFanOutTargets().keySet()).append("\n");
+            if (tenant == null) {
+                summary.append("- Tenants: ").append(getTenantNames()).append("\n");
+            }
+            summary.append("- Order Push: ").append(isPushEnabled() ? getPushBindAddress() + ":" + getPushPort() + getPushPath() : "false").append("\n");
             summary.append("- Message Encoding: ").append(getMessageEncoding()).append("\n");
             summary.append("- Use SSL: ").append(isUseSSL()).append("\n");
             summary.append("- Result Endpoint: ").append(getResultEndpoint()).append("\n");
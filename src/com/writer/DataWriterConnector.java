@@ -3,7 +3,10 @@ package com.writer;
 import java.io.*;
 import java.util.*;
 import com.reader.LabConnectUtil;
-import jssc.SerialPort;
+import com.reader.MachineCodeForSampleID;
+import com.reader.MachineReadData;
+import com.connector.LinkTransport;
+import com.connector.SessionThreads;
 
 /**
  * Main connector that orchestrates the complete RS232 data writing flow:
@@ -22,6 +25,16 @@ public class DataWriterConnector {
     private int stopBits;
     private int parity;
     private long pollingIntervalMs;
+    private int worklistBatchSize;
+    private int fetchChunkSize;
+    private int pipelineQueueCapacity;
+    private long priorityAgingMs = OrderPriorityQueue.DEFAULT_AGING_MS;
+    private OrderPipeline orderPipeline;
+    private SentOrderIndex sentOrderIndex;
+    private OfflineOrderCache offlineCache;
+    private AcknowledgmentQueue acknowledgmentQueue;
+    private AdaptivePollScheduler pollScheduler;
+    private int lastNewOrderCount;
     private boolean isRunning;
     
     public DataWriterConnector() {
@@ -67,10 +80,108 @@ public class DataWriterConnector {
         log("DataWriterConnector: Polling interval set to " + intervalMs + " ms");
     }
     
+    /**
+     * Only send orders that are new or changed since they were last sent (null sends everything)
+     */
+    public void setSentOrderIndex(SentOrderIndex sentOrderIndex) {
+        this.sentOrderIndex = sentOrderIndex;
+    }
+    
+    /**
+     * Drop orders from this offline cache once they reach the analyzer (null for no cache)
+     */
+    public void setOfflineCache(OfflineOrderCache offlineCache) {
+        this.offlineCache = offlineCache;
+    }
+    
+    /**
+     * Post order acknowledgments in the background through this queue (null posts them inline)
+     */
+    public void setAcknowledgmentQueue(AcknowledgmentQueue acknowledgmentQueue) {
+        this.acknowledgmentQueue = acknowledgmentQueue;
+    }
+    
+    /**
+     * Schedule order fetches adaptively instead of every polling interval (null for the fixed interval)
+     */
+    public void setPollScheduler(AdaptivePollScheduler pollScheduler) {
+        this.pollScheduler = pollScheduler;
+    }
+    
+    /**
+     * A result came in from the analyzer: if we never sent an order for its
+     * sample, the order is probably waiting in the LIS, so fetch right away.
+     * Without the sent order index there is no telling, so no early fetch.
+     */
+    public void onResultReceived(MachineReadData machineReadData) {
+        if (pollScheduler == null || sentOrderIndex == null || machineReadData == null
+                || machineReadData.getMachineCodeForSampleList() == null) {
+            return;
+        }
+        for (MachineCodeForSampleID sample : machineReadData.getMachineCodeForSampleList()) {
+            if (!sentOrderIndex.containsSample(sample.getSampleID())) {
+                pollScheduler.wakeUp("result for sample " + sample.getSampleID() + " without a sent order");
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Send and acknowledge API orders in chunks of this size while the fetch is
+     * still downloading; 0 fetches the whole response first
+     */
+    public void setFetchChunkSize(int fetchChunkSize) {
+        this.fetchChunkSize = fetchChunkSize;
+        log("DataWriterConnector: Fetch chunk size set to " + fetchChunkSize);
+    }
+    
+    /**
+     * Orders were pushed into the data provider: process them now
+     */
+    public void onOrdersPushed(int count) {
+        if (pollScheduler != null) {
+            pollScheduler.trigger();
+        }
+    }
+    
+    /**
+     * Run fetch, encode, transmit and acknowledgment as concurrent stages joined
+     * by queues of this capacity (0 runs them one after another on the polling thread)
+     */
+    public void setPipelineQueueCapacity(int pipelineQueueCapacity) {
+        this.pipelineQueueCapacity = pipelineQueueCapacity;
+        log("DataWriterConnector: Pipeline queue capacity set to " + pipelineQueueCapacity);
+    }
+    
+    /**
+     * Time after which a waiting routine order goes ahead of STAT orders
+     */
+    public void setPriorityAging(long priorityAgingMs) {
+        this.priorityAgingMs = priorityAgingMs;
+    }
+    
+    /**
+     * Worklist format on the wire; call before start()
+     * @param maxFrameSize Largest ASTM frame in bytes, longer segments are split into ETB frames
+     * @param astmFraming true for the ENQ/ACK handshake with acknowledged frames, false for the legacy format
+     */
+    public void setFraming(int maxFrameSize, boolean astmFraming) {
+        this.rs232DataWriter = new RS232DataWriter(maxFrameSize, astmFraming);
+        log("DataWriterConnector: " + (astmFraming ? "ASTM frames of up to " + maxFrameSize + " bytes" : "Legacy worklist format"));
+    }
+    
+    /**
+     * Send up to this many orders per link session (0 = one session per order)
+     */
+    public void setWorklistBatchSize(int worklistBatchSize) {
+        this.worklistBatchSize = worklistBatchSize;
+        log("DataWriterConnector: Worklist batch size set to " + worklistBatchSize);
+    }
+    
     /**
      * Start the connector - begins polling for lab orders and processing them
      */
-    public void start(SerialPort serialPort) {
+    public void start(LinkTransport link) {
         if (isRunning) {
             log("DataWriterConnector: Already running");
             return;
@@ -80,16 +191,28 @@ public class DataWriterConnector {
 
         
         isRunning = true;
+        if (acknowledgmentQueue != null) {
+            acknowledgmentQueue.start();
+        }
+        if (pipelineQueueCapacity > 0) {
+            orderPipeline = new OrderPipeline(rs232DataWriter, link, worklistBatchSize, pipelineQueueCapacity, priorityAgingMs,
+                new OrderPipeline.Acknowledger() {
+                    public void onSessionComplete(List<LabOrderData> orders, boolean success) {
+                        completeTransmission(orders, generateMessageId(), success);
+                    }
+                });
+            orderPipeline.start();
+        }
         log("DataWriterConnector: Started successfully");
         
         // Start the main processing loop
-        startProcessingLoop(serialPort);
+        startProcessingLoop(link);
     }
     
     /**
      * Stop the connector
      */
-    public void stop(SerialPort serialPort) {
+    public void stop(LinkTransport link) {
         if (!isRunning) {
             log("DataWriterConnector: Not running");
             return;
@@ -97,9 +220,16 @@ public class DataWriterConnector {
         
         log("DataWriterConnector: Stopping...");
         isRunning = false;
+        if (orderPipeline != null) {
+            orderPipeline.stop();
+            orderPipeline = null;
+        }
+        if (acknowledgmentQueue != null) {
+            acknowledgmentQueue.stop();
+        }
         
         // Close serial port connection
-        rs232DataWriter.closeConnection(serialPort);
+        rs232DataWriter.closeConnection(link);
         
         log("DataWriterConnector: Stopped");
     }
@@ -108,8 +238,9 @@ public class DataWriterConnector {
      * Process lab orders once (for manual triggering)
      * @return true if processing completed successfully
      */
-    public boolean processLabOrders(SerialPort serialPort) {
+    public boolean processLabOrders(LinkTransport link) {
         log("DataWriterConnector: Processing lab orders...");
+        lastNewOrderCount = 0;
         
         try {
             // Check if data provider is configured
@@ -118,8 +249,13 @@ public class DataWriterConnector {
                 return false;
             }
             
+            if (fetchChunkSize > 0 && dataProvider instanceof ApiDataProvider
+                    && !((ApiDataProvider) dataProvider).hasPushedOrders()) {
+                return processLabOrdersInChunks(link, (ApiDataProvider) dataProvider);
+            }
+            
             // Step 1: Get lab order data from provider
-            List<LabOrderData> labOrderDataList = dataProvider.getLabOrderData(serialPort);
+            List<LabOrderData> labOrderDataList = dataProvider.getLabOrderData(link);
             
             if (labOrderDataList == null) {
                 log("DataWriterConnector: Failed to get lab order data from provider");
@@ -133,53 +269,97 @@ public class DataWriterConnector {
             
             log("DataWriterConnector: Retrieved " + labOrderDataList.size() + " lab orders");
             
+            return sendOrders(labOrderDataList, link, false);
+            
+        } catch (Exception ex) {
+            log("DataWriterConnector: Error during processing: " + ex.getMessage());
+            ex.printStackTrace();
+            sendFailureAcknowledgment("UNKNOWN", "Processing error: " + ex.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Send and acknowledge each chunk of a large fetch before the next one is
+     * parsed, so the first orders reach the analyzer while the rest are still
+     * downloading and only one chunk is held in memory. A failed chunk stops the
+     * fetch; its orders get a failure acknowledgment and the rest come again
+     * with the next poll.
+     */
+    private boolean processLabOrdersInChunks(final LinkTransport link, ApiDataProvider apiProvider) {
+        final boolean[] allSent = { true };
+        int count = apiProvider.fetchLabOrderData(fetchChunkSize, new LabOrderResponseParser.ChunkHandler() {
+            public boolean onChunk(List<LabOrderData> chunk) {
+                log("DataWriterConnector: Retrieved chunk of " + chunk.size() + " lab orders");
+                allSent[0] = sendOrders(chunk, link, true);
+                return allSent[0];
+            }
+        });
+        if (count < 0) {
+            log("DataWriterConnector: " + (allSent[0] ? "Failed to get lab order data from provider" : "Chunked fetch stopped after a failed transmission"));
+            return false;
+        }
+        if (count == 0) {
+            log("DataWriterConnector: No lab orders to process");
+        }
+        return true;
+    }
+    
+    /**
+     * Send one list of orders to the analyzer and acknowledge it (steps 2-5)
+     * @param wholeChunk Wait for the pipeline to send and acknowledge these
+     *        orders, instead of returning once they are queued
+     */
+    private boolean sendOrders(List<LabOrderData> labOrderDataList, LinkTransport link, boolean wholeChunk) {
+        try {
+            if (sentOrderIndex != null) {
+                List<LabOrderData> alreadySent = new ArrayList<LabOrderData>();
+                labOrderDataList = sentOrderIndex.filterUnsent(labOrderDataList, alreadySent);
+                if (!alreadySent.isEmpty()) {
+                    // Sent before but still listed, so the earlier acknowledgment did not reach the LIS
+                    log("DataWriterConnector: " + alreadySent.size() + " orders already sent, acknowledging them again");
+                    acknowledgeOrders(alreadySent, true);
+                    if (offlineCache != null) {
+                        offlineCache.remove(alreadySent);
+                    }
+                }
+                if (labOrderDataList.isEmpty()) {
+                    log("DataWriterConnector: No new or changed lab orders to send");
+                    return true;
+                }
+            }
+            
+            if (orderPipeline != null) {
+                // Encode, transmit and acknowledgment continue on the pipeline stages
+                if (!wholeChunk) {
+                    lastNewOrderCount += orderPipeline.submit(labOrderDataList);
+                    return true;
+                }
+                int queued = orderPipeline.submitAndWait(labOrderDataList);
+                if (queued < 0) {
+                    log("DataWriterConnector: Pipeline did not send the whole chunk");
+                    return false;
+                }
+                lastNewOrderCount += queued;
+                return true;
+            }
+            
+            lastNewOrderCount += labOrderDataList.size();
+            labOrderDataList = OrderPriorityQueue.statFirst(labOrderDataList);
+            
             // Step 2: Send RS232 message directly (pipe-delimited format)
             // Generate a message ID for tracking
             String messageId = generateMessageId();
             log("DataWriterConnector: Prepared RS232 message with ID: " + messageId);
             
             // Step 3: Send RS232 message to serial port
-            boolean transmissionSuccess = rs232DataWriter.sendPipeDelimitedMessage(labOrderDataList, serialPort);
+            boolean transmissionSuccess = worklistBatchSize > 0
+                ? rs232DataWriter.sendWorklistBatch(labOrderDataList, link, null, worklistBatchSize)
+                : rs232DataWriter.sendPipeDelimitedMessage(labOrderDataList, link);
             
-            // Step 4: Send acknowledgment to data provider
-            if (transmissionSuccess) {
-                log("DataWriterConnector: RS232 transmission successful");
-                dataProvider.acknowledgeProcessing(messageId, true, 
-                    "RS232 transmission completed successfully with " + labOrderDataList.size() + " records");
-                
-                // Step 5: Send order acknowledgment via API (if using ApiDataProvider)
-                if (dataProvider instanceof ApiDataProvider) {
-                    log("DataWriterConnector: Sending order acknowledgment via API...");
-                    ApiDataProvider apiProvider = (ApiDataProvider) dataProvider;
-                    boolean ackResult = apiProvider.acknowledgeOrders(labOrderDataList, true);
-                    
-                    if (ackResult) {
-                        log("DataWriterConnector: Order acknowledgment sent successfully");
-                    } else {
-                        log("DataWriterConnector: Failed to send order acknowledgment (processing will continue)");
-                    }
-                }
-                
-                return true;
-            } else {
-                log("DataWriterConnector: RS232 transmission failed");
-                dataProvider.acknowledgeProcessing(messageId, false, "Serial port transmission failed");
-                
-                // Send failure acknowledgment via API (if using ApiDataProvider)
-                if (dataProvider instanceof ApiDataProvider) {
-                    log("DataWriterConnector: Sending failure acknowledgment via API...");
-                    ApiDataProvider apiProvider = (ApiDataProvider) dataProvider;
-                    boolean ackResult = apiProvider.acknowledgeOrders(labOrderDataList, false);
-                    
-                    if (ackResult) {
-                        log("DataWriterConnector: Failure acknowledgment sent successfully");
-                    } else {
-                        log("DataWriterConnector: Failed to send failure acknowledgment");
-                    }
-                }
-                
-                return false;
-            }
+            // Steps 4 and 5
+            completeTransmission(labOrderDataList, messageId, transmissionSuccess);
+            return transmissionSuccess;
             
         } catch (Exception ex) {
             log("DataWriterConnector: Error during processing: " + ex.getMessage());
@@ -189,20 +369,86 @@ public class DataWriterConnector {
         }
     }
     
+    /**
+     * Record a transmission: acknowledgment to the data provider (step 4) and
+     * order acknowledgment via the API (step 5)
+     */
+    private void completeTransmission(List<LabOrderData> labOrderDataList, String messageId, boolean transmissionSuccess) {
+        if (transmissionSuccess) {
+            log("DataWriterConnector: RS232 transmission successful");
+            if (sentOrderIndex != null) {
+                sentOrderIndex.markSent(labOrderDataList);
+            }
+            if (offlineCache != null) {
+                offlineCache.remove(labOrderDataList);
+            }
+            dataProvider.acknowledgeProcessing(messageId, true, 
+                "RS232 transmission completed successfully with " + labOrderDataList.size() + " records");
+            
+            // Send order acknowledgment via API (if using ApiDataProvider)
+            acknowledgeOrders(labOrderDataList, true);
+        } else {
+            log("DataWriterConnector: RS232 transmission failed");
+            dataProvider.acknowledgeProcessing(messageId, false, "Serial port transmission failed");
+            
+            // Send failure acknowledgment via API (if using ApiDataProvider)
+            acknowledgeOrders(labOrderDataList, false);
+        }
+    }
+    
+    /**
+     * Acknowledge orders to the LIS: queued when an acknowledgment queue is set,
+     * otherwise posted right away (ApiDataProvider only)
+     */
+    private void acknowledgeOrders(List<LabOrderData> orders, boolean success) {
+        if (acknowledgmentQueue != null) {
+            acknowledgmentQueue.enqueue(orders, success);
+            log("DataWriterConnector: Queued " + (success ? "" : "failure ") + "acknowledgment for " + orders.size()
+                + " orders (" + acknowledgmentQueue.getPendingCount() + " pending)");
+            return;
+        }
+        if (dataProvider instanceof ApiDataProvider) {
+            log("DataWriterConnector: Sending " + (success ? "order" : "failure") + " acknowledgment via API...");
+            ApiDataProvider apiProvider = (ApiDataProvider) dataProvider;
+            boolean ackResult = apiProvider.acknowledgeOrders(orders, success);
+            
+            if (ackResult) {
+                log("DataWriterConnector: Acknowledgment sent successfully");
+            } else {
+                log("DataWriterConnector: Failed to send acknowledgment (processing will continue)");
+            }
+        }
+    }
+    
     /**
      * Start the continuous processing loop
      */
-    private void startProcessingLoop(SerialPort serialPort) {
-        Thread processingThread = new Thread(new Runnable() {
+    private void startProcessingLoop(LinkTransport link) {
+        SessionThreads.start("DataWriterConnector-" + (link != null ? link.getName() : portName), new Runnable() {
             @Override
             public void run() {
                 log("DataWriterConnector: Processing loop started");
                 
                 while (isRunning) {
                     try {
+                        if (pollScheduler != null) {
+                            // Adaptive: the scheduler decides when the next fetch is due
+                            if (dataProvider != null) {
+                                boolean pushed = dataProvider instanceof ApiDataProvider
+                                    && ((ApiDataProvider) dataProvider).hasPushedOrders();
+                                processLabOrders(link);
+                                if (!pushed) {
+                                    // Only API fetches steer the polling rate
+                                    pollScheduler.onPollResult(lastNewOrderCount);
+                                }
+                            }
+                            pollScheduler.awaitNextPoll();
+                            continue;
+                        }
+                        
                         // Only process if data is available
                         if (dataProvider != null && dataProvider.hasDataAvailable()) {
-                            processLabOrders(serialPort);
+                            processLabOrders(link);
                         }
                         
                         // Wait for next polling interval
@@ -225,9 +471,6 @@ public class DataWriterConnector {
                 log("DataWriterConnector: Processing loop stopped");
             }
         });
-        
-        processingThread.setDaemon(true);
-        processingThread.start();
     }
     
     /**
@@ -266,6 +509,15 @@ public class DataWriterConnector {
         status.append("- Port: ").append(portName).append("\n");
         status.append("- Serial Connected: ").append(rs232DataWriter.isConnected()).append("\n");
         status.append("- Polling Interval: ").append(pollingIntervalMs).append(" ms\n");
+        if (pollScheduler != null) {
+            status.append("- Adaptive Poll Interval: ").append(pollScheduler.getCurrentInterval()).append(" ms\n");
+        }
+        if (orderPipeline != null) {
+            status.append("- Pipeline: ").append(orderPipeline.getStatistics()).append("\n");
+        }
+        if (acknowledgmentQueue != null) {
+            status.append("- Pending Acknowledgments: ").append(acknowledgmentQueue.getPendingCount()).append("\n");
+        }
         return status.toString();
     }
     
@@ -2,12 +2,15 @@ package com.writer;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
 
 import com.reader.LabConnectUtil;
-import jssc.SerialPort;
+import com.reader.MachineReadData;
+import com.connector.LinkTransport;
 
 /**
  * Main service class for ASTM Data Writer
@@ -15,9 +18,11 @@ import jssc.SerialPort;
  */
 public class DataWriterService {
     
-    private static DataWriterConnector writerConnector;
+    private static TenantWriter writer;
     private static DataWriterConfig config;
     private static ApiDataProvider dataProvider;
+    // Further company/analyzer profiles served by this process, by tenant name
+    private static final Map<String, TenantWriter> tenants = new ConcurrentHashMap<String, TenantWriter>();
     private static boolean isInitialized = false;
     
     /**
@@ -59,28 +64,21 @@ public class DataWriterService {
             log(config.getConfigurationSummary());
             
             // Initialize data provider and connector
-            dataProvider = new ApiDataProvider();
-            dataProvider.configure(
-                config.getApiBaseUrl(bundle),
-                config.getMachineCode(bundle),
-                config.getCompanyId(bundle)
-            );
-            dataProvider.setFetchInterval(config.getPollingInterval());
+            writer = TenantWriter.create(config, bundle);
+            dataProvider = writer.getDataProvider();
             
             // Configure additional API settings from ResourceBundle
             configureApiService(dataProvider, config);
             
-            writerConnector = new DataWriterConnector();
-            writerConnector.configure(config.getComPort(bundle), dataProvider);
-            
-            writerConnector.configureSerialPort(
-                config.getBaudRate(),
-                config.getDataBits(),
-                config.getStopBits(),
-                config.getParity()
-            );
-            
-            writerConnector.setPollingInterval(config.getPollingInterval());
+            for (String name : config.getTenantNames()) {
+                DataWriterConfig tenantConfig = config.forTenant(name);
+                try {
+                    log(tenantConfig.getConfigurationSummary());
+                    tenants.put(name, TenantWriter.create(tenantConfig, tenantConfig.bundle));
+                } catch (Exception ex) {
+                    log("DataWriterService: Tenant " + name + " not configured: " + ex.getMessage());
+                }
+            }
             
             // Test configuration
             /*if (!writerConnector.testConfiguration()) {
@@ -108,7 +106,7 @@ public class DataWriterService {
     /**
      * Start the data writer service
      */
-    public static boolean start(SerialPort serialPort) {
+    public static boolean start(LinkTransport link) {
         if (!isInitialized) {
             log("DataWriterService: Not initialized, attempting to initialize...");
             if (!initialize()) {
@@ -119,7 +117,7 @@ public class DataWriterService {
         
         try {
             log("DataWriterService: Starting...");
-            writerConnector.start(serialPort);
+            writer.start(link);
             log("DataWriterService: Started successfully");
             return true;
             
@@ -133,12 +131,12 @@ public class DataWriterService {
     /**
      * Stop the data writer service
      */
-    public static void stop(SerialPort serialPort) {
+    public static void stop(LinkTransport link) {
         try {
             log("DataWriterService: Stopping...");
             
-            if (writerConnector != null) {
-                writerConnector.stop(serialPort);
+            if (writer != null) {
+                writer.stop(link);
             }
             
             log("DataWriterService: Stopped successfully");
@@ -149,6 +147,51 @@ public class DataWriterService {
         }
     }
 
+    /**
+     * Names of the tenants that were configured, to start on their own links
+     */
+    public static Set<String> getTenantNames() {
+        return tenants.keySet();
+    }
+    
+    /**
+     * Start a tenant's writer on the tenant's link
+     */
+    public static boolean startTenant(String name, LinkTransport link) {
+        TenantWriter tenant = tenants.get(name);
+        if (tenant == null) {
+            log("DataWriterService: Tenant " + name + " is not configured");
+            return false;
+        }
+        try {
+            tenant.start(link);
+            log("DataWriterService: Tenant " + name + " started");
+            return true;
+        } catch (Exception ex) {
+            log("DataWriterService: Failed to start tenant " + name + ": " + ex.getMessage());
+            return false;
+        }
+    }
+    
+    public static void stopTenant(String name, LinkTransport link) {
+        TenantWriter tenant = tenants.get(name);
+        if (tenant != null) {
+            try {
+                tenant.stop(link);
+            } catch (Exception ex) {
+                log("DataWriterService: Error stopping tenant " + name + ": " + ex.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Machine ID a tenant's results are reported under
+     */
+    public static String getTenantMachineId(String name) {
+        TenantWriter tenant = tenants.get(name);
+        return tenant != null ? tenant.getResultMachineId() : null;
+    }
+
     
     /**
      * Get API data provider configuration
@@ -173,6 +216,24 @@ public class DataWriterService {
         }
     }
     
+    /**
+     * Called for every result read from the analyzer (see DataReader.setResultObserver)
+     */
+    public static void onResultReceived(MachineReadData machineReadData) {
+        if (machineReadData == null) {
+            return;
+        }
+        for (TenantWriter tenant : tenants.values()) {
+            if (tenant.getResultMachineId().equals(machineReadData.getMachineID())) {
+                tenant.onResultReceived(machineReadData);
+                return;
+            }
+        }
+        if (writer != null) {
+            writer.onResultReceived(machineReadData);
+        }
+    }
+    
     /**
      * Get the data provider for external systems to add data
      * @return The data provider instance
@@ -193,8 +254,13 @@ public class DataWriterService {
             status.append("- Enabled: ").append(config.isEnabled()).append("\n");
         }
         
-        if (writerConnector != null) {
-            status.append(writerConnector.getStatus());
+        if (writer != null) {
+            status.append(writer.getStatus());
+        }
+        
+        for (TenantWriter tenant : tenants.values()) {
+            status.append("Tenant ").append(tenant.getName()).append(":\n");
+            status.append(tenant.getStatus());
         }
         
         return status.toString();
@@ -7,7 +7,7 @@ import javax.ws.rs.core.Response;
 import org.apache.cxf.jaxrs.client.WebClient;
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.type.TypeReference;
+import com.reader.DateNormalizer;
 import com.reader.LabConnectUtil;
 
 /**
@@ -21,6 +21,7 @@ public class LabOrderApiService {
     private static Integer WS_READ_TIMEOUT = 60000;
     private static Integer WS_CONNECT_TIMEOUT = 30000;
     private ObjectMapper objectMapper;
+    private final LabOrderResponseParser responseParser = new LabOrderResponseParser();
     
     public LabOrderApiService() {
         this.objectMapper = new ObjectMapper();
@@ -43,48 +44,27 @@ public class LabOrderApiService {
      * @return List of lab order data, or null if error
      */
     public List<LabOrderData> fetchLabOrderRequests(String machineCode, String companyId) {
-        if (baseUrl == null || baseUrl.trim().isEmpty()) {
-            log("LabOrderApiService: Base URL not configured");
-            return null;
-        }
-        
+        return fetchLabOrderRequests(Arrays.asList(machineCode), companyId);
+    }
+    
+    /**
+     * Fetch the lab order requests of several analyzers in one call; each order
+     * carries its machineCode if the LIS includes it
+     * @return List of lab order data, or null if error
+     */
+    public List<LabOrderData> fetchLabOrderRequests(List<String> machineCodes, String companyId) {
         try {
-            // Construct full URL
-            String fullUrl = baseUrl;
-            if (!baseUrl.endsWith("/")) {
-                fullUrl += "/";
+            InputStream responseStream = openLabOrderRequests(machineCodes, companyId);
+            if (responseStream == null) {
+                return null;
             }
-            fullUrl += "mediInterfaceWS/getLabOrderRequests";
-            
-            log("LabOrderApiService: Fetching lab orders from: " + fullUrl);
-            
-            // Create request payload
-            LabOrderRequest request = new LabOrderRequest();
-            request.setMachineCode(Arrays.asList(machineCode));
-            request.setCompanyID(companyId);
-            
-            String requestJson = objectMapper.writeValueAsString(request);
-            log("LabOrderApiService: Request payload: " + requestJson);
-            
-            // Create web client
-            WebClient client = WebClient.create(fullUrl);
-            WebClient.getConfig(client).getHttpConduit().getClient().setReceiveTimeout(WS_READ_TIMEOUT);
-            WebClient.getConfig(client).getHttpConduit().getClient().setConnectionTimeout(WS_CONNECT_TIMEOUT);
-            client.type(MediaType.APPLICATION_JSON);
-            client.accept(MediaType.APPLICATION_JSON);
-            client.header("API_KEY", apiKey);
             
-            // Make API call
-            String jsonResponse = client.post(requestJson, String.class);
-            log("LabOrderApiService: Received response: " + jsonResponse);
-            
-            if (jsonResponse == null || jsonResponse.trim().isEmpty()) {
-                log("LabOrderApiService: Empty response from API");
-                return new ArrayList<LabOrderData>();
+            List<LabOrderData> labOrderDataList;
+            try {
+                labOrderDataList = parseLabOrderResponse(responseStream);
+            } finally {
+                responseStream.close();
             }
-            
-            // Parse JSON response
-            List<LabOrderData> labOrderDataList = parseLabOrderResponse(jsonResponse);
             log("LabOrderApiService: Successfully parsed " + (labOrderDataList != null ? labOrderDataList.size() : 0) + " lab orders");
             
             return labOrderDataList;
@@ -97,167 +77,174 @@ public class LabOrderApiService {
     }
     
     /**
-     * Parse the API response and convert to LabOrderData objects
+     * Fetch lab order requests and hand them over in chunks of at most chunkSize
+     * while the response is still being read. The next chunk is only parsed once
+     * the handler has returned, so memory stays bounded by one chunk.
+     * @return number of orders handed over, or -1 if the fetch failed or the handler aborted
      */
-    private List<LabOrderData> parseLabOrderResponse(String jsonResponse) {
+    public int fetchLabOrderRequests(List<String> machineCodes, String companyId, int chunkSize,
+                                     LabOrderResponseParser.ChunkHandler handler) {
         try {
-            List<LabOrderData> labOrderDataList = new ArrayList<LabOrderData>();
-            
-            // Parse the response JSON
-            Map<String, Object> responseMap = objectMapper.readValue(jsonResponse, 
-                new TypeReference<Map<String, Object>>() {});
-            
-            // Check if response is successful
-            Boolean success = (Boolean) responseMap.get("success");
-            if (success == null) {
-                log("LabOrderApiService: Invalid response - missing 'success' field");
-                return null;
+            InputStream responseStream = openLabOrderRequests(machineCodes, companyId);
+            if (responseStream == null) {
+                return -1;
             }
             
-            if (!success) {
-                // Handle error responses (Case 3 & 4)
-                handleErrorResponse(responseMap);
-                return labOrderDataList; // Return empty list for error responses
+            LabOrderResponseParser.ParseResult result;
+            try {
+                result = responseParser.parseInChunks(responseStream, chunkSize, handler);
+            } finally {
+                responseStream.close();
             }
             
-            // Handle successful responses
-            Object dataObject = responseMap.get("data");
-            if (dataObject == null) {
-                log("LabOrderApiService: No data field in response");
-                return labOrderDataList;
+            if (!result.isValid()) {
+                log("LabOrderApiService: Invalid response - missing 'success' field");
+                return -1;
             }
-            
-            // Check if data is an array (Case 1 & 2) or error object (Case 3 & 4)
-            if (dataObject instanceof List) {
-                List<Map<String, Object>> dataList = (List<Map<String, Object>>) dataObject;
-                
-                if (dataList.isEmpty()) {
-                    // Case 2: Empty data array
-                    log("LabOrderApiService: No lab orders available (empty data array)");
-                    return labOrderDataList;
-                }
-                
-                // Case 1: Data array with lab orders
-                log("LabOrderApiService: Processing " + dataList.size() + " lab orders from API");
-                
-                // Convert each item to LabOrderData
-                for (Map<String, Object> dataItem : dataList) {
-                    LabOrderData labOrderData = convertApiDataToLabOrder(dataItem);
-                    if (labOrderData != null) {
-                        labOrderDataList.add(labOrderData);
-                    }
-                }
-                
-                log("LabOrderApiService: Successfully converted " + labOrderDataList.size() + " lab orders");
-                
-            } else {
-                // Data is not an array - this might be an error object
-                log("LabOrderApiService: Unexpected data format - expected array but got: " + dataObject.getClass().getSimpleName());
-                return labOrderDataList;
+            if (!result.isSuccess()) {
+                handleErrorResponse(result);
+                return 0;
             }
-            
-            return labOrderDataList;
+            if (result.isAborted()) {
+                log("LabOrderApiService: Chunked fetch stopped after " + result.getOrderCount() + " lab orders");
+                return -1;
+            }
+            log("LabOrderApiService: Streamed " + result.getOrderCount() + " lab orders in chunks of " + chunkSize);
+            return result.getOrderCount();
             
         } catch (Exception ex) {
-            log("LabOrderApiService: Error parsing response: " + ex.getMessage());
+            log("LabOrderApiService: Error fetching lab orders: " + ex.getMessage());
             ex.printStackTrace();
+            return -1;
+        }
+    }
+    
+    /**
+     * Post the getLabOrderRequests call and return the response stream
+     * @return the response body, or null if the base URL is not configured
+     */
+    private InputStream openLabOrderRequests(List<String> machineCodes, String companyId) throws IOException {
+        if (baseUrl == null || baseUrl.trim().isEmpty()) {
+            log("LabOrderApiService: Base URL not configured");
             return null;
         }
+        
+        // Construct full URL
+        String fullUrl = baseUrl;
+        if (!baseUrl.endsWith("/")) {
+            fullUrl += "/";
+        }
+        fullUrl += "mediInterfaceWS/getLabOrderRequests";
+        
+        log("LabOrderApiService: Fetching lab orders from: " + fullUrl);
+        
+        // Create request payload
+        LabOrderRequest request = new LabOrderRequest();
+        request.setMachineCode(machineCodes);
+        request.setCompanyID(companyId);
+        
+        String requestJson = objectMapper.writeValueAsString(request);
+        log("LabOrderApiService: Request payload: " + requestJson);
+        
+        // Create web client
+        WebClient client = WebClient.create(fullUrl);
+        WebClient.getConfig(client).getHttpConduit().getClient().setReceiveTimeout(WS_READ_TIMEOUT);
+        WebClient.getConfig(client).getHttpConduit().getClient().setConnectionTimeout(WS_CONNECT_TIMEOUT);
+        client.type(MediaType.APPLICATION_JSON);
+        client.accept(MediaType.APPLICATION_JSON);
+        client.header("API_KEY", apiKey);
+        
+        // Make API call, the response is parsed straight off the stream
+        InputStream responseStream = client.post(requestJson, InputStream.class);
+        if (responseStream == null) {
+            log("LabOrderApiService: Empty response from API");
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        return responseStream;
     }
     
     /**
-     * Handle error responses from the API
+     * Parse an API response held in memory (pushed orders)
      */
-    private void handleErrorResponse(Map<String, Object> responseMap) {
+    List<LabOrderData> parseLabOrderResponse(String jsonResponse) {
         try {
-            Object dataObject = responseMap.get("data");
-            
-            if (dataObject instanceof Map) {
-                Map<String, Object> errorData = (Map<String, Object>) dataObject;
-                
-                // Extract error details
-                Object errorCode = errorData.get("error_code");
-                Object errorMessage = errorData.get("error_message");
-                
-                String errorCodeStr = errorCode != null ? errorCode.toString() : "UNKNOWN";
-                String errorMessageStr = errorMessage != null ? errorMessage.toString() : "Unknown error";
-                
-                log("LabOrderApiService: API Error - Code: " + errorCodeStr + ", Message: " + errorMessageStr);
-                
-                // Handle specific error codes
-                if ("204".equals(errorCodeStr)) {
-                    if (errorMessageStr.contains("not found")) {
-                        log("LabOrderApiService: Analyzer not found - check machine code configuration");
-                    } else if (errorMessageStr.contains("not matched")) {
-                        log("LabOrderApiService: Analyzer name mismatch - verify machine code mapping");
-                    }
-                }
-                
-            } else {
-                log("LabOrderApiService: API returned error but data format is unexpected");
-            }
-            
-        } catch (Exception ex) {
-            log("LabOrderApiService: Error processing error response: " + ex.getMessage());
+            return parseLabOrderResponse(new ByteArrayInputStream(jsonResponse.getBytes("UTF-8")));
+        } catch (IOException ex) {
+            return null;
         }
     }
     
     /**
-     * Convert API response data item to LabOrderData
+     * Parse the API response stream and convert to LabOrderData objects
+     * @return the orders, empty for an error response, or null if the response is invalid
      */
-    private LabOrderData convertApiDataToLabOrder(Map<String, Object> dataItem) {
+    List<LabOrderData> parseLabOrderResponse(InputStream jsonResponse) {
         try {
-            LabOrderData labOrder = new LabOrderData();
+            final List<LabOrderData> labOrderDataList = new ArrayList<LabOrderData>();
+            LabOrderResponseParser.ParseResult result = responseParser.parse(jsonResponse,
+                new LabOrderResponseParser.OrderHandler() {
+                    public void onOrder(LabOrderData order) {
+                        labOrderDataList.add(order);
+                    }
+                });
             
-            // Map fields from API response to LabOrderData
-            labOrder.setPatientId(getStringValue(dataItem, "mrn"));
-            labOrder.setPatientName(getStringValue(dataItem, "patientName"));
-            labOrder.setPatientSex(getStringValue(dataItem, "gender"));
-            labOrder.setPatientBirthDate(formatDate(getStringValue(dataItem, "patientDOB")));
-            labOrder.setOrderId(getStringValue(dataItem, "sampleID"));
-            labOrder.setTestType(getStringValue(dataItem, "investigationCode"));
-            labOrder.setTestDescription(getStringValue(dataItem, "investigationName"));
-            labOrder.setOrderDateTime(formatDateTime(getStringValue(dataItem, "acceptanceDate")));
-            labOrder.setSpecimenType("SERUM"); // Default for lab tests
-            labOrder.setPriority("ROUTINE"); // Default priority
+            if (!result.isValid()) {
+                log("LabOrderApiService: Invalid response - missing 'success' field");
+                return null;
+            }
             
-            // Set additional fields for acknowledgment
-            labOrder.setSampleId(getStringValue(dataItem, "sampleID"));
-            labOrder.setInvestigationCode(getStringValue(dataItem, "investigationCode"));
-            labOrder.setMrn(getStringValue(dataItem, "mrn"));
-            labOrder.setAcceptanceDate(getStringValue(dataItem, "acceptanceDate"));
+            if (!result.isSuccess()) {
+                // Handle error responses (Case 3 & 4)
+                handleErrorResponse(result);
+                return new ArrayList<LabOrderData>(); // Return empty list for error responses
+            }
             
-            return labOrder;
+            if (labOrderDataList.isEmpty()) {
+                // Case 2: Empty data array
+                log("LabOrderApiService: No lab orders available (empty data array)");
+            } else {
+                // Case 1: Data array with lab orders
+                log("LabOrderApiService: Successfully converted " + labOrderDataList.size() + " lab orders");
+            }
+            return labOrderDataList;
             
         } catch (Exception ex) {
-            log("LabOrderApiService: Error converting API data: " + ex.getMessage());
+            log("LabOrderApiService: Error parsing response: " + ex.getMessage());
+            ex.printStackTrace();
             return null;
         }
     }
     
     /**
-     * Get string value from map
+     * Handle error responses from the API
      */
-    private String getStringValue(Map<String, Object> map, String key) {
-        Object value = map.get(key);
-        return value != null ? value.toString() : "";
+    private void handleErrorResponse(LabOrderResponseParser.ParseResult result) {
+        String errorCodeStr = result.getErrorCode().isEmpty() ? "UNKNOWN" : result.getErrorCode();
+        String errorMessageStr = result.getErrorMessage().isEmpty() ? "Unknown error" : result.getErrorMessage();
+        
+        log("LabOrderApiService: API Error - Code: " + errorCodeStr + ", Message: " + errorMessageStr);
+        
+        // Handle specific error codes
+        if ("204".equals(errorCodeStr)) {
+            if (errorMessageStr.contains("not found")) {
+                log("LabOrderApiService: Analyzer not found - check machine code configuration");
+            } else if (errorMessageStr.contains("not matched")) {
+                log("LabOrderApiService: Analyzer name mismatch - verify machine code mapping");
+            }
+        }
     }
     
     /**
      * Format date from API format to YYYYMMDD
      */
-    private String formatDate(String dateStr) {
+    static String formatDate(String dateStr) {
         if (dateStr == null || dateStr.trim().isEmpty()) {
             return "";
         }
         
         try {
             // API format appears to be "2016-02-05"
-            String digitsOnly = dateStr.replaceAll("[^0-9]", "");
-            if (digitsOnly.length() >= 8) {
-                return digitsOnly.substring(0, 8);
-            }
-            return digitsOnly;
+            return DateNormalizer.toDate(dateStr);
         } catch (Exception ex) {
             log("LabOrderApiService: Error formatting date: " + dateStr);
             return "";
@@ -267,20 +254,14 @@ public class LabOrderApiService {
     /**
      * Format datetime from API format to YYYYMMDDHHMM
      */
-    private String formatDateTime(String dateTimeStr) {
+    static String formatDateTime(String dateTimeStr) {
         if (dateTimeStr == null || dateTimeStr.trim().isEmpty()) {
             return "";
         }
         
         try {
             // API format appears to be "2024-01-16 15:26:00.0"
-            String digitsOnly = dateTimeStr.replaceAll("[^0-9]", "");
-            if (digitsOnly.length() >= 12) {
-                return digitsOnly.substring(0, 12);
-            } else if (digitsOnly.length() >= 8) {
-                return digitsOnly + "1200"; // Add default time
-            }
-            return digitsOnly;
+            return DateNormalizer.toDateTime(dateTimeStr, 12);
         } catch (Exception ex) {
             log("LabOrderApiService: Error formatting datetime: " + dateTimeStr);
             return "";
@@ -366,18 +347,9 @@ public class LabOrderApiService {
                 return "";
             }
             
-            // Handle different input formats
-            if (acceptanceDate.contains("-") && acceptanceDate.length() >= 10) {
-                // Format: 2024-01-16 15:26:00.0 or 2016-02-05
-                String datePart = acceptanceDate.substring(0, 10);
-                String[] parts = datePart.split("-");
-                if (parts.length == 3) {
-                    // Convert YYYY-MM-DD to DD-MM-YYYY
-                    return parts[2] + "-" + parts[1] + "-" + parts[0];
-                }
-            }
-            
-            return acceptanceDate; // Return as-is if format not recognized
+            // Format: 2024-01-16 15:26:00.0 or 2016-02-05 to DD-MM-YYYY,
+            // returned as-is if format not recognized
+            return DateNormalizer.toDayMonthYear(acceptanceDate);
             
         } catch (Exception ex) {
             log("LabOrderApiService: Error formatting date for acknowledgment: " + ex.getMessage());
@@ -440,7 +412,7 @@ public class LabOrderApiService {
     /**
      * Log messages using the existing logging utility
      */
-    private void log(String message) {
+    private static void log(String message) {
         LabConnectUtil.log(message);
     }
 } 
\ No newline at end of file
@@ -20,6 +20,8 @@ public class LabOrderData {
     private String investigationCode;
     private String mrn;
     private String acceptanceDate;
+    // Analyzer the order is for, when one request covers several machine codes
+    private String machineCode;
     
     public LabOrderData() {}
     
@@ -66,4 +68,7 @@ public class LabOrderData {
     
     public String getAcceptanceDate() { return acceptanceDate; }
     public void setAcceptanceDate(String acceptanceDate) { this.acceptanceDate = acceptanceDate; }
+
+    public String getMachineCode() { return machineCode; }
+    public void setMachineCode(String machineCode) { this.machineCode = machineCode; }
 } 
\ No newline at end of file
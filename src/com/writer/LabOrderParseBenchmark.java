@@ -0,0 +1,137 @@
+package com.writer;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+
+/**
+ * Compares the old tree parse of a getLabOrderRequests response (String,
+ * Map tree, toString per field) with the streaming LabOrderResponseParser on
+ * a generated backlog. Reports time and bytes allocated per order; allocation
+ * figures need a HotSpot JVM.
+ *
+ * Usage: LabOrderParseBenchmark [orders=20000] [rounds=10]
+ */
+public class LabOrderParseBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        byte[] response = generateResponse(orders);
+        System.out.println("=== Lab Order Parse Benchmark ===");
+        System.out.println("Orders: " + orders + ", response size: " + (response.length / 1024) + " KB, rounds: " + rounds);
+
+        final ObjectMapper objectMapper = new ObjectMapper();
+        final LabOrderResponseParser streamingParser = new LabOrderResponseParser();
+
+        // Warm up both paths
+        for (int i = 0; i < 3; i++) {
+            treeParse(objectMapper, response);
+            streamingParse(streamingParser, response);
+        }
+
+        long treeNanos = 0, treeBytes = 0, streamNanos = 0, streamBytes = 0;
+        for (int i = 0; i < rounds; i++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            int parsed = treeParse(objectMapper, response);
+            treeNanos += System.nanoTime() - start;
+            treeBytes += allocatedBytes() - bytes;
+            check(parsed, orders);
+
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            parsed = streamingParse(streamingParser, response);
+            streamNanos += System.nanoTime() - start;
+            streamBytes += allocatedBytes() - bytes;
+            check(parsed, orders);
+        }
+
+        long total = (long) orders * rounds;
+        System.out.println(String.format("Tree parse:      %8.2f ms/response  %8.0f orders/ms  %6d bytes/order",
+                treeNanos / 1e6 / rounds, total / (treeNanos / 1e6), treeBytes / total));
+        System.out.println(String.format("Streaming parse: %8.2f ms/response  %8.0f orders/ms  %6d bytes/order",
+                streamNanos / 1e6 / rounds, total / (streamNanos / 1e6), streamBytes / total));
+        System.out.println("=== End Lab Order Parse Benchmark ===");
+    }
+
+    /**
+     * The previous LabOrderApiService path: whole response as a String, Map tree, field copy
+     */
+    private static int treeParse(ObjectMapper objectMapper, byte[] response) throws Exception {
+        String jsonResponse = new String(response, "UTF-8");
+        Map<String, Object> responseMap = objectMapper.readValue(jsonResponse, new TypeReference<Map<String, Object>>() {});
+        // "data" is a list of JSON objects; the Map tree cannot carry that type
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> dataList = (List<Map<String, Object>>) responseMap.get("data");
+        int count = 0;
+        for (Map<String, Object> dataItem : dataList) {
+            LabOrderData labOrder = new LabOrderData();
+            labOrder.setPatientId(stringValue(dataItem, "mrn"));
+            labOrder.setPatientName(stringValue(dataItem, "patientName"));
+            labOrder.setPatientSex(stringValue(dataItem, "gender"));
+            labOrder.setPatientBirthDate(LabOrderApiService.formatDate(stringValue(dataItem, "patientDOB")));
+            labOrder.setOrderId(stringValue(dataItem, "sampleID"));
+            labOrder.setTestType(stringValue(dataItem, "investigationCode"));
+            labOrder.setTestDescription(stringValue(dataItem, "investigationName"));
+            labOrder.setOrderDateTime(LabOrderApiService.formatDateTime(stringValue(dataItem, "acceptanceDate")));
+            labOrder.setSampleId(stringValue(dataItem, "sampleID"));
+            labOrder.setInvestigationCode(stringValue(dataItem, "investigationCode"));
+            labOrder.setMrn(stringValue(dataItem, "mrn"));
+            labOrder.setAcceptanceDate(stringValue(dataItem, "acceptanceDate"));
+            count++;
+        }
+        return count;
+    }
+
+    private static int streamingParse(LabOrderResponseParser parser, byte[] response) throws Exception {
+        final int[] count = new int[1];
+        parser.parse(new ByteArrayInputStream(response), new LabOrderResponseParser.OrderHandler() {
+            public void onOrder(LabOrderData order) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    private static String stringValue(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        return value != null ? value.toString() : "";
+    }
+
+    private static byte[] generateResponse(int orders) throws UnsupportedEncodingException {
+        StringBuilder json = new StringBuilder(orders * 260);
+        json.append("{\"success\":true,\"data\":[");
+        for (int i = 0; i < orders; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"mrn\":\"MRN").append(100000 + i)
+                .append("\",\"patientName\":\"PATIENT NUMBER ").append(i)
+                .append("\",\"gender\":\"").append(i % 2 == 0 ? "M" : "F")
+                .append("\",\"patientDOB\":\"1980-02-05\",\"sampleID\":\"S").append(500000 + i)
+                .append("\",\"investigationCode\":\"INV").append(i % 40)
+                .append("\",\"investigationName\":\"CULTURE AND SENSITIVITY\"")
+                .append(",\"acceptanceDate\":\"2026-01-16 15:26:00.0\"}");
+        }
+        json.append("]}");
+        return json.toString().getBytes("UTF-8");
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void check(int parsed, int expected) {
+        if (parsed != expected) {
+            throw new IllegalStateException("Parsed " + parsed + " orders, expected " + expected);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.writer;
+
+import java.io.*;
+import java.util.*;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Streaming parser for getLabOrderRequests responses.
+ *
+ * Reads the response token by token with the Jackson JsonParser and fills
+ * LabOrderData directly, instead of building a Map tree of the whole document
+ * first. Each order is handed to the OrderHandler as soon as its object closes,
+ * so a large post-outage backlog is parsed in constant memory.
+ *
+ * Envelope handling matches the previous tree parser: "data" as an array holds
+ * the orders, "data" as an object on success=false carries error_code and
+ * error_message, and a response without "success" is invalid.
+ */
+public class LabOrderResponseParser {
+
+    /**
+     * Receives each order as soon as it is parsed
+     */
+    public interface OrderHandler {
+        void onOrder(LabOrderData order) throws Exception;
+    }
+
+    /**
+     * Receives the orders in bounded chunks; return false to stop reading the response
+     */
+    public interface ChunkHandler {
+        boolean onChunk(List<LabOrderData> chunk) throws Exception;
+    }
+
+    /**
+     * Outcome of one response
+     */
+    public static class ParseResult {
+        private boolean valid;
+        private boolean success;
+        private int orderCount;
+        private String errorCode = "";
+        private String errorMessage = "";
+        private boolean aborted;
+
+        /** False if the response has no "success" field */
+        public boolean isValid() { return valid; }
+        public boolean isSuccess() { return success; }
+        public int getOrderCount() { return orderCount; }
+        public String getErrorCode() { return errorCode; }
+        public String getErrorMessage() { return errorMessage; }
+        /** True if a ChunkHandler stopped the parse before the end of the response */
+        public boolean isAborted() { return aborted; }
+    }
+
+    // JsonFactory is thread safe and meant to be shared
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Parse a response, handing each order to the handler as it completes
+     */
+    public ParseResult parse(InputStream in, OrderHandler handler) throws Exception {
+        ParseResult result = new ParseResult();
+        parse(in, handler, result);
+        return result;
+    }
+
+    /**
+     * Parse a response into a list
+     * @return the orders, or null if the response is not a valid getLabOrderRequests response
+     */
+    public List<LabOrderData> parseAll(InputStream in) throws Exception {
+        final List<LabOrderData> orders = new ArrayList<LabOrderData>();
+        ParseResult result = parse(in, new OrderHandler() {
+            public void onOrder(LabOrderData order) {
+                orders.add(order);
+            }
+        });
+        return result.isValid() ? orders : null;
+    }
+
+    /**
+     * Parse a response, handing the orders over in chunks of at most chunkSize.
+     * Each chunk is a fresh list the handler may keep. Nothing is handed over
+     * before "success": true has been read: orders that come before it are
+     * held until it arrives, and dropped if the response turns out to be a
+     * failure or has no "success" field.
+     */
+    public ParseResult parseInChunks(InputStream in, int chunkSize, final ChunkHandler handler) throws Exception {
+        final int size = chunkSize > 0 ? chunkSize : 1;
+        final List<List<LabOrderData>> pending = new ArrayList<List<LabOrderData>>(1);
+        pending.add(new ArrayList<LabOrderData>(size));
+        // Orders read while the outcome of the response is still unknown
+        final List<LabOrderData> held = new ArrayList<LabOrderData>();
+        final ParseResult result = new ParseResult();
+        try {
+            parse(in, new OrderHandler() {
+                public void onOrder(LabOrderData order) throws Exception {
+                    if (!result.valid || !result.success) {
+                        held.add(order);
+                        return;
+                    }
+                    if (!held.isEmpty()) {
+                        handOver(held, pending, size, handler);
+                        held.clear();
+                    }
+                    handOver(Collections.singletonList(order), pending, size, handler);
+                }
+            }, result);
+        } catch (ChunkAbort abort) {
+            result.aborted = true;
+            return result;
+        }
+        if (!result.valid || !result.success) {
+            return result;
+        }
+        try {
+            handOver(held, pending, size, handler);
+        } catch (ChunkAbort abort) {
+            result.aborted = true;
+            return result;
+        }
+        List<LabOrderData> last = pending.get(0);
+        if (!last.isEmpty() && !handler.onChunk(last)) {
+            result.aborted = true;
+        }
+        return result;
+    }
+
+    /**
+     * Add orders to the pending chunk, handing it over each time it fills up
+     */
+    private static void handOver(List<LabOrderData> orders, List<List<LabOrderData>> pending, int size,
+                                 ChunkHandler handler) throws Exception {
+        for (LabOrderData order : orders) {
+            List<LabOrderData> chunk = pending.get(0);
+            chunk.add(order);
+            if (chunk.size() >= size) {
+                pending.set(0, new ArrayList<LabOrderData>(size));
+                if (!handler.onChunk(chunk)) {
+                    throw new ChunkAbort();
+                }
+            }
+        }
+    }
+
+    private void parse(InputStream in, OrderHandler handler, ParseResult result) throws Exception {
+        JsonParser parser = JSON_FACTORY.createJsonParser(in);
+        try {
+            parse(parser, handler, result);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private void parse(JsonParser parser, OrderHandler handler, ParseResult result) throws Exception {
+        if (parser.nextToken() == null) {
+            // Empty body: nothing to process, as before
+            result.valid = true;
+            result.success = true;
+            return;
+        }
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object, got " + parser.getCurrentToken());
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("success".equals(field)) {
+                if (value == JsonToken.VALUE_TRUE || value == JsonToken.VALUE_FALSE) {
+                    result.valid = true;
+                    result.success = value == JsonToken.VALUE_TRUE;
+                }
+            } else if ("data".equals(field) && value == JsonToken.START_ARRAY) {
+                JsonToken item;
+                while ((item = parser.nextToken()) != JsonToken.END_ARRAY && item != null) {
+                    if (item == JsonToken.START_OBJECT) {
+                        LabOrderData order = readOrder(parser);
+                        result.orderCount++;
+                        handler.onOrder(order);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if ("data".equals(field) && value == JsonToken.START_OBJECT) {
+                readError(parser, result);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Map one order object onto LabOrderData; the parser is on its START_OBJECT
+     */
+    private LabOrderData readOrder(JsonParser parser) throws IOException {
+        LabOrderData labOrder = new LabOrderData();
+        String mrn = "";
+        String patientName = "";
+        String gender = "";
+        String patientDOB = "";
+        String sampleID = "";
+        String investigationCode = "";
+        String investigationName = "";
+        String acceptanceDate = "";
+        String priority = "";
+        String machineCode = "";
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            String text = scalarText(parser);
+            if ("mrn".equals(field)) {
+                mrn = text;
+            } else if ("patientName".equals(field)) {
+                patientName = text;
+            } else if ("gender".equals(field)) {
+                gender = text;
+            } else if ("patientDOB".equals(field)) {
+                patientDOB = text;
+            } else if ("sampleID".equals(field)) {
+                sampleID = text;
+            } else if ("investigationCode".equals(field)) {
+                investigationCode = text;
+            } else if ("investigationName".equals(field)) {
+                investigationName = text;
+            } else if ("acceptanceDate".equals(field)) {
+                acceptanceDate = text;
+            } else if ("priority".equals(field)) {
+                priority = text.trim();
+            } else if ("machineCode".equals(field)) {
+                machineCode = text.trim();
+            }
+        }
+
+        labOrder.setPatientId(mrn);
+        labOrder.setPatientName(patientName);
+        labOrder.setPatientSex(gender);
+        labOrder.setPatientBirthDate(LabOrderApiService.formatDate(patientDOB));
+        labOrder.setOrderId(sampleID);
+        labOrder.setTestType(investigationCode);
+        labOrder.setTestDescription(investigationName);
+        labOrder.setOrderDateTime(LabOrderApiService.formatDateTime(acceptanceDate));
+        labOrder.setSpecimenType("SERUM"); // Default for lab tests
+        labOrder.setPriority(priority.isEmpty() ? OrderPriorityQueue.ROUTINE : priority.toUpperCase()); // ROUTINE unless the LIS says otherwise
+
+        // Additional fields for acknowledgment
+        labOrder.setSampleId(sampleID);
+        labOrder.setInvestigationCode(investigationCode);
+        labOrder.setMrn(mrn);
+        labOrder.setAcceptanceDate(acceptanceDate);
+        labOrder.setMachineCode(machineCode);
+        return labOrder;
+    }
+
+    private void readError(JsonParser parser, ParseResult result) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            String text = scalarText(parser);
+            if ("error_code".equals(field)) {
+                result.errorCode = text;
+            } else if ("error_message".equals(field)) {
+                result.errorMessage = text;
+            }
+        }
+    }
+
+    /**
+     * Text of a scalar value ("" for null); nested values are skipped
+     */
+    private static String scalarText(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return "";
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return "";
+        }
+        return parser.getText();
+    }
+
+    /**
+     * Unwinds the parse when a ChunkHandler asks to stop
+     */
+    private static class ChunkAbort extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        ChunkAbort() {
+            super(null, null, false, false);
+        }
+    }
+}
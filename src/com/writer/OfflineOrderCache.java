@@ -0,0 +1,464 @@
+package com.writer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import com.reader.DateNormalizer;
+import com.reader.LabConnectUtil;
+
+/**
+ * Local copy of the orders fetched from the LIS that have not reached the
+ * analyzer yet, so the worklist can still be served while the API is down.
+ *
+ * Orders are keyed by sampleID and investigationCode, with a sampleID index
+ * for lookups. The store is an append-only text file like SentOrderIndex:
+ * "+ TAB key TAB fields..." adds or replaces an order, "- TAB key" drops it,
+ * and the file is rewritten when it grows to twice the live entries. Orders
+ * whose acceptanceDate is older than the retention are evicted, and past the
+ * size cap the orders accepted longest ago go first.
+ */
+public class OfflineOrderCache {
+
+    public static final int DEFAULT_MAX_ORDERS = 5000;
+    public static final int DEFAULT_RETENTION_DAYS = 7;
+
+    private static final String SEPARATOR = "\t";
+    private static final String PUT = "+";
+    private static final String REMOVE = "-";
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final int FIELD_COUNT = 15;
+
+    private final File cacheFile;
+    private final int maxOrders;
+    private final long retentionMs;
+    // Orders in fetch order, by SentOrderIndex.keyOf
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    // sampleID -> keys of its orders
+    private final Map<String, Set<String>> bySample = new HashMap<String, Set<String>>();
+    private int fileLines = 0;
+    private long served = 0;
+    private long evicted = 0;
+
+    private static class Entry {
+        final LabOrderData order;
+        // Acceptance time used for eviction; the caching time if acceptanceDate is not a date
+        final long acceptedAt;
+
+        Entry(LabOrderData order, long acceptedAt) {
+            this.order = order;
+            this.acceptedAt = acceptedAt;
+        }
+    }
+
+    public OfflineOrderCache(File cacheFile, int maxOrders, int retentionDays) {
+        this.cacheFile = cacheFile;
+        this.maxOrders = maxOrders > 0 ? maxOrders : DEFAULT_MAX_ORDERS;
+        this.retentionMs = (retentionDays > 0 ? retentionDays : DEFAULT_RETENTION_DAYS) * DAY_MS;
+    }
+
+    /**
+     * Default location: rootDrive/mednet/data/offlineOrders_[propertyFileSuffix].txt
+     */
+    public static File defaultFile() {
+        return DataWriterConfig.getDataFile("offlineOrders");
+    }
+
+    /**
+     * Read the cache file; a missing file is an empty cache
+     */
+    public synchronized void load() {
+        entries.clear();
+        bySample.clear();
+        fileLines = 0;
+        if (!cacheFile.exists()) {
+            log("OfflineOrderCache: No cache at " + cacheFile + ", starting empty");
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR, -1);
+                fileLines++;
+                if (parts.length == 2 && REMOVE.equals(parts[0])) {
+                    removeEntry(parts[1]);
+                } else if (parts.length == 3 + FIELD_COUNT && PUT.equals(parts[0])) {
+                    try {
+                        LabOrderData order = decode(parts);
+                        putEntry(parts[1], new Entry(order, Long.parseLong(parts[2])));
+                    } catch (NumberFormatException ex) {
+                        // Skip a line cut short by a crash
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            log("OfflineOrderCache: Error reading " + cacheFile + ": " + ex.getMessage());
+        } finally {
+            closeQuietly(reader);
+        }
+        int dropped = evict(System.currentTimeMillis());
+        log("OfflineOrderCache: Loaded " + entries.size() + " unsent orders from " + cacheFile
+                + (dropped > 0 ? " (" + dropped + " evicted)" : ""));
+        if (dropped > 0 || fileLines > 2 * entries.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Record fetched orders; an order fetched again replaces the cached copy if
+     * it changed. Orders that eviction would drop straight away (past the
+     * retention, or older than everything in a full cache) are not cached, so
+     * a poll that lists the same orders again writes nothing.
+     */
+    public synchronized void putAll(List<LabOrderData> orders) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long oldestCached = -1;
+        StringBuilder lines = new StringBuilder();
+        for (LabOrderData order : orders) {
+            String key = SentOrderIndex.keyOf(order);
+            Entry cached = entries.get(key);
+            if (cached != null && Arrays.equals(fieldsOf(cached.order), fieldsOf(order))) {
+                continue;
+            }
+            long acceptedAt = acceptedAt(order, now);
+            if (now - acceptedAt > retentionMs) {
+                continue;
+            }
+            if (cached == null && entries.size() >= maxOrders) {
+                if (oldestCached < 0) {
+                    oldestCached = oldestAcceptedAt();
+                }
+                if (acceptedAt <= oldestCached) {
+                    continue;
+                }
+            }
+            Entry entry = new Entry(order, acceptedAt);
+            putEntry(key, entry);
+            encode(lines, key, entry);
+        }
+        if (lines.length() == 0) {
+            return;
+        }
+        append(lines.toString());
+        int dropped = evict(now);
+        if (dropped > 0 || fileLines > 2 * entries.size() + 100) {
+            compact();
+        }
+    }
+
+    /**
+     * Drop orders that reached the analyzer
+     */
+    public synchronized void remove(List<LabOrderData> orders) {
+        StringBuilder lines = new StringBuilder();
+        for (LabOrderData order : orders) {
+            String key = SentOrderIndex.keyOf(order);
+            if (removeEntry(key)) {
+                lines.append(REMOVE).append(SEPARATOR).append(key).append("\n");
+                fileLines++;
+            }
+        }
+        if (lines.length() > 0) {
+            append(lines.toString());
+        }
+    }
+
+    /**
+     * Drop cached orders the LIS no longer lists (cancelled or sent elsewhere)
+     * @param listed Keys (SentOrderIndex.keyOf) of every order in a complete fetch
+     */
+    public synchronized void retain(Set<String> listed) {
+        List<LabOrderData> gone = new ArrayList<LabOrderData>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (!listed.contains(entry.getKey())) {
+                gone.add(entry.getValue().order);
+            }
+        }
+        if (!gone.isEmpty()) {
+            log("OfflineOrderCache: Dropping " + gone.size() + " orders no longer listed by the LIS");
+            remove(gone);
+        }
+    }
+
+    /**
+     * The cached orders, oldest fetch first, for serving while the LIS is unavailable
+     */
+    public synchronized List<LabOrderData> getOrders() {
+        evict(System.currentTimeMillis());
+        List<LabOrderData> orders = new ArrayList<LabOrderData>(entries.size());
+        for (Entry entry : entries.values()) {
+            orders.add(entry.order);
+        }
+        served += orders.size();
+        return orders;
+    }
+
+    /**
+     * Cached orders of one sample
+     */
+    public synchronized List<LabOrderData> getBySampleId(String sampleId) {
+        Set<String> keys = bySample.get(trim(sampleId));
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        List<LabOrderData> orders = new ArrayList<LabOrderData>(keys.size());
+        for (String key : keys) {
+            orders.add(entries.get(key).order);
+        }
+        return orders;
+    }
+
+    public synchronized boolean containsSample(String sampleId) {
+        return bySample.containsKey(trim(sampleId));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized String getStatistics() {
+        return "cached " + entries.size() + ", served while offline " + served + ", evicted " + evicted;
+    }
+
+    private void putEntry(String key, Entry entry) {
+        entries.remove(key);
+        entries.put(key, entry);
+        String sampleId = trim(entry.order.getSampleId());
+        Set<String> keys = bySample.get(sampleId);
+        if (keys == null) {
+            keys = new LinkedHashSet<String>();
+            bySample.put(sampleId, keys);
+        }
+        keys.add(key);
+    }
+
+    private boolean removeEntry(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        String sampleId = trim(entry.order.getSampleId());
+        Set<String> keys = bySample.get(sampleId);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                bySample.remove(sampleId);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drop orders past the retention, then the oldest accepted ones beyond the size cap
+     * @return number of orders dropped (the file is compacted by the caller)
+     */
+    private int evict(long now) {
+        List<String> dropped = new ArrayList<String>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (now - entry.getValue().acceptedAt > retentionMs) {
+                dropped.add(entry.getKey());
+            }
+        }
+        int surplus = entries.size() - dropped.size() - maxOrders;
+        if (surplus > 0) {
+            List<Map.Entry<String, Entry>> byAge = new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+            Collections.sort(byAge, new Comparator<Map.Entry<String, Entry>>() {
+                public int compare(Map.Entry<String, Entry> a, Map.Entry<String, Entry> b) {
+                    return a.getValue().acceptedAt < b.getValue().acceptedAt ? -1
+                        : a.getValue().acceptedAt > b.getValue().acceptedAt ? 1 : 0;
+                }
+            });
+            for (Map.Entry<String, Entry> entry : byAge) {
+                if (surplus == 0) {
+                    break;
+                }
+                if (now - entry.getValue().acceptedAt <= retentionMs) {
+                    dropped.add(entry.getKey());
+                    surplus--;
+                }
+            }
+        }
+        for (String key : dropped) {
+            removeEntry(key);
+        }
+        evicted += dropped.size();
+        return dropped.size();
+    }
+
+    private long oldestAcceptedAt() {
+        long oldest = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            oldest = Math.min(oldest, entry.acceptedAt);
+        }
+        return oldest;
+    }
+
+    /**
+     * acceptanceDate as epoch ms (local midnight), or the given time if it is not a date
+     */
+    static long acceptedAt(LabOrderData order, long fallback) {
+        String date = order.getAcceptanceDate() != null ? DateNormalizer.toDate(order.getAcceptanceDate()) : "";
+        if (date.length() != 8) {
+            return fallback;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(Integer.parseInt(date.substring(0, 4)), Integer.parseInt(date.substring(4, 6)) - 1,
+                Integer.parseInt(date.substring(6, 8)));
+        return calendar.getTimeInMillis();
+    }
+
+    private void encode(StringBuilder lines, String key, Entry entry) {
+        LabOrderData order = entry.order;
+        lines.append(PUT).append(SEPARATOR).append(key).append(SEPARATOR).append(entry.acceptedAt);
+        for (String field : fieldsOf(order)) {
+            lines.append(SEPARATOR).append(escape(field));
+        }
+        lines.append("\n");
+        fileLines++;
+    }
+
+    /**
+     * The stored fields of an order, in file order
+     */
+    private static String[] fieldsOf(LabOrderData order) {
+        return new String[] {
+            order.getSampleId(), order.getInvestigationCode(), order.getMrn(), order.getAcceptanceDate(),
+            order.getMachineCode(), order.getPatientId(), order.getPatientName(), order.getPatientSex(),
+            order.getPatientBirthDate(), order.getOrderId(), order.getTestType(), order.getTestDescription(),
+            order.getOrderDateTime(), order.getSpecimenType(), order.getPriority()
+        };
+    }
+
+    private static LabOrderData decode(String[] parts) {
+        LabOrderData order = new LabOrderData();
+        int i = 3;
+        order.setSampleId(unescape(parts[i++]));
+        order.setInvestigationCode(unescape(parts[i++]));
+        order.setMrn(unescape(parts[i++]));
+        order.setAcceptanceDate(unescape(parts[i++]));
+        order.setMachineCode(unescape(parts[i++]));
+        order.setPatientId(unescape(parts[i++]));
+        order.setPatientName(unescape(parts[i++]));
+        order.setPatientSex(unescape(parts[i++]));
+        order.setPatientBirthDate(unescape(parts[i++]));
+        order.setOrderId(unescape(parts[i++]));
+        order.setTestType(unescape(parts[i++]));
+        order.setTestDescription(unescape(parts[i++]));
+        order.setOrderDateTime(unescape(parts[i++]));
+        order.setSpecimenType(unescape(parts[i++]));
+        order.setPriority(unescape(parts[i]));
+        return order;
+    }
+
+    /**
+     * Null as \0, and backslash, tab and line breaks escaped so an order stays on one line
+     */
+    private static String escape(String value) {
+        if (value == null) {
+            return "\\0";
+        }
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = c == '\\' ? "\\\\" : c == '\t' ? "\\t" : c == '\n' ? "\\n" : c == '\r' ? "\\r" : null;
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null && replacement != null) {
+                escaped.append(replacement);
+            } else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return escaped != null ? escaped.toString() : value;
+    }
+
+    private static String unescape(String value) {
+        if ("\\0".equals(value)) {
+            return null;
+        }
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder plain = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                plain.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                plain.append(c);
+            }
+        }
+        return plain.toString();
+    }
+
+    private void append(String lines) {
+        Writer writer = null;
+        try {
+            File folder = cacheFile.getParentFile();
+            if (folder != null && !folder.exists()) {
+                folder.mkdirs();
+            }
+            writer = new OutputStreamWriter(new FileOutputStream(cacheFile, true), "UTF-8");
+            writer.write(lines);
+        } catch (IOException ex) {
+            log("OfflineOrderCache: Error writing " + cacheFile + ": " + ex.getMessage());
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Rewrite the file with only the cached orders. The new file replaces the
+     * old one in a single atomic rename, so a crash leaves one or the other.
+     */
+    private void compact() {
+        File temp = new File(cacheFile.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            File folder = cacheFile.getParentFile();
+            if (folder != null && !folder.exists()) {
+                folder.mkdirs();
+            }
+            StringBuilder lines = new StringBuilder();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                encode(lines, entry.getKey(), entry.getValue());
+            }
+            writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            writer.write(lines.toString());
+            writer.close();
+            writer = null;
+            Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fileLines = entries.size();
+        } catch (IOException ex) {
+            log("OfflineOrderCache: Error compacting " + cacheFile + ": " + ex.getMessage());
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private static String trim(String value) {
+        return value != null ? value.trim() : "";
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+
+    private void log(String message) {
+        LabConnectUtil.log(message);
+    }
+}
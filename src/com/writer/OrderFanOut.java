@@ -0,0 +1,205 @@
+package com.writer;
+
+import java.util.*;
+import javax.ws.rs.core.MediaType;
+import org.apache.cxf.jaxrs.client.WebClient;
+import org.codehaus.jackson.map.ObjectMapper;
+import com.reader.LabConnectUtil;
+
+/**
+ * Lets one process poll the LIS for several analyzers.
+ *
+ * The local analyzer's machine code and every fan-out target's code go into one
+ * getLabOrderRequests call. Orders for the local analyzer are returned to the
+ * caller. Orders for the other analyzers are forwarded to the push endpoint
+ * (OrderPushServer) of the process that owns each analyzer's port. Those
+ * processes send, acknowledge and deduplicate the orders as if the LIS had
+ * pushed them, so only this process polls the LIS.
+ *
+ * Routing uses each order's machineCode field, so the LIS has to return it.
+ * An order without machineCode is local when only the local code was
+ * requested (every target shares it). Otherwise it cannot be routed: it is
+ * held back unacknowledged and the LIS lists it again with the next poll,
+ * and the first such poll logs an error. Each target's pushes carry its own
+ * API key from fanOutApiKeys, or pushApiKey when it has none.
+ */
+public class OrderFanOut {
+
+    private static final int PUSH_TIMEOUT_MS = 30000;
+
+    private final String localMachineCode;
+    // Machine code -> push URL of the process that owns that analyzer
+    private final Map<String, String> targets;
+    // Machine code -> API_KEY of that target's push endpoint
+    private final Map<String, String> apiKeys;
+    private final String defaultApiKey;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private long forwarded = 0;
+    private long forwardFailures = 0;
+    private long unroutable = 0;
+    private boolean missingCodeReported = false;
+
+    /**
+     * @param apiKeys API key per target machine code
+     * @param defaultApiKey API key for targets without their own (empty for none)
+     */
+    public OrderFanOut(String localMachineCode, Map<String, String> targets, Map<String, String> apiKeys,
+                       String defaultApiKey) {
+        this.localMachineCode = localMachineCode;
+        this.targets = new LinkedHashMap<String, String>(targets);
+        this.apiKeys = new LinkedHashMap<String, String>(apiKeys);
+        this.defaultApiKey = defaultApiKey != null ? defaultApiKey : "";
+    }
+
+    /**
+     * Machine codes to request: the local analyzer first, then the targets
+     */
+    public List<String> getMachineCodes() {
+        List<String> codes = new ArrayList<String>();
+        codes.add(localMachineCode);
+        for (String code : targets.keySet()) {
+            if (!code.equalsIgnoreCase(localMachineCode)) {
+                codes.add(code);
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Forward the orders of other analyzers to their processes
+     * @return the orders for the local analyzer
+     */
+    public List<LabOrderData> route(List<LabOrderData> orders) {
+        List<LabOrderData> local = new ArrayList<LabOrderData>();
+        Map<String, List<LabOrderData>> remote = new LinkedHashMap<String, List<LabOrderData>>();
+        boolean singleCode = getMachineCodes().size() == 1;
+        int withoutCode = 0;
+        int unknownCode = 0;
+        for (LabOrderData order : orders) {
+            String code = order.getMachineCode();
+            if (code == null || code.isEmpty()) {
+                if (singleCode) {
+                    // Only the local analyzer's orders were requested
+                    local.add(order);
+                } else {
+                    withoutCode++;
+                }
+                continue;
+            }
+            if (code.equalsIgnoreCase(localMachineCode)) {
+                local.add(order);
+                continue;
+            }
+            String target = findTarget(code);
+            if (target == null) {
+                unknownCode++;
+                continue;
+            }
+            List<LabOrderData> group = remote.get(target);
+            if (group == null) {
+                group = new ArrayList<LabOrderData>();
+                remote.put(target, group);
+            }
+            group.add(order);
+        }
+        if (withoutCode > 0) {
+            unroutable += withoutCode;
+            if (!missingCodeReported) {
+                missingCodeReported = true;
+                log("OrderFanOut: ERROR the LIS returned orders without machineCode for a request of "
+                    + getMachineCodes() + ". Fan-out cannot route them, so they are never sent: "
+                    + "have the LIS return machineCode or remove fanOutTargets");
+            }
+            log("OrderFanOut: Holding back " + withoutCode + " orders without machineCode");
+        }
+        if (unknownCode > 0) {
+            unroutable += unknownCode;
+            log("OrderFanOut: Holding back " + unknownCode + " orders for machine codes not in fanOutTargets");
+        }
+        for (Map.Entry<String, List<LabOrderData>> group : remote.entrySet()) {
+            forward(group.getKey(), targets.get(group.getKey()), group.getValue());
+        }
+        return local;
+    }
+
+    /**
+     * The configured spelling of a target's machine code
+     */
+    private String findTarget(String code) {
+        for (String target : targets.keySet()) {
+            if (target.equalsIgnoreCase(code)) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    private String apiKeyOf(String code) {
+        for (Map.Entry<String, String> key : apiKeys.entrySet()) {
+            if (key.getKey().equalsIgnoreCase(code)) {
+                return key.getValue();
+            }
+        }
+        return defaultApiKey;
+    }
+
+    /**
+     * POST the orders to a push endpoint in the getLabOrderRequests response format.
+     * A failed forward is not retried here: the orders stay unacknowledged in the
+     * LIS and come back with the next poll.
+     */
+    private void forward(String code, String url, List<LabOrderData> orders) {
+        try {
+            Map<String, Object> body = new LinkedHashMap<String, Object>();
+            body.put("success", Boolean.TRUE);
+            List<Map<String, String>> data = new ArrayList<Map<String, String>>(orders.size());
+            for (LabOrderData order : orders) {
+                data.add(toApiFields(order));
+            }
+            body.put("data", data);
+
+            WebClient client = WebClient.create(url);
+            WebClient.getConfig(client).getHttpConduit().getClient().setReceiveTimeout(PUSH_TIMEOUT_MS);
+            WebClient.getConfig(client).getHttpConduit().getClient().setConnectionTimeout(PUSH_TIMEOUT_MS);
+            client.type(MediaType.APPLICATION_JSON);
+            client.accept(MediaType.APPLICATION_JSON);
+            String apiKey = apiKeyOf(code);
+            if (!apiKey.isEmpty()) {
+                client.header("API_KEY", apiKey);
+            }
+            String response = client.post(objectMapper.writeValueAsString(body), String.class);
+            forwarded += orders.size();
+            log("OrderFanOut: Forwarded " + orders.size() + " orders to " + url + ": " + response);
+        } catch (Exception ex) {
+            forwardFailures += orders.size();
+            log("OrderFanOut: Failed to forward " + orders.size() + " orders to " + url + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * The order in the API's field names, so the receiving process parses it like an LIS response
+     */
+    private static Map<String, String> toApiFields(LabOrderData order) {
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        fields.put("sampleID", order.getSampleId());
+        fields.put("investigationCode", order.getInvestigationCode());
+        fields.put("investigationName", order.getTestDescription());
+        fields.put("patientName", order.getPatientName());
+        fields.put("patientDOB", order.getPatientBirthDate());
+        fields.put("gender", order.getPatientSex());
+        fields.put("mrn", order.getMrn());
+        fields.put("acceptanceDate", order.getAcceptanceDate());
+        fields.put("priority", order.getPriority());
+        fields.put("machineCode", order.getMachineCode());
+        return fields;
+    }
+
+    public String getStatistics() {
+        return "forwarded " + forwarded + ", forward failures " + forwardFailures + ", unroutable " + unroutable;
+    }
+
+    private static void log(String message) {
+        LabConnectUtil.log(message);
+    }
+}
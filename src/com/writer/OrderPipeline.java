@@ -0,0 +1,336 @@
+package com.writer;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.reader.LabConnectUtil;
+import com.connector.LinkTransport;
+import com.connector.SessionThreads;
+
+/**
+ * Staged order writer: fetch, encode, transmit and acknowledge run on their own
+ * threads, joined by bounded queues.
+ *
+ * The fetch stage is the connector's polling loop, which hands new orders to
+ * submit(). The encode stage turns them into worklist sessions while the link is
+ * still busy with the previous one, the transmit stage owns the link, and the
+ * ack stage posts each session's acknowledgment as soon as it is on the wire.
+ * A full queue blocks the stage in front of it, so a slow analyzer holds back
+ * fetching instead of filling the heap. Orders wait for encoding in an
+ * OrderPriorityQueue, so STAT orders overtake a routine backlog.
+ */
+public class OrderPipeline {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 100;
+
+    /**
+     * Records the outcome of a transmitted session (sent order index, LIS acknowledgment)
+     */
+    public interface Acknowledger {
+        void onSessionComplete(List<LabOrderData> orders, boolean success);
+    }
+
+    /**
+     * Queue and counters of one stage
+     */
+    private static class Stage<T> {
+        final String name;
+        final BlockingQueue<T> queue;
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+
+        Stage(String name, int capacity) {
+            this(name, new ArrayBlockingQueue<T>(capacity));
+        }
+
+        Stage(String name, BlockingQueue<T> queue) {
+            this.name = name;
+            this.queue = queue;
+        }
+    }
+
+    /**
+     * Orders a submitAndWait caller waits for: one permit per order acknowledged
+     */
+    private static class Waiter {
+        final Semaphore done = new Semaphore(0);
+        volatile boolean failed;
+    }
+
+    /**
+     * Encoded session and the orders inside it; encoded is null if encoding failed
+     */
+    private static class Session {
+        final List<LabOrderData> orders;
+        final RS232DataWriter.EncodedSession encoded;
+        boolean success;
+
+        Session(List<LabOrderData> orders, RS232DataWriter.EncodedSession encoded) {
+            this.orders = orders;
+            this.encoded = encoded;
+        }
+    }
+
+    private final RS232DataWriter writer;
+    private final LinkTransport link;
+    private final int ordersPerSession;
+    private final Acknowledger acknowledger;
+
+    private final OrderPriorityQueue priorityQueue;
+    private final Stage<LabOrderData> encodeStage;
+    private final Stage<Session> transmitStage;
+    private final Stage<Session> ackStage;
+    // Orders between submit() and their acknowledgment, so a refetch does not queue them twice
+    private final Set<String> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Map<String, Waiter> waiters = new ConcurrentHashMap<String, Waiter>();
+
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private volatile boolean running = false;
+    private long startedAt;
+
+    /**
+     * @param ordersPerSession Orders grouped into one link session (0 = one session per order)
+     * @param priorityAgingMs Wait after which a routine order goes ahead of STAT orders
+     */
+    public OrderPipeline(RS232DataWriter writer, LinkTransport link, int ordersPerSession,
+                         int queueCapacity, long priorityAgingMs, Acknowledger acknowledger) {
+        int capacity = queueCapacity > 0 ? queueCapacity : DEFAULT_QUEUE_CAPACITY;
+        this.writer = writer;
+        this.link = link;
+        this.ordersPerSession = ordersPerSession > 0 ? ordersPerSession : 1;
+        this.acknowledger = acknowledger;
+        this.priorityQueue = new OrderPriorityQueue(capacity, priorityAgingMs);
+        this.encodeStage = new Stage<LabOrderData>("encode", priorityQueue);
+        // One session encoded ahead keeps the link busy; the backlog waits in the priority queue
+        this.transmitStage = new Stage<Session>("transmit", 1);
+        this.ackStage = new Stage<Session>("ack", capacity);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        startedAt = System.nanoTime();
+        workers.add(SessionThreads.start("OrderPipeline-encode", new Runnable() {
+            public void run() {
+                encodeLoop();
+            }
+        }));
+        workers.add(SessionThreads.start("OrderPipeline-transmit", new Runnable() {
+            public void run() {
+                transmitLoop();
+            }
+        }));
+        workers.add(SessionThreads.start("OrderPipeline-ack", new Runnable() {
+            public void run() {
+                ackLoop();
+            }
+        }));
+        log("OrderPipeline: Started, queue capacity " + encodeStage.queue.remainingCapacity()
+            + ", " + ordersPerSession + " orders per session");
+    }
+
+    public synchronized void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        workers.clear();
+        log("OrderPipeline: Stopped. " + getStatistics());
+    }
+
+    /**
+     * Fetch stage entry: queue orders for encoding, blocking while the encode queue is full
+     * @return number of orders queued; orders already in the pipeline are skipped
+     */
+    public int submit(List<LabOrderData> orders) throws InterruptedException {
+        return submit(orders, null);
+    }
+
+    /**
+     * Like submit(), then wait until the queued orders are transmitted and
+     * acknowledged, so a chunked fetch finishes one chunk before the next
+     * @return number of orders queued, or -1 if any of them failed or the pipeline stopped
+     */
+    public int submitAndWait(List<LabOrderData> orders) throws InterruptedException {
+        Waiter waiter = new Waiter();
+        int queued = submit(orders, waiter);
+        while (!waiter.done.tryAcquire(queued, 1, TimeUnit.SECONDS)) {
+            if (!running) {
+                return -1;
+            }
+        }
+        return waiter.failed ? -1 : queued;
+    }
+
+    private int submit(List<LabOrderData> orders, Waiter waiter) throws InterruptedException {
+        long start = System.nanoTime();
+        int queued = 0;
+        for (LabOrderData order : orders) {
+            String key = SentOrderIndex.keyOf(order);
+            if (inFlight.add(key)) {
+                if (waiter != null) {
+                    waiters.put(key, waiter);
+                }
+                try {
+                    encodeStage.queue.put(order);
+                } catch (InterruptedException ex) {
+                    inFlight.remove(key);
+                    waiters.remove(key);
+                    throw ex;
+                }
+                queued++;
+            }
+        }
+        if (queued < orders.size()) {
+            log("OrderPipeline: Skipped " + (orders.size() - queued) + " orders still in the pipeline");
+        }
+        log("OrderPipeline: Queued " + queued + " orders in " + ((System.nanoTime() - start) / 1000000) + " ms");
+        return queued;
+    }
+
+    /**
+     * Whether an order with this sample and investigation is queued or being sent
+     */
+    public boolean isInFlight(LabOrderData order) {
+        return inFlight.contains(SentOrderIndex.keyOf(order));
+    }
+
+    private void encodeLoop() {
+        List<LabOrderData> batch = new ArrayList<LabOrderData>(ordersPerSession);
+        while (running) {
+            List<LabOrderData> orders = null;
+            try {
+                LabOrderData first = encodeStage.queue.take();
+                long start = System.nanoTime();
+                batch.add(first);
+                // Group whatever is already waiting into the same session
+                encodeStage.queue.drainTo(batch, ordersPerSession - 1);
+                orders = new ArrayList<LabOrderData>(batch);
+                batch.clear();
+                Session session;
+                try {
+                    session = new Session(orders, writer.encodeWorklistSession(orders, null));
+                } catch (Exception ex) {
+                    log("OrderPipeline: Encode failed for " + orders.size() + " orders: " + ex);
+                    session = new Session(orders, null);
+                }
+                encodeStage.processed.addAndGet(orders.size());
+                encodeStage.busyNanos.addAndGet(System.nanoTime() - start);
+                if (session.encoded != null) {
+                    transmitStage.queue.put(session);
+                } else {
+                    // Acknowledge the batch as failed so its orders leave the pipeline and are fetched again
+                    ackStage.queue.put(session);
+                }
+            } catch (InterruptedException ex) {
+                if (orders != null) {
+                    // Not handed on: let a later fetch queue these orders again
+                    release(orders, false);
+                }
+                break;
+            }
+        }
+    }
+
+    private void transmitLoop() {
+        while (running) {
+            try {
+                Session session = transmitStage.queue.take();
+                long start = System.nanoTime();
+                session.success = writer.transmitSession(link, session.encoded);
+                transmitStage.processed.addAndGet(session.orders.size());
+                transmitStage.busyNanos.addAndGet(System.nanoTime() - start);
+                if (!session.success) {
+                    // The link is down or busy: fail what is already encoded, like the sequential writer stops a batch
+                    List<Session> pending = new ArrayList<Session>();
+                    transmitStage.queue.drainTo(pending);
+                    log("OrderPipeline: Transmission failed, failing " + pending.size() + " more queued sessions");
+                    ackStage.queue.put(session);
+                    for (Session failed : pending) {
+                        ackStage.queue.put(failed);
+                    }
+                    continue;
+                }
+                ackStage.queue.put(session);
+            } catch (InterruptedException ex) {
+                break;
+            }
+        }
+    }
+
+    private void ackLoop() {
+        while (running) {
+            Session session;
+            try {
+                session = ackStage.queue.take();
+            } catch (InterruptedException ex) {
+                break;
+            }
+            long start = System.nanoTime();
+            try {
+                acknowledger.onSessionComplete(session.orders, session.success);
+            } catch (Exception ex) {
+                log("OrderPipeline: Acknowledgment failed: " + ex);
+            } finally {
+                release(session.orders, session.success);
+                ackStage.processed.addAndGet(session.orders.size());
+                ackStage.busyNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void release(List<LabOrderData> orders, boolean success) {
+        for (LabOrderData order : orders) {
+            String key = SentOrderIndex.keyOf(order);
+            inFlight.remove(key);
+            Waiter waiter = waiters.remove(key);
+            if (waiter != null) {
+                if (!success) {
+                    waiter.failed = true;
+                }
+                waiter.done.release();
+            }
+        }
+    }
+
+    public int getQueueDepth(String stageName) {
+        for (Stage<?> stage : stages()) {
+            if (stage.name.equals(stageName)) {
+                return stage.queue.size();
+            }
+        }
+        return -1;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Queue depth, orders processed and busy share of the elapsed time for each stage
+     */
+    public String getStatistics() {
+        double elapsed = Math.max(1, System.nanoTime() - startedAt);
+        StringBuilder statistics = new StringBuilder("In flight: ").append(inFlight.size());
+        for (Stage<?> stage : stages()) {
+            statistics.append(String.format(", %s: queue %d, %d orders, %.0f%% busy", stage.name,
+                stage.queue.size(), stage.processed.get(), stage.busyNanos.get() * 100 / elapsed));
+        }
+        statistics.append(". ").append(priorityQueue.getStatistics());
+        return statistics.toString();
+    }
+
+    private List<Stage<?>> stages() {
+        return Arrays.<Stage<?>>asList(encodeStage, transmitStage, ackStage);
+    }
+
+    private static void log(String message) {
+        LabConnectUtil.log(message);
+    }
+}
@@ -0,0 +1,292 @@
+package com.writer;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded blocking queue of orders waiting to go to the analyzer, STAT first.
+ *
+ * STAT and routine orders wait in two FIFO lanes. take() serves the STAT lane
+ * unless the oldest routine order has waited longer than the aging time, so a
+ * steady stream of STAT orders cannot starve routine work. Wait time from put
+ * to take is recorded per priority class.
+ */
+public class OrderPriorityQueue extends AbstractQueue<LabOrderData> implements BlockingQueue<LabOrderData> {
+
+    public static final String STAT = "STAT";
+    public static final String ROUTINE = "ROUTINE";
+    public static final long DEFAULT_AGING_MS = 120000;
+
+    private static class Entry {
+        final LabOrderData order;
+        final long queuedAt;
+
+        Entry(LabOrderData order, long queuedAt) {
+            this.order = order;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final int capacity;
+    private final long agingNanos;
+    private final ArrayDeque<Entry> statLane = new ArrayDeque<Entry>();
+    private final ArrayDeque<Entry> routineLane = new ArrayDeque<Entry>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // Wait statistics per class: [0] STAT, [1] routine
+    private final long[] taken = new long[2];
+    private final long[] totalWaitNanos = new long[2];
+    private final long[] maxWaitNanos = new long[2];
+    private long agedPromotions;
+
+    public OrderPriorityQueue(int capacity, long agingMs) {
+        this.capacity = capacity > 0 ? capacity : OrderPipeline.DEFAULT_QUEUE_CAPACITY;
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMs > 0 ? agingMs : DEFAULT_AGING_MS);
+    }
+
+    public static boolean isStat(LabOrderData order) {
+        return order.getPriority() != null && STAT.equalsIgnoreCase(order.getPriority().trim());
+    }
+
+    /**
+     * Stable reorder of one batch with STAT orders first, for the sequential writer
+     */
+    public static List<LabOrderData> statFirst(List<LabOrderData> orders) {
+        List<LabOrderData> sorted = new ArrayList<LabOrderData>(orders.size());
+        for (LabOrderData order : orders) {
+            if (isStat(order)) {
+                sorted.add(order);
+            }
+        }
+        if (sorted.isEmpty() || sorted.size() == orders.size()) {
+            return orders;
+        }
+        for (LabOrderData order : orders) {
+            if (!isStat(order)) {
+                sorted.add(order);
+            }
+        }
+        return sorted;
+    }
+
+    @Override
+    public boolean offer(LabOrderData order) {
+        lock.lock();
+        try {
+            if (count() >= capacity) {
+                return false;
+            }
+            enqueue(order);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(LabOrderData order) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count() >= capacity) {
+                notFull.await();
+            }
+            enqueue(order);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(LabOrderData order, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(order);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LabOrderData take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count() == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LabOrderData poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count() == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LabOrderData poll() {
+        lock.lock();
+        try {
+            return count() == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LabOrderData peek() {
+        lock.lock();
+        try {
+            Entry next = nextLane(System.nanoTime()).peekFirst();
+            return next != null ? next.order : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super LabOrderData> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super LabOrderData> target, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && count() > 0) {
+                target.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Snapshot iterator in lane order (STAT lane, then routine)
+     */
+    @Override
+    public Iterator<LabOrderData> iterator() {
+        lock.lock();
+        try {
+            List<LabOrderData> snapshot = new ArrayList<LabOrderData>(count());
+            for (Entry entry : statLane) {
+                snapshot.add(entry.order);
+            }
+            for (Entry entry : routineLane) {
+                snapshot.add(entry.order);
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waiting orders, average and maximum wait per priority class
+     */
+    public String getStatistics() {
+        lock.lock();
+        try {
+            return String.format("STAT: %d waiting, %d sent, wait avg %d / max %d ms; ROUTINE: %d waiting, %d sent, wait avg %d / max %d ms, %d aged ahead of STAT",
+                statLane.size(), taken[0], averageMs(0), TimeUnit.NANOSECONDS.toMillis(maxWaitNanos[0]),
+                routineLane.size(), taken[1], averageMs(1), TimeUnit.NANOSECONDS.toMillis(maxWaitNanos[1]), agedPromotions);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long averageMs(int lane) {
+        return taken[lane] == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos[lane] / taken[lane]);
+    }
+
+    private int count() {
+        return statLane.size() + routineLane.size();
+    }
+
+    private void enqueue(LabOrderData order) {
+        if (order == null) {
+            throw new NullPointerException();
+        }
+        (isStat(order) ? statLane : routineLane).addLast(new Entry(order, System.nanoTime()));
+        notEmpty.signal();
+    }
+
+    /**
+     * STAT lane first, unless the oldest routine order has aged past the limit
+     */
+    private ArrayDeque<Entry> nextLane(long now) {
+        if (statLane.isEmpty()) {
+            return routineLane;
+        }
+        Entry oldestRoutine = routineLane.peekFirst();
+        if (oldestRoutine != null && now - oldestRoutine.queuedAt >= agingNanos) {
+            return routineLane;
+        }
+        return statLane;
+    }
+
+    private LabOrderData dequeue() {
+        long now = System.nanoTime();
+        ArrayDeque<Entry> lane = nextLane(now);
+        if (lane == routineLane && !statLane.isEmpty()) {
+            agedPromotions++;
+        }
+        Entry entry = lane.pollFirst();
+        int index = lane == statLane ? 0 : 1;
+        long wait = now - entry.queuedAt;
+        taken[index]++;
+        totalWaitNanos[index] += wait;
+        maxWaitNanos[index] = Math.max(maxWaitNanos[index], wait);
+        notFull.signal();
+        return entry.order;
+    }
+}
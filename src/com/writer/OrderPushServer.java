@@ -0,0 +1,153 @@
+package com.writer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import com.reader.LabConnectUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP endpoint through which the LIS (or a local stand-in) pushes
+ * orders instead of waiting to be polled.
+ *
+ * POST [pushPath] with a body in the getLabOrderRequests response format
+ * ({"success":true,"data":[...]}). The orders are queued in the ApiDataProvider
+ * and the writer loop is woken, so they reach the analyzer within milliseconds.
+ * Polling keeps running at a long interval as a reconciliation sweep.
+ */
+public class OrderPushServer {
+
+    public static final int DEFAULT_PORT = 8089;
+    public static final String DEFAULT_PATH = "/orders";
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+    private final String bindAddress;
+    private final int port;
+    private final String path;
+    private final String apiKey;
+    private final ApiDataProvider dataProvider;
+    private final DataWriterConnector connector;
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile long pushedOrders = 0;
+
+    /**
+     * @param apiKey Value the API_KEY header must carry, empty to accept any request
+     */
+    public OrderPushServer(String bindAddress, int port, String path, String apiKey,
+                           ApiDataProvider dataProvider, DataWriterConnector connector) {
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.path = path;
+        this.apiKey = apiKey != null ? apiKey : "";
+        this.dataProvider = dataProvider;
+        this.connector = connector;
+    }
+
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.createContext(path, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handlePush(exchange);
+            }
+        });
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "OrderPushServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        log("OrderPushServer: Listening on " + bindAddress + ":" + getPort() + path);
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(1);
+            server = null;
+            executor.shutdown();
+            log("OrderPushServer: Stopped after " + pushedOrders + " pushed orders");
+        }
+    }
+
+    /**
+     * Bound port (useful when started with port 0)
+     */
+    public synchronized int getPort() {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+
+    public long getPushedOrderCount() {
+        return pushedOrders;
+    }
+
+    private void handlePush(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                respond(exchange, 405, "{\"success\":false,\"error\":\"POST required\"}");
+                return;
+            }
+            if (!apiKey.isEmpty() && !apiKey.equals(exchange.getRequestHeaders().getFirst("API_KEY"))) {
+                log("OrderPushServer: Rejected push from " + exchange.getRemoteAddress() + " (bad API_KEY)");
+                respond(exchange, 401, "{\"success\":false,\"error\":\"invalid API_KEY\"}");
+                return;
+            }
+            String body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                respond(exchange, 413, "{\"success\":false,\"error\":\"request too large\"}");
+                return;
+            }
+            int accepted = dataProvider.pushOrderResponse(body);
+            if (accepted < 0) {
+                respond(exchange, 400, "{\"success\":false,\"error\":\"not a getLabOrderRequests response\"}");
+                return;
+            }
+            pushedOrders += accepted;
+            log("OrderPushServer: Accepted " + accepted + " pushed orders from " + exchange.getRemoteAddress());
+            if (accepted > 0) {
+                connector.onOrdersPushed(accepted);
+            }
+            respond(exchange, 200, "{\"success\":true,\"accepted\":" + accepted + "}");
+        } catch (Exception ex) {
+            log("OrderPushServer: Error handling push: " + ex.getMessage());
+            respond(exchange, 500, "{\"success\":false,\"error\":\"internal error\"}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            body.write(buffer, 0, read);
+            if (body.size() > MAX_BODY_BYTES) {
+                return null;
+            }
+        }
+        return body.toString("UTF-8");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private void log(String message) {
+        LabConnectUtil.log(message);
+    }
+}
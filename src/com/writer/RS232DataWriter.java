@@ -1,17 +1,62 @@
 package com.writer;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
-import jssc.SerialPort;
-import jssc.SerialPortException;
+import com.connector.LinkArbiter;
+import com.connector.LinkTransport;
+import com.connector.SerialLinkTransport;
 import com.reader.LabConnectUtil;
 
 /**
- * RS232 Data Writer class for sending simple RS232 messages to serial port
- * without ASTM protocol overhead
+ * RS232 Data Writer class for sending the worklist segments to the analyzer.
+ *
+ * With ASTM framing every session bids with ENQ and waits for the analyzer's
+ * ACK, sends each segment as maxFrameSize frames (ETB/ETX, checksum, frame
+ * number mod 8) that are each acknowledged or retransmitted on NAK, and ends
+ * with EOT. The legacy format writes ENQ ACK STX segment ACK ETX .. EOT in one
+ * go without waiting for replies, paced by fixed gaps unless CTS flow control
+ * is on.
  */
 public class RS232DataWriter {
 
+    /**
+     * A worklist session ready for the link
+     */
+    public static class EncodedSession {
+        final byte[] bytes;
+        // End offset of every ASTM frame in bytes, null for the legacy single write
+        final int[] frameEnds;
+        final int orderCount;
+
+        EncodedSession(byte[] bytes, int[] frameEnds, int orderCount) {
+            this.bytes = bytes;
+            this.frameEnds = frameEnds;
+            this.orderCount = orderCount;
+        }
+
+        public int length() {
+            return bytes.length;
+        }
+
+        public int getFrameCount() {
+            return frameEnds != null ? frameEnds.length : 0;
+        }
+    }
+
+    // Gaps the legacy format leaves when nothing else paces it (no CTS flow control)
+    private static final long LEGACY_LINE_GAP_MS = 50;
+    private static final long LEGACY_ORDER_GAP_MS = 100;
+
     private boolean isConnected = false;
+    private final ASTMFrameEncoder frameEncoder;
+    private final boolean astmFraming;
+
+    // Reused for every worklist session, grows to the largest batch sent
+    private byte[] worklistBuffer = new byte[4096];
+    private int worklistLength = 0;
+    private int[] frameEnds = new int[16];
+    private int frameCount = 0;
 
     // Simple RS232 Control Characters
     private static final byte STX = 0x02;  // Start of Text
@@ -22,7 +67,27 @@ public class RS232DataWriter {
     private static final byte ACK = 0x06;  // Acknowledgement
     private static final byte EOT = 0x04;  // End of Transmission
 
+    // How long a transmission waits for the analyzer to raise CTS
+    private static final long CLEAR_TO_SEND_TIMEOUT_MS = 30000;
+
+    /**
+     * Legacy format, as used by the demo and benchmark writers
+     */
     public RS232DataWriter() {
+        this(ASTMFrameEncoder.DEFAULT_MAX_FRAME_SIZE, false);
+    }
+
+    /**
+     * @param maxFrameSize Largest frame in bytes (maxFrameSize property)
+     * @param astmFraming true for acknowledged ASTM frames, false for the legacy format
+     */
+    public RS232DataWriter(int maxFrameSize, boolean astmFraming) {
+        this.frameEncoder = new ASTMFrameEncoder(maxFrameSize);
+        this.astmFraming = astmFraming;
+    }
+
+    public boolean isAstmFraming() {
+        return astmFraming;
     }
 
     /**
@@ -30,8 +95,8 @@ public class RS232DataWriter {
      * @param rs232Message Complete RS232 message
      * @return true if message sent successfully
      */
-    public boolean sendRS232Message(RS232Message rs232Message, SerialPort serialPort) {
-        if (serialPort == null) {
+    public boolean sendRS232Message(RS232Message rs232Message, LinkTransport link) {
+        if (link == null) {
             log("RS232DataWriter: Port not found");
             return false;
         }
@@ -57,17 +122,11 @@ public class RS232DataWriter {
                 String messageLine = messageLines.get(i);
                 log("RS232DataWriter: Sending line " + (i + 1) + ": " + messageLine);
 
-                if (!sendRS232Line(messageLine, serialPort)) {
+                if (!sendRS232Line(messageLine, link)) {
                     log("RS232DataWriter: Failed to send line " + (i + 1));
                     return false;
                 }
-
-                // Small delay between lines
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    // Continue
-                }
+                pace(link, LEGACY_LINE_GAP_MS);
             }
 
             log("RS232DataWriter: RS232 transmission completed successfully");
@@ -83,7 +142,7 @@ public class RS232DataWriter {
      * Send individual RS232 line
      * @param messageLine RS232 message line
      */
-    private boolean sendRS232Line(String messageLine, SerialPort serialPort) throws SerialPortException {
+    private boolean sendRS232Line(String messageLine, LinkTransport link) throws IOException, InterruptedException {
         // Create simple frame: STX + messageLine + ETX + CR + LF
         StringBuilder frameBuilder = new StringBuilder();
         frameBuilder.append((char) ENQ);
@@ -100,17 +159,16 @@ public class RS232DataWriter {
         log("RS232DataWriter: Sending frame: " + completeFrame.replace("\r", "\\r").replace("\n", "\\n"));
 
         // Send frame
-        serialPort.writeBytes(completeFrame.getBytes());
-
-        return true;
+        byte[] frameBytes = completeFrame.getBytes();
+        return sendSession(link, frameBytes, frameBytes.length);
     }
 
     /**
      * Send simple string without protocol framing (for basic RS232 communication)
      * @param message Simple message string
      */
-    public boolean sendSimpleMessage(String message, SerialPort serialPort) {
-        if (serialPort == null) {
+    public boolean sendSimpleMessage(String message, LinkTransport link) {
+        if (link == null) {
             log("RS232DataWriter: Port not found");
             return false;
         }
@@ -125,7 +183,10 @@ public class RS232DataWriter {
 
             // Send message with just CR+LF termination
             String messageWithTermination = message + (char) CR + (char) LF;
-            serialPort.writeBytes(messageWithTermination.getBytes());
+            byte[] messageBytes = messageWithTermination.getBytes();
+            if (!sendSession(link, messageBytes, messageBytes.length)) {
+                return false;
+            }
 
             log("RS232DataWriter: Simple message sent successfully");
             return true;
@@ -141,8 +202,8 @@ public class RS232DataWriter {
      * Format: mt(3)|pi(16)|pn(40)|pl|si|ci(20)
      * @param labOrderDataList List of lab order data
      */
-    public boolean sendPipeDelimitedMessage(List<LabOrderData> labOrderDataList, SerialPort serialPort) {
-        return sendPipeDelimitedMessage(labOrderDataList, serialPort, null);
+    public boolean sendPipeDelimitedMessage(List<LabOrderData> labOrderDataList, LinkTransport link) {
+        return sendPipeDelimitedMessage(labOrderDataList, link, null);
     }
 
     /**
@@ -151,8 +212,8 @@ public class RS232DataWriter {
      * @param labOrderDataList List of lab order data
      * @param plValue Patient location value (verify on worklist page of BCI software)
      */
-    public boolean sendPipeDelimitedMessage(List<LabOrderData> labOrderDataList, SerialPort serialPort, String plValue) {
-        if (serialPort == null) {
+    public boolean sendPipeDelimitedMessage(List<LabOrderData> labOrderDataList, LinkTransport link, String plValue) {
+        if (link == null) {
             log("RS232DataWriter: Port not found");
             return false;
         }
@@ -162,6 +223,11 @@ public class RS232DataWriter {
             return false;
         }
 
+        if (astmFraming) {
+            // One ENQ..EOT session per order
+            return sendWorklistBatch(labOrderDataList, link, plValue, 1);
+        }
+
         try {
             log("RS232DataWriter: Starting RS232 segment transmission for " + labOrderDataList.size() + " orders");
 
@@ -183,15 +249,11 @@ public class RS232DataWriter {
 //                frameBuilder.append((char) CR);
 //                frameBuilder.append((char) LF);
 
-                String completeFrame = frameBuilder.toString();
-                serialPort.writeBytes(completeFrame.getBytes());
-
-                // Small delay between orders
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    // Continue
+                byte[] frameBytes = frameBuilder.toString().getBytes();
+                if (!sendSession(link, frameBytes, frameBytes.length)) {
+                    return false;
                 }
+                pace(link, LEGACY_ORDER_GAP_MS);
             }
 
             log("RS232DataWriter: RS232 segment transmission completed successfully");
@@ -203,6 +265,222 @@ public class RS232DataWriter {
         }
     }
 
+    /**
+     * Send a worklist as few link sessions: up to ordersPerSession order segments
+     * go inside one ENQ..EOT session, each still framed as STX segment ACK ETX.
+     * A session is encoded to US-ASCII into one reused buffer and written at once.
+     * @param ordersPerSession Maximum orders per session, 0 or less for all in one session
+     */
+    public synchronized boolean sendWorklistBatch(List<LabOrderData> labOrderDataList, LinkTransport link, String plValue, int ordersPerSession) {
+        if (link == null) {
+            log("RS232DataWriter: Port not found");
+            return false;
+        }
+
+        if (labOrderDataList == null || labOrderDataList.isEmpty()) {
+            log("RS232DataWriter: No lab order data to send");
+            return false;
+        }
+
+        int batchSize = ordersPerSession > 0 ? ordersPerSession : labOrderDataList.size();
+        try {
+            log("RS232DataWriter: Starting worklist download of " + labOrderDataList.size() + " orders, up to " + batchSize + " per session");
+
+            for (int start = 0; start < labOrderDataList.size(); start += batchSize) {
+                int end = Math.min(start + batchSize, labOrderDataList.size());
+
+                EncodedSession session = encodeSession(labOrderDataList, start, end, plValue);
+                if (!sendSession(link, session)) {
+                    return false;
+                }
+                log("RS232DataWriter: Sent session with orders " + (start + 1) + "-" + end + " (" + session.length() + " bytes)");
+            }
+
+            log("RS232DataWriter: Worklist download completed successfully");
+            return true;
+
+        } catch (Exception ex) {
+            log("RS232DataWriter: Error during worklist download: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Encode orders as one ENQ..EOT worklist session, for a caller that
+     * transmits it later with transmitSession
+     */
+    public synchronized EncodedSession encodeWorklistSession(List<LabOrderData> labOrderDataList, String plValue) {
+        return encodeSession(labOrderDataList, 0, labOrderDataList.size(), plValue);
+    }
+
+    /**
+     * Transmit a session built by encodeWorklistSession
+     */
+    public boolean transmitSession(LinkTransport link, EncodedSession session) {
+        if (link == null) {
+            log("RS232DataWriter: Port not found");
+            return false;
+        }
+        try {
+            return sendSession(link, session);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log("RS232DataWriter: Session transmission interrupted");
+            return false;
+        } catch (Exception ex) {
+            log("RS232DataWriter: Error during session transmission: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private EncodedSession encodeSession(List<LabOrderData> labOrderDataList, int start, int end, String plValue) {
+        worklistLength = 0;
+        if (astmFraming) {
+            return encodeFrames(labOrderDataList, start, end, plValue);
+        }
+        appendByte(ENQ);
+        appendByte(ACK);
+        for (int i = start; i < end; i++) {
+            appendByte(STX);
+            appendAscii(createRS232SegmentMessage(labOrderDataList.get(i), plValue));
+            appendByte(ACK);
+            appendByte(ETX);
+        }
+        appendByte(EOT);
+        return new EncodedSession(Arrays.copyOf(worklistBuffer, worklistLength), null, end - start);
+    }
+
+    /**
+     * Encode each order segment as one ASTM record; ENQ and EOT are exchanged
+     * by the transmission, so the session holds the frames only
+     */
+    private EncodedSession encodeFrames(List<LabOrderData> labOrderDataList, int start, int end, String plValue) {
+        frameCount = 0;
+        frameEncoder.reset();
+        ASTMFrameEncoder.FrameSink appender = new ASTMFrameEncoder.FrameSink() {
+            public boolean sendFrame(byte[] frame, int length, int frameNumber, boolean last) {
+                ensureWorklistCapacity(length);
+                System.arraycopy(frame, 0, worklistBuffer, worklistLength, length);
+                worklistLength += length;
+                if (frameCount == frameEnds.length) {
+                    frameEnds = Arrays.copyOf(frameEnds, frameEnds.length * 2);
+                }
+                frameEnds[frameCount++] = worklistLength;
+                return true;
+            }
+        };
+        try {
+            for (int i = start; i < end; i++) {
+                frameEncoder.encodeRecord(createRS232SegmentMessage(labOrderDataList.get(i), plValue), appender);
+            }
+        } catch (IOException | InterruptedException ex) {
+            // The appender neither writes nor waits
+            throw new IllegalStateException(ex);
+        }
+        return new EncodedSession(Arrays.copyOf(worklistBuffer, worklistLength), Arrays.copyOf(frameEnds, frameCount), end - start);
+    }
+
+    /**
+     * Send an encoded session: acknowledged frame by frame with ASTM framing,
+     * otherwise as one write followed by the legacy gap
+     */
+    private boolean sendSession(LinkTransport link, EncodedSession session) throws IOException, InterruptedException {
+        if (session.frameEnds == null) {
+            if (!sendSession(link, session.bytes, session.bytes.length)) {
+                return false;
+            }
+            pace(link, LEGACY_ORDER_GAP_MS);
+            return true;
+        }
+        ASTMLinkSession linkSession = new ASTMLinkSession(link, "RS232DataWriter");
+        if (!linkSession.open()) {
+            return false;
+        }
+        try {
+            int frameStart = 0;
+            for (int frameEnd : session.frameEnds) {
+                int frameNumber = session.bytes[frameStart + 1] - '0';
+                // STX FN text ETB|ETX C1 C2 CR LF
+                boolean last = session.bytes[frameEnd - 5] == ETX;
+                if (!linkSession.sendFrame(session.bytes, frameStart, frameEnd - frameStart, frameNumber, last)) {
+                    log("RS232DataWriter: Session of " + session.orderCount + " orders aborted at frame " + frameNumber);
+                    return false;
+                }
+                frameStart = frameEnd;
+            }
+            return true;
+        } finally {
+            linkSession.close();
+        }
+    }
+
+    /**
+     * Write one ENQ..EOT session through the link arbiter: waits while the
+     * analyzer is sending to us, then for CTS, and writes the session as one unit
+     */
+    private boolean sendSession(LinkTransport link, byte[] data, int length) throws IOException, InterruptedException {
+        LinkArbiter arbiter = LinkArbiter.forLink(link);
+        if (!arbiter.beginOutbound(LinkArbiter.LINE_WAIT_TIMEOUT_MS)) {
+            log("RS232DataWriter: Line stayed busy for " + LinkArbiter.LINE_WAIT_TIMEOUT_MS + " ms");
+            return false;
+        }
+        try {
+            if (!waitForClearToSend(link)) {
+                return false;
+            }
+            arbiter.write(data, 0, length);
+            return true;
+        } finally {
+            arbiter.endOutbound();
+        }
+    }
+
+    /**
+     * Without CTS flow control nothing tells the legacy format that the
+     * analyzer has taken the bytes, so it keeps its fixed gap
+     */
+    private void pace(LinkTransport link, long gapMs) throws InterruptedException {
+        if (!(link instanceof SerialLinkTransport) || !((SerialLinkTransport) link).isHardwareFlowControl()) {
+            Thread.sleep(gapMs);
+        }
+    }
+
+    /**
+     * Hold the transmission while the analyzer signals it is not ready (CTS low).
+     * Once started, the driver's RTS/CTS handshake paces the bytes at line speed.
+     */
+    private boolean waitForClearToSend(LinkTransport link) throws InterruptedException {
+        if (link.isClearToSend()) {
+            return true;
+        }
+        log("RS232DataWriter: Waiting for CTS on " + link.getName());
+        if (link.awaitClearToSend(CLEAR_TO_SEND_TIMEOUT_MS)) {
+            log("RS232DataWriter: CTS raised, resuming");
+            return true;
+        }
+        log("RS232DataWriter: CTS not raised within " + CLEAR_TO_SEND_TIMEOUT_MS + " ms");
+        return false;
+    }
+
+    private void appendByte(byte b) {
+        ensureWorklistCapacity(1);
+        worklistBuffer[worklistLength++] = b;
+    }
+
+    private void appendAscii(String text) {
+        ensureWorklistCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            worklistBuffer[worklistLength++] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+    }
+
+    private void ensureWorklistCapacity(int extra) {
+        if (worklistLength + extra > worklistBuffer.length) {
+            worklistBuffer = Arrays.copyOf(worklistBuffer, Math.max(worklistBuffer.length * 2, worklistLength + extra));
+        }
+    }
+
     /**
      * Create RS232 segment message with required fields
      * Format: mt|pi|pn|pl|si|ss|sp|ci|zz|
@@ -292,13 +570,13 @@ public class RS232DataWriter {
     /**
      * Close serial port connection
      */
-    public void closeConnection(SerialPort serialPort) {
-        if (serialPort != null && isConnected) {
+    public void closeConnection(LinkTransport link) {
+        if (link != null && isConnected) {
             try {
-                serialPort.closePort();
+                link.close();
                 isConnected = false;
                 log("RS232DataWriter: Port closed successfully");
-            } catch (SerialPortException ex) {
+            } catch (IOException ex) {
                 log("RS232DataWriter: Error closing port: " + ex.getMessage());
             }
         }
@@ -2,8 +2,7 @@ package com.writer;
 
 import java.util.ArrayList;
 import java.util.List;
-import jssc.SerialPort;
-import jssc.SerialPortException;
+import com.connector.LinkTransport;
 import com.reader.LabConnectUtil;
 
 /**
@@ -48,7 +47,7 @@ public class RS232DemoWriter {
         log("RS232DemoWriter: Testing simple message transmission");
         
         RS232DataWriter writer = new RS232DataWriter();
-        SerialPort demoPort = null; // In real usage, this would be initialized
+        LinkTransport demoPort = null; // In real usage, this would be initialized
         
         // Example simple messages
         String[] testMessages = {
@@ -74,7 +73,7 @@ public class RS232DemoWriter {
         log("RS232DemoWriter: Testing pipe-delimited message transmission");
         
         RS232DataWriter writer = new RS232DataWriter();
-        SerialPort demoPort = null; // In real usage, this would be initialized
+        LinkTransport demoPort = null; // In real usage, this would be initialized
         
         // Create sample lab order data
         List<LabOrderData> labOrderList = createSampleLabOrders();
@@ -116,7 +115,7 @@ public class RS232DemoWriter {
         log("RS232DemoWriter: Testing structured RS232 message transmission");
         
         RS232DataWriter writer = new RS232DataWriter();
-        SerialPort demoPort = null; // In real usage, this would be initialized
+        LinkTransport demoPort = null; // In real usage, this would be initialized
         
         // Create structured message
         List<LabOrderData> labOrderList = createSampleLabOrders();
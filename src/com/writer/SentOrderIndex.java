@@ -0,0 +1,300 @@
+package com.writer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+import com.reader.LabConnectUtil;
+
+/**
+ * Persistent index of the orders already written to the analyzer.
+ *
+ * Orders are keyed by sampleID and investigationCode and carry a hash of
+ * everything that goes on the wire, so an order is only sent again when it is
+ * new or its demographics changed. The index is an append-only text file
+ * (key TAB hash TAB sentTime per line, the last line for a key wins) that is
+ * rewritten when it grows to twice the live entries or entries expire.
+ * Retention is applied on load and then hourly while the service runs.
+ */
+public class SentOrderIndex {
+
+    public static final int DEFAULT_RETENTION_DAYS = 30;
+
+    private static final String SEPARATOR = "\t";
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final long EXPIRY_CHECK_MS = 60L * 60 * 1000;
+
+    private final File indexFile;
+    private final long retentionMs;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    // sampleID -> number of entries for it, for containsSample()
+    private final Map<String, Integer> sampleCounts = new HashMap<String, Integer>();
+    private int fileLines = 0;
+    private long lastExpiryCheck = 0;
+
+    private static class Entry {
+        final String hash;
+        final long sentTime;
+
+        Entry(String hash, long sentTime) {
+            this.hash = hash;
+            this.sentTime = sentTime;
+        }
+    }
+
+    public SentOrderIndex(File indexFile, int retentionDays) {
+        this.indexFile = indexFile;
+        this.retentionMs = (retentionDays > 0 ? retentionDays : DEFAULT_RETENTION_DAYS) * DAY_MS;
+    }
+
+    /**
+     * Default location: rootDrive/mednet/data/sentOrders_[propertyFileSuffix].txt
+     */
+    public static File defaultFile() {
+        return DataWriterConfig.getDataFile("sentOrders");
+    }
+
+    /**
+     * Read the index file; a missing file is an empty index
+     */
+    public synchronized void load() {
+        entries.clear();
+        sampleCounts.clear();
+        fileLines = 0;
+        lastExpiryCheck = System.currentTimeMillis();
+        if (!indexFile.exists()) {
+            log("SentOrderIndex: No index at " + indexFile + ", starting empty");
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR);
+                if (parts.length < 3) {
+                    continue;
+                }
+                try {
+                    put(parts[0], new Entry(parts[1], Long.parseLong(parts[2])));
+                    fileLines++;
+                } catch (NumberFormatException ex) {
+                    // Skip a line cut short by a crash
+                }
+            }
+        } catch (IOException ex) {
+            log("SentOrderIndex: Error reading " + indexFile + ": " + ex.getMessage());
+        } finally {
+            closeQuietly(reader);
+        }
+        int expired = expire(lastExpiryCheck);
+        log("SentOrderIndex: Loaded " + entries.size() + " sent orders from " + indexFile
+                + (expired > 0 ? " (" + expired + " expired)" : ""));
+        if (expired > 0 || fileLines > 2 * entries.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Split a fetched order list into the orders that still have to go to the analyzer
+     * @param alreadySent Receives the orders that were sent before unchanged (may be null)
+     * @return New orders and orders whose transmitted content changed
+     */
+    public synchronized List<LabOrderData> filterUnsent(List<LabOrderData> orders, List<LabOrderData> alreadySent) {
+        expireIfDue(System.currentTimeMillis());
+        List<LabOrderData> unsent = new ArrayList<LabOrderData>();
+        for (LabOrderData order : orders) {
+            Entry entry = entries.get(keyOf(order));
+            if (entry != null && entry.hash.equals(hashOf(order))) {
+                if (alreadySent != null) {
+                    alreadySent.add(order);
+                }
+            } else {
+                if (entry != null) {
+                    log("SentOrderIndex: Order " + keyOf(order) + " changed since it was sent, re-sending");
+                }
+                unsent.add(order);
+            }
+        }
+        return unsent;
+    }
+
+    /**
+     * Record orders as written to the analyzer
+     */
+    public synchronized void markSent(List<LabOrderData> orders) {
+        long now = System.currentTimeMillis();
+        StringBuilder lines = new StringBuilder();
+        for (LabOrderData order : orders) {
+            String key = keyOf(order);
+            String hash = hashOf(order);
+            put(key, new Entry(hash, now));
+            lines.append(key).append(SEPARATOR).append(hash).append(SEPARATOR).append(now).append("\n");
+            fileLines++;
+        }
+        append(lines.toString());
+        if (!expireIfDue(now) && fileLines > 2 * entries.size() + 100) {
+            compact();
+        }
+    }
+
+    public synchronized boolean isSent(LabOrderData order) {
+        Entry entry = entries.get(keyOf(order));
+        return entry != null && entry.hash.equals(hashOf(order));
+    }
+
+    /**
+     * Whether an order for this sample has been sent (any investigation)
+     */
+    public synchronized boolean containsSample(String sampleId) {
+        return sampleCounts.containsKey(trim(sampleId));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    static String keyOf(LabOrderData order) {
+        return trim(order.getSampleId()) + "|" + trim(order.getInvestigationCode());
+    }
+
+    /**
+     * Hash of the order fields that end up in the segment sent to the analyzer
+     */
+    static String hashOf(LabOrderData order) {
+        StringBuilder content = new StringBuilder();
+        content.append(trim(order.getSampleId())).append('|')
+               .append(trim(order.getInvestigationCode())).append('|')
+               .append(trim(order.getMrn())).append('|')
+               .append(trim(order.getPatientId())).append('|')
+               .append(trim(order.getPatientName())).append('|')
+               .append(trim(order.getPatientSex())).append('|')
+               .append(trim(order.getPatientBirthDate())).append('|')
+               .append(trim(order.getSpecimenType())).append('|')
+               .append(trim(order.getTestType())).append('|')
+               .append(trim(order.getPriority()));
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(content.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (Exception ex) {
+            return Integer.toHexString(content.toString().hashCode());
+        }
+    }
+
+    private void put(String key, Entry entry) {
+        if (entries.put(key, entry) == null) {
+            String sampleId = sampleOf(key);
+            Integer count = sampleCounts.get(sampleId);
+            sampleCounts.put(sampleId, count == null ? 1 : count + 1);
+        }
+    }
+
+    private void removeSample(String key) {
+        String sampleId = sampleOf(key);
+        Integer count = sampleCounts.get(sampleId);
+        if (count == null || count <= 1) {
+            sampleCounts.remove(sampleId);
+        } else {
+            sampleCounts.put(sampleId, count - 1);
+        }
+    }
+
+    private static String sampleOf(String key) {
+        int separator = key.lastIndexOf('|');
+        return separator >= 0 ? key.substring(0, separator) : key;
+    }
+
+    /**
+     * Drop expired entries once an hour, compacting the file if any went
+     * @return true if the file was compacted
+     */
+    private boolean expireIfDue(long now) {
+        if (now - lastExpiryCheck < EXPIRY_CHECK_MS) {
+            return false;
+        }
+        lastExpiryCheck = now;
+        int expired = expire(now);
+        if (expired == 0) {
+            return false;
+        }
+        log("SentOrderIndex: Expired " + expired + " sent orders older than " + retentionMs / DAY_MS + " days");
+        compact();
+        return true;
+    }
+
+    private int expire(long now) {
+        int expired = 0;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (now - entry.getValue().sentTime > retentionMs) {
+                iterator.remove();
+                removeSample(entry.getKey());
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    private void append(String lines) {
+        Writer writer = null;
+        try {
+            File folder = indexFile.getParentFile();
+            if (folder != null && !folder.exists()) {
+                folder.mkdirs();
+            }
+            writer = new OutputStreamWriter(new FileOutputStream(indexFile, true), "UTF-8");
+            writer.write(lines);
+        } catch (IOException ex) {
+            log("SentOrderIndex: Error writing " + indexFile + ": " + ex.getMessage());
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Rewrite the file with only the live entries. The new file replaces the
+     * old one in a single atomic rename, so a crash leaves one or the other.
+     */
+    private void compact() {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writer.write(entry.getKey() + SEPARATOR + entry.getValue().hash + SEPARATOR + entry.getValue().sentTime + "\n");
+            }
+            writer.close();
+            writer = null;
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fileLines = entries.size();
+        } catch (IOException ex) {
+            log("SentOrderIndex: Error compacting " + indexFile + ": " + ex.getMessage());
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private static String trim(String value) {
+        return value != null ? value.trim() : "";
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+
+    private void log(String message) {
+        LabConnectUtil.log(message);
+    }
+}
@@ -2,7 +2,7 @@ package com.writer;
 
 import java.util.*;
 import com.reader.LabConnectUtil;
-import jssc.SerialPort;
+import com.connector.LinkTransport;
 
 /**
  * Simple in-memory data provider for testing and demonstration
@@ -42,7 +42,7 @@ public class SimpleDataProvider implements DataProvider {
     }
     
     @Override
-    public List<LabOrderData> getLabOrderData(SerialPort serialPort) {
+    public List<LabOrderData> getLabOrderData(LinkTransport link) {
         if (dataQueue.isEmpty()) {
             return new ArrayList<LabOrderData>();
         }
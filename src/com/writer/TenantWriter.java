@@ -0,0 +1,170 @@
+package com.writer;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+import com.reader.LabConnectUtil;
+import com.reader.MachineReadData;
+import com.connector.LinkTransport;
+
+/**
+ * Order writer of one company/analyzer profile: its own data provider,
+ * connector, sent-orders index, acknowledgment queue and push endpoint.
+ *
+ * DataWriterService runs one for the service's own analyzer and one per
+ * tenant listed in the tenants property. Tenants share the process: the HTTP
+ * client's connection pool, the log and DataWriterService.getStatus(), but
+ * none of the queues or state files, so a slow or failing LIS for one company
+ * does not hold back another.
+ */
+public class TenantWriter {
+
+    private final String name;
+    private final DataWriterConfig config;
+    private final String resultMachineId;
+    private ApiDataProvider dataProvider;
+    private DataWriterConnector writerConnector;
+    private OrderPushServer pushServer;
+
+    private TenantWriter(String name, DataWriterConfig config, String resultMachineId) {
+        this.name = name;
+        this.config = config;
+        this.resultMachineId = resultMachineId;
+    }
+
+    /**
+     * Build the writer from a loaded configuration
+     * @param bundle Properties with the analyzer, API and port settings (the tenant's view for a tenant)
+     */
+    public static TenantWriter create(DataWriterConfig config, ResourceBundle bundle) throws Exception {
+        String machineCode = config.getMachineCode(bundle);
+        TenantWriter tenant = new TenantWriter(config.getTenant(), config,
+            bundle.containsKey("machineID") ? bundle.getString("machineID").trim() : machineCode);
+        tenant.build(bundle, machineCode);
+        return tenant;
+    }
+
+    private void build(ResourceBundle bundle, String machineCode) throws Exception {
+        dataProvider = new ApiDataProvider();
+        dataProvider.configure(
+            config.getApiBaseUrl(bundle),
+            machineCode,
+            config.getCompanyId(bundle)
+        );
+        dataProvider.setFetchInterval(config.getPollingInterval());
+
+        Map<String, String> fanOutTargets = config.getFanOutTargets();
+        if (!fanOutTargets.isEmpty()) {
+            dataProvider.setFanOut(new OrderFanOut(machineCode, fanOutTargets, config.getFanOutApiKeys(),
+                config.getPushApiKey()));
+        }
+
+        writerConnector = new DataWriterConnector();
+        writerConnector.configure(config.getComPort(bundle), dataProvider);
+
+        writerConnector.configureSerialPort(
+            config.getBaudRate(),
+            config.getDataBits(),
+            config.getStopBits(),
+            config.getParity()
+        );
+
+        writerConnector.setPollingInterval(config.getPollingInterval());
+        writerConnector.setFraming(config.getMaxFrameSize(), config.isAstmFraming());
+        writerConnector.setWorklistBatchSize(config.getWorklistBatchSize());
+        writerConnector.setFetchChunkSize(config.getFetchChunkSize());
+        writerConnector.setPipelineQueueCapacity(config.getPipelineQueueCapacity());
+        writerConnector.setPriorityAging(config.getPriorityAgingTime());
+
+        if (config.isSentOrderIndexEnabled()) {
+            String indexFile = config.getSentOrderIndexFile();
+            SentOrderIndex sentOrderIndex = new SentOrderIndex(
+                indexFile.isEmpty() ? config.getStateFile("sentOrders") : new File(indexFile),
+                config.getSentOrderRetentionDays());
+            sentOrderIndex.load();
+            writerConnector.setSentOrderIndex(sentOrderIndex);
+        }
+
+        if (config.isOfflineCacheEnabled()) {
+            OfflineOrderCache offlineCache = new OfflineOrderCache(config.getStateFile("offlineOrders"),
+                config.getOfflineCacheMaxOrders(), config.getOfflineCacheRetentionDays());
+            offlineCache.load();
+            dataProvider.setOfflineCache(offlineCache);
+            writerConnector.setOfflineCache(offlineCache);
+        }
+
+        if (config.isPushEnabled()) {
+            // Orders arrive by push; polling is only the reconciliation sweep
+            long minInterval = config.isAdaptivePolling() ? config.getPollMinInterval() : config.getPushReconcileInterval();
+            writerConnector.setPollScheduler(new AdaptivePollScheduler(minInterval, config.getPushReconcileInterval()));
+            pushServer = new OrderPushServer(config.getPushBindAddress(), config.getPushPort(), config.getPushPath(),
+                config.getPushApiKey(), dataProvider, writerConnector);
+        } else if (config.isAdaptivePolling()) {
+            writerConnector.setPollScheduler(new AdaptivePollScheduler(config.getPollMinInterval(), config.getPollMaxInterval()));
+        }
+
+        if (config.isAckQueueEnabled()) {
+            final ApiDataProvider apiProvider = dataProvider;
+            writerConnector.setAcknowledgmentQueue(new AcknowledgmentQueue(new AcknowledgmentQueue.Sender() {
+                public boolean send(List<LabOrderData> orders, boolean success) {
+                    return apiProvider.acknowledgeOrders(orders, success);
+                }
+            }, config.getStateFile("pendingAcks"), config.getAckCoalesceDelay(), config.getAckMaxBatch(),
+                config.getAckMaxAttempts()));
+        }
+    }
+
+    public void start(LinkTransport link) {
+        writerConnector.start(link);
+        if (pushServer != null) {
+            try {
+                pushServer.start();
+            } catch (Exception ex) {
+                log(label() + ": Order push endpoint unavailable, polling only: " + ex.getMessage());
+            }
+        }
+    }
+
+    public void stop(LinkTransport link) {
+        if (pushServer != null) {
+            pushServer.stop();
+        }
+        writerConnector.stop(link);
+    }
+
+    /**
+     * Tenant name, null for the service's own analyzer
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Machine ID this tenant's analyzer results are reported under
+     */
+    public String getResultMachineId() {
+        return resultMachineId;
+    }
+
+    public ApiDataProvider getDataProvider() {
+        return dataProvider;
+    }
+
+    public void onResultReceived(MachineReadData machineReadData) {
+        writerConnector.onResultReceived(machineReadData);
+    }
+
+    public String getStatus() {
+        return writerConnector.getStatus();
+    }
+
+    private String label() {
+        return name == null ? "DataWriterService" : "DataWriterService[" + name + "]";
+    }
+
+    private static void log(String message) {
+        LabConnectUtil.log(message);
+    }
+}
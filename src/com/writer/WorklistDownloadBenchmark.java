@@ -0,0 +1,97 @@
+package com.writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.connector.InMemoryLinkTransport;
+
+/**
+ * Orders/sec of the per-order worklist download against the batched one.
+ *
+ * The simulated analyzer reads from an in-memory link and holds every chunk
+ * for the time it would take on the wire at the given baud rate (10 bits per
+ * byte), counting one order per ETX and one session per EOT.
+ *
+ * Usage: WorklistDownloadBenchmark [orders=200] [baud=9600] [ordersPerSession=50]
+ */
+public class WorklistDownloadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int baud = args.length > 1 ? Integer.parseInt(args[1]) : 9600;
+        int ordersPerSession = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        List<LabOrderData> worklist = new ArrayList<LabOrderData>();
+        for (int i = 0; i < orders; i++) {
+            LabOrderData order = TestDataGenerator.generateSingleLabOrder();
+            order.setMrn("MRN" + i);
+            order.setSampleId("S" + (100000 + i));
+            worklist.add(order);
+        }
+
+        System.out.println("=== Worklist Download Benchmark ===");
+        System.out.println("Orders: " + orders + ", baud: " + baud + ", orders per session: " + ordersPerSession);
+        System.out.println(String.format("%-12s | %10s | %10s | %9s | %10s", "Mode", "Time (ms)", "Orders/s", "Sessions", "Bytes"));
+        run("per-order", worklist, baud, 0);
+        run("batched", worklist, baud, ordersPerSession);
+        System.out.println("=== End Worklist Download Benchmark ===");
+    }
+
+    private static void run(String mode, List<LabOrderData> worklist, final int baud, int ordersPerSession) throws Exception {
+        InMemoryLinkTransport[] pair = InMemoryLinkTransport.createPair("lis", "analyzer");
+        final InMemoryLinkTransport lis = pair[0];
+        final InMemoryLinkTransport analyzer = pair[1];
+        lis.open();
+        analyzer.open();
+
+        final CountDownLatch received = new CountDownLatch(worklist.size());
+        final AtomicLong sessions = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        Thread simulator = new Thread(new Runnable() {
+            public void run() {
+                byte[] buffer = new byte[8192];
+                try {
+                    while (true) {
+                        int length = analyzer.read(buffer, 0, buffer.length, 1000);
+                        if (length < 0) {
+                            break;
+                        }
+                        if (length > 0) {
+                            Thread.sleep(length * 10000L / baud);
+                        }
+                        bytes.addAndGet(length);
+                        for (int i = 0; i < length; i++) {
+                            if (buffer[i] == 0x03) {
+                                received.countDown();
+                            } else if (buffer[i] == 0x04) {
+                                sessions.incrementAndGet();
+                            }
+                        }
+                    }
+                } catch (Exception ex) {
+                    // link closed
+                }
+            }
+        }, "SimulatedAnalyzer");
+        simulator.setDaemon(true);
+        simulator.start();
+
+        RS232DataWriter writer = new RS232DataWriter();
+        long start = System.nanoTime();
+        boolean sent = ordersPerSession > 0
+                ? writer.sendWorklistBatch(worklist, lis, null, ordersPerSession)
+                : writer.sendPipeDelimitedMessage(worklist, lis);
+        boolean complete = received.await(10, TimeUnit.MINUTES);
+        long elapsedNanos = System.nanoTime() - start;
+
+        lis.close();
+        analyzer.close();
+
+        System.out.println(String.format("%-12s | %10d | %10.1f | %9d | %10d%s", mode, elapsedNanos / 1000000,
+                worklist.size() * 1e9 / elapsedNanos, sessions.get(), bytes.get(),
+                sent && complete ? "" : "  (incomplete)"));
+    }
+}